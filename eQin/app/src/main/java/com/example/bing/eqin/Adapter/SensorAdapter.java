@@ -1,5 +1,6 @@
 package com.example.bing.eqin.adapter;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.widget.ImageView;
 
@@ -12,11 +13,27 @@ import com.example.bing.eqin.model.SensorItem;
 import java.util.List;
 
 public class SensorAdapter extends BaseQuickAdapter<SensorItem, BaseViewHolder> {
+    // the payload of notifyItemChanged when only the value of the sensor is changed
+    public static final Object PAYLOAD_DATA = new Object();
 
     public SensorAdapter(int layoutResId, @Nullable List<SensorItem> data) {
         super(layoutResId, data);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull BaseViewHolder holder, int position, @NonNull List<Object> payloads) {
+        boolean dataOnly = !payloads.isEmpty();
+        for (Object payload : payloads) {
+            dataOnly &= payload == PAYLOAD_DATA;
+        }
+        SensorItem item = dataOnly ? getItem(position - getHeaderLayoutCount()) : null;
+        if (item != null) {
+            holder.setText(R.id.sensor_item_data, item.getData());
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
+    }
+
     @Override
     protected void convert(BaseViewHolder helper, SensorItem item) {
         helper.setText(R.id.sensor_item_data, item.getData());
@@ -4,6 +4,8 @@ import android.app.Application;
 import android.util.Log;
 
 import com.example.bing.eqin.activity.CustomPinActivity;
+import com.example.bing.eqin.controller.DataController;
+import com.example.bing.eqin.controller.MQTTController;
 import com.github.omadahealth.lollipin.lib.managers.LockManager;
 import com.parse.Parse;
 import com.parse.ParseACL;
@@ -27,6 +29,9 @@ public class ApplicationStarter extends Application {
         acl.setPublicWriteAccess(true);
         ParseACL.setDefaultACL(acl, true);
 
+        MQTTController.getInstance().init(this);
+        DataController.getInstance().init(this);
+
         LockManager<CustomPinActivity> lockManager = LockManager.getInstance();
         lockManager.enableAppLock(this, CustomPinActivity.class);
         lockManager.getAppLock().setLogoId(R.drawable.e);
@@ -34,4 +39,13 @@ public class ApplicationStarter extends Application {
         lockManager.getAppLock().setTimeout(1000);
 
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // the app may be killed once it is in the background, the history kept in memory is written
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            DataController.getInstance().flush();
+        }
+    }
 }
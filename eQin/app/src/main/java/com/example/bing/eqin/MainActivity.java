@@ -38,6 +38,8 @@ import com.bumptech.glide.Glide;
 import com.example.bing.eqin.activity.CustomPinActivity;
 import com.example.bing.eqin.activity.EspTouchActivity;
 import com.example.bing.eqin.activity.LoginSignUpActivity;
+import com.example.bing.eqin.controller.DeviceRegistry;
+import com.example.bing.eqin.controller.TopicRouter;
 import com.example.bing.eqin.fragment.home.AboutFragment;
 import com.example.bing.eqin.fragment.home.CartFragment;
 import com.example.bing.eqin.fragment.home.HomeFragment;
@@ -60,8 +62,6 @@ import com.yarolegovich.slidingrootnav.SlidingRootNav;
 import com.yarolegovich.slidingrootnav.SlidingRootNavBuilder;
 
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.greenrobot.eventbus.EventBus;
-import org.greenrobot.eventbus.Subscribe;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -102,7 +102,7 @@ public class MainActivity extends AppCompatActivity implements DrawerAdapter.OnI
         super.onCreate(savedInstanceState);
 
         createNotificationChannel();
-        EventBus.getDefault().register(this);
+        TopicRouter.getInstance().register("push", pushHandler);
 
 
         SharedPreferences sharedPreferences = getSharedPreferences("settings", MODE_PRIVATE);
@@ -232,6 +232,7 @@ public class MainActivity extends AppCompatActivity implements DrawerAdapter.OnI
     @Override
     public void onItemSelected(int position) {
         if (position == POS_LOGOUT) {
+            DeviceRegistry.getInstance().clear();
             finish();
         }
 
@@ -326,6 +327,9 @@ public class MainActivity extends AppCompatActivity implements DrawerAdapter.OnI
                     Glide.with(this).load(userAvatarUrl).into(userAvatar);
                     userNickname.setText(nickname.replace(" ",""));
                     CommonUtils.showMessage(MainActivity.this, "登录成功");
+                    // the devices of the user logged in
+                    DeviceRegistry.getInstance().clear();
+                    DeviceRegistry.getInstance().load();
                 }else{
                     CommonUtils.showMessage(MainActivity.this, "取消登录");
                 }
@@ -366,15 +370,22 @@ public class MainActivity extends AppCompatActivity implements DrawerAdapter.OnI
 
     }
 
-    @Subscribe
-    public void onEvent(MQTTDataItem message) {
-        try {
-            String topic = message.getTopic();
-            JSONObject jsonObject = new JSONObject(message.getData().toString());
-            if(topic.equals("push"))
-                CommonUtils.startNotification(this,jsonObject.getString("title"), jsonObject.getString("content"));
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
+    @Override
+    protected void onDestroy() {
+        TopicRouter.getInstance().unregister(pushHandler);
+        super.onDestroy();
     }
+
+    private TopicRouter.Handler pushHandler = new TopicRouter.Handler() {
+        @Override
+        public void onMessage(MQTTDataItem message) {
+            try {
+                // only the push is decoded, the sensor payloads are parsed already
+                JSONObject jsonObject = new JSONObject(message.getData());
+                CommonUtils.startNotification(MainActivity.this,jsonObject.getString("title"), jsonObject.getString("content"));
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+    };
 }
@@ -0,0 +1,174 @@
+package com.example.bing.eqin.controller;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publish the values of a topic at most once per flush interval, the latest value wins and
+ * the values replaced before being sent are dropped.
+ * <p>
+ * The transient values, e.g. the brightness while the seek bar is being dragged, are sent
+ * with the QoS downgraded to {@link #setTransientQos(int)}, and dropped while not connected.
+ * The final value is sent at once with the requested QoS by
+ * {@link MQTTController#publishSet(String, int, byte[])}, and sent again later if the
+ * in-flight window is full. A transient value replacing a final value not sent yet is sent
+ * as the final value with its QoS.
+ */
+public class CoalescingPublisher {
+    private static final String TAG = "CoalescingPublisher";
+    private static final long DEFAULT_FLUSH_INTERVAL = 100;
+
+    private final MQTTController mController;
+    private final ScheduledExecutorService mExecutor;
+    // the values not sent yet and the time of the last sending, by topic
+    private final Map<String, Pending> mPendings = new HashMap<>();
+    private final Map<String, Long> mLastSentTimes = new HashMap<>();
+    private volatile long mFlushInterval = DEFAULT_FLUSH_INTERVAL;
+    private volatile int mTransientQos = 0;
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    CoalescingPublisher(MQTTController controller) {
+        mController = controller;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Publish the value coalesced with the other values of the topic
+     *
+     * @param isFinal whether it is the final value, e.g. the seek bar is released
+     */
+    public void publish(String topicName, int qos, byte[] payload, boolean isFinal) {
+        Pending pending = new Pending(qos, payload, isFinal);
+        long delay;
+        synchronized (mPendings) {
+            Pending replaced = mPendings.put(topicName, pending);
+            if (replaced != null && replaced.mIsFinal && !isFinal) {
+                // the final value not sent yet mustn't be downgraded by a later transient
+                // one, the latest value is sent as the final one instead
+                mPendings.put(topicName, new Pending(replaced.mQos, payload, true));
+            }
+            if (replaced != null) {
+                mDroppedCount.incrementAndGet();
+                // the flush of the replaced value is scheduled already, the final value
+                // doesn't wait for it
+                if (!isFinal) {
+                    return;
+                }
+            }
+            Long lastSentTime = mLastSentTimes.get(topicName);
+            delay = isFinal || lastSentTime == null ? 0
+                    : lastSentTime + mFlushInterval - System.currentTimeMillis();
+        }
+        schedule(topicName, delay);
+    }
+
+    /**
+     * Set the min interval between the values of the same topic in milliseconds
+     */
+    public void setFlushInterval(long flushInterval) {
+        if (flushInterval < 0) {
+            throw new IllegalArgumentException("flushInterval shouldn't be negative");
+        }
+        mFlushInterval = flushInterval;
+    }
+
+    public long getFlushInterval() {
+        return mFlushInterval;
+    }
+
+    /**
+     * Set the max QoS of the transient values, the lower one of it and the requested QoS is used
+     */
+    public void setTransientQos(int transientQos) {
+        if (transientQos < 0 || transientQos > 2) {
+            throw new IllegalArgumentException("transientQos should be 0, 1 or 2");
+        }
+        mTransientQos = transientQos;
+    }
+
+    public int getTransientQos() {
+        return mTransientQos;
+    }
+
+    public long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * The count of the values replaced by the later ones, or the transient values rejected
+     * because the in-flight window is full or the client isn't connected
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private void schedule(final String topicName, long delay) {
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(topicName);
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(String topicName) {
+        Pending pending;
+        synchronized (mPendings) {
+            pending = mPendings.remove(topicName);
+            if (pending == null) {
+                return;
+            }
+            mLastSentTimes.put(topicName, System.currentTimeMillis());
+        }
+        // the final value is a command setting the state, kept in the outbox while not connected
+        boolean sent = pending.mIsFinal
+                ? mController.publishSet(topicName, pending.mQos, pending.mPayload)
+                : mController.publishNow(topicName, Math.min(pending.mQos, mTransientQos), pending.mPayload, null);
+        if (sent) {
+            mSentCount.incrementAndGet();
+        } else if (pending.mIsFinal && mController.isConnected()) {
+            // the window is full, send it again unless a later value replaces it
+            synchronized (mPendings) {
+                if (mPendings.containsKey(topicName)) {
+                    return;
+                }
+                mPendings.put(topicName, pending);
+            }
+            schedule(topicName, mFlushInterval);
+        } else {
+            mDroppedCount.incrementAndGet();
+            Log.w(TAG, "Drop the value of topic \"" + topicName + "\"");
+        }
+    }
+
+    private static class Pending {
+        private final int mQos;
+        private final byte[] mPayload;
+        private final boolean mIsFinal;
+
+        private Pending(int qos, byte[] payload, boolean isFinal) {
+            mQos = qos;
+            mPayload = payload;
+            mIsFinal = isFinal;
+        }
+    }
+}
@@ -1,20 +1,55 @@
 package com.example.bing.eqin.controller;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
 import com.example.bing.eqin.model.DeviceItem;
-import com.example.bing.eqin.model.SensorItem;
+import com.example.bing.eqin.model.MQTTDataItem;
+import com.example.bing.eqin.model.SensorBuckets;
+import com.example.bing.eqin.model.SensorSeries;
+import com.example.bing.eqin.model.TopicKey;
 import com.parse.ParseException;
 import com.parse.ParseObject;
 import com.parse.ParseQuery;
-import com.parse.ParseUser;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+/**
+ * The history of the sensors. The values arrived by MQTT are kept by
+ * {@link SensorHistoryStore}, the server is queried only for the gaps of the local history.
+ */
 public class DataController {
+    // the ranges without local values shorter than it aren't fetched from the server, the
+    // longer ones are gaps only if they are long for the sensor's cadence as well
+    private static final long MIN_GAP = 60 * 1000;
+    // the gaps closer than it are fetched by one query, the values between them are dropped
+    private static final long MERGE_DISTANCE = 30 * 60 * 1000;
+    // the queries of a backfill at most, the older gaps are fetched by the next ones
+    private static final int MAX_FETCHES = 4;
+    private static final int MAX_FETCH_COUNT = 1000;
+    // the messages queued by the broker arrive in a burst within it after the session is
+    // resumed, so the arrival time of a value without its own time is wrong within it
+    private static final long QUEUED_DELIVERY_WINDOW = 5 * 1000;
+    // a time sent by a sensor less than it is in seconds
+    private static final double MAX_SECONDS = 1e11;
 
     private static DataController mInstance;
 
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // the ranges fetched from the server by topic, they aren't fetched again in this process
+    private final Map<String, List<long[]>> fetchedRanges = new HashMap<>();
+
     public static DataController getInstance() {
         if(mInstance == null){
             mInstance = new DataController();
@@ -22,26 +57,271 @@ public class DataController {
         return mInstance;
     }
 
-    public List<SensorItem> getRecentData(DeviceItem deviceItem){
-        List<SensorItem> sensorItems = new LinkedList<>();
+    private DataController() {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DataController");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Keep the history in the app's files and start recording the values arrived
+     */
+    public void init(Context context) {
+        SensorHistoryStore.getInstance().open(new File(context.getFilesDir(), "history"));
+        TopicRouter.getInstance().register("+/temperature/+", historyHandler);
+        TopicRouter.getInstance().register("+/humidity/+", historyHandler);
+    }
+
+    /**
+     * Load about threshold points of the sensor between from and to to be drawn without
+     * blocking, selected by {@link SensorHistoryStore#queryDownsampled}. The callback is called
+     * with the local values at once, and called again if the gaps are fetched from the server.
+     */
+    public void getHistory(final DeviceItem deviceItem, final long from, final long to, final int threshold,
+                           final HistoryCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String topic = deviceItem.getTopic();
+                SensorHistoryStore store = SensorHistoryStore.getInstance();
+                post(callback, store.queryDownsampled(topic, from, to, threshold));
+                if (backfill(topic, from, to) > 0) {
+                    post(callback, store.queryDownsampled(topic, from, to, threshold));
+                }
+            }
+        });
+    }
+
+    /**
+     * Load the min, max and average of the sensor in bucketCount buckets between from and to,
+     * the callback is called like {@link #getHistory}
+     */
+    public void getHistoryBuckets(final DeviceItem deviceItem, final long from, final long to, final int bucketCount,
+                                  final BucketsCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String topic = deviceItem.getTopic();
+                SensorHistoryStore store = SensorHistoryStore.getInstance();
+                post(callback, store.queryBuckets(topic, from, to, bucketCount));
+                if (backfill(topic, from, to) > 0) {
+                    post(callback, store.queryBuckets(topic, from, to, bucketCount));
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the values kept in memory, e.g. before the app is killed in the background
+     */
+    public void flush() {
+        SensorHistoryStore.getInstance().flush();
+    }
+
+    // fetch the values of the gaps between from and to, the latest gaps first, return the
+    // count fetched
+    private int backfill(String topic, long from, long to) {
+        List<long[]> gaps = SensorHistoryStore.getInstance().findGaps(topic, from, to, MIN_GAP);
+        List<long[]> fetched = fetchedRanges.get(topic);
+        if (fetched == null) {
+            fetched = new ArrayList<>();
+            fetchedRanges.put(topic, fetched);
+        }
+        List<List<long[]>> groups = group(subtract(gaps, fetched));
+        int count = 0;
+        for (int i = groups.size() - 1; i >= 0 && i >= groups.size() - MAX_FETCHES; i--) {
+            count += fetch(topic, groups.get(i), fetched);
+        }
+        return count;
+    }
+
+    // the gaps fetched by the same query, in time order
+    private static List<List<long[]>> group(List<long[]> gaps) {
+        List<List<long[]>> groups = new ArrayList<>();
+        List<long[]> group = null;
+        for (long[] gap : gaps) {
+            if (group == null || gap[0] - group.get(group.size() - 1)[1] > MERGE_DISTANCE) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(gap);
+        }
+        return groups;
+    }
+
+    // fetch the range of the gaps by one query, only the values inside the gaps are kept
+    private int fetch(String topic, List<long[]> gaps, List<long[]> fetched) {
+        long from = gaps.get(0)[0];
+        long to = gaps.get(gaps.size() - 1)[1];
         ParseQuery<ParseObject> query = ParseQuery.getQuery("UserData");
-        query.setLimit(30);
+        query.setLimit(MAX_FETCH_COUNT);
+        // the latest values of the gap if there are more than the limit
         query.orderByDescending("createdAt");
-        query.whereEqualTo("topic", deviceItem.getTopic());
+        query.whereEqualTo("topic", topic);
+        query.whereGreaterThan("createdAt", new Date(from));
+        query.whereLessThan("createdAt", new Date(to));
         List<ParseObject> objects = null;
         try {
-            objects =  query.find();
+            objects = query.find();
         } catch (ParseException e) {
-            e.printStackTrace();
+            Log.e("DataController", "Fetch the history of " + topic + " failed: " + e);
         }
-        for(ParseObject o: objects){
-            SensorItem sensorItem = new SensorItem();
-            sensorItem.setData(o.getString("data"));
-            sensorItem.setDate(o.getCreatedAt());
-            sensorItems.add(sensorItem);
+        if (objects == null) {
+            return 0;
         }
+        int size = objects.size();
+        long[] times = new long[size];
+        float[] values = new float[size];
+        int count = 0;
+        // the older part of the range isn't fetched if the limit is reached
+        long oldest = to;
+        for (int i = size - 1; i >= 0; i--) {
+            ParseObject o = objects.get(i);
+            if (o.getCreatedAt() == null) {
+                continue;
+            }
+            long time = o.getCreatedAt().getTime();
+            oldest = Math.min(oldest, time);
+            float value = parseValue(o.get("data"));
+            if (!Float.isNaN(value) && inside(gaps, time)) {
+                times[count] = time;
+                values[count] = value;
+                count++;
+            }
+        }
+        SensorHistoryStore.getInstance().insert(topic, times, values, count);
+        fetched.add(new long[]{size == MAX_FETCH_COUNT ? oldest : from, to});
+        return count;
+    }
+
+    private void post(final HistoryCallback callback, final SensorSeries series) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onHistory(series);
+            }
+        });
+    }
+
+    private void post(final BucketsCallback callback, final SensorBuckets buckets) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onBuckets(buckets);
+            }
+        });
+    }
 
-        return sensorItems;
+    // the data is saved as a number or a string by the server
+    private static float parseValue(Object data) {
+        if (data instanceof Number) {
+            return ((Number) data).floatValue();
+        }
+        if (data instanceof String) {
+            try {
+                return Float.parseFloat((String) data);
+            } catch (NumberFormatException e) {
+                return Float.NaN;
+            }
+        }
+        return Float.NaN;
     }
 
+    // whether the time is inside any of the gaps, whose ends are the values kept already
+    private static boolean inside(List<long[]> gaps, long time) {
+        for (long[] gap : gaps) {
+            if (time > gap[0] && time < gap[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the parts of the ranges not covered by any of the covered ones
+    private static List<long[]> subtract(List<long[]> ranges, List<long[]> covered) {
+        List<long[]> result = new ArrayList<>();
+        for (long[] range : ranges) {
+            List<long[]> parts = new ArrayList<>();
+            parts.add(range);
+            for (long[] c : covered) {
+                List<long[]> rest = new ArrayList<>();
+                for (long[] part : parts) {
+                    if (c[1] <= part[0] || c[0] >= part[1]) {
+                        rest.add(part);
+                        continue;
+                    }
+                    if (c[0] - part[0] > MIN_GAP) {
+                        rest.add(new long[]{part[0], c[0]});
+                    }
+                    if (part[1] - c[1] > MIN_GAP) {
+                        rest.add(new long[]{c[1], part[1]});
+                    }
+                }
+                parts = rest;
+            }
+            result.addAll(parts);
+        }
+        return result;
+    }
+
+    private final TopicRouter.Handler historyHandler = new TopicRouter.Handler() {
+        @Override
+        public void onMessage(MQTTDataItem message) {
+            TopicKey topicKey = message.getTopicKey();
+            if (topicKey == null) {
+                return;
+            }
+            int key;
+            switch (topicKey.getTypeCode()) {
+                case TopicKey.TYPE_TEMPERATURE:
+                    key = MQTTDataItem.VALUE_TEMPERATURE;
+                    break;
+                case TopicKey.TYPE_HUMIDITY:
+                    key = MQTTDataItem.VALUE_HUMIDITY;
+                    break;
+                default:
+                    return;
+            }
+            if (!message.hasValue(key)) {
+                return;
+            }
+            long time;
+            if (message.hasValue(MQTTDataItem.VALUE_TIME)) {
+                double sentTime = message.getValue(MQTTDataItem.VALUE_TIME);
+                time = (long) (sentTime < MAX_SECONDS ? sentTime * 1000 : sentTime);
+            } else {
+                time = System.currentTimeMillis();
+                if (message.isRetained() || message.isDuplicate()
+                        || time - MQTTController.getInstance().getSessionResumedTime() < QUEUED_DELIVERY_WINDOW) {
+                    // measured at an unknown time, the values missed are fetched from the
+                    // server as a gap instead
+                    return;
+                }
+            }
+            SensorHistoryStore.getInstance().append(topicKey.getTopic(), time, (float) message.getValue(key));
+        }
+    };
+
+    public interface HistoryCallback {
+        /**
+         * Called in the UI thread
+         *
+         * @param series the points of the sensor, in time order
+         */
+        void onHistory(SensorSeries series);
+    }
+
+    public interface BucketsCallback {
+        /**
+         * Called in the UI thread
+         *
+         * @param buckets the buckets with any value, in time order
+         */
+        void onBuckets(SensorBuckets buckets);
+    }
 }
@@ -3,6 +3,7 @@ package com.example.bing.eqin.controller;
 import android.content.Context;
 
 import com.example.bing.eqin.model.DeviceItem;
+import com.example.bing.eqin.model.DeviceSnapshot;
 import com.example.bing.eqin.model.SensorItem;
 import com.example.bing.eqin.utils.CommonUtils;
 import com.parse.FindCallback;
@@ -58,11 +59,14 @@ public class DeviceController {
                     object.put("location",item.getNote());
 
             object.put("topic", topic);
+            final ParseObject savedObject = object;
             object.saveInBackground(new SaveCallback() {
                 @Override
                 public void done(ParseException e) {
-                    if(e==null)
+                    if(e==null) {
+                        DeviceRegistry.getInstance().put(savedObject);
                         CommonUtils.showMessage(context, "添加成功");
+                    }
                 }
             });
         }else{
@@ -70,99 +74,35 @@ public class DeviceController {
         }
     }
 
+    /**
+     * The sensors or the controllers of the user, from {@link DeviceRegistry} without querying
+     * the server, empty before the devices are loaded
+     */
     public List<DeviceItem> getDevice(boolean isSensor){
-        List<DeviceItem> deviceItems = new LinkedList<>();
-        List<ParseObject> objects = null;
-        ParseQuery<ParseObject> query = ParseQuery.getQuery("UserDevice");
-        query.whereEqualTo("user", ParseUser.getCurrentUser());
-        query.whereEqualTo("isSensor", isSensor);
-        try {
-             objects = query.find();
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
-
-        if(objects!=null && objects.size()!=0){
-            for(ParseObject o: objects){
-                DeviceItem deviceItem = new DeviceItem();
-                deviceItem.setLocation(o.getString("location"));
-                deviceItem.setNote(o.getString("note"));
-                deviceItem.setSensor(o.getBoolean("isSensor"));
-                deviceItem.setTopic(o.getString("topic"));
-                deviceItem.setDeviceType(o.getString("deviceType"));
-                deviceItem.setConnectionType(o.getString("connectionType"));
-                deviceItem.setDeviceId(o.getString(o.getString("deviceId")));
-                deviceItem.setObjectId(o.getObjectId());
-                deviceItems.add(deviceItem);
-            }
-        }
-
-        return deviceItems;
+        DeviceSnapshot snapshot = DeviceRegistry.getInstance().getSnapshot();
+        return isSensor ? snapshot.getSensors() : snapshot.getControllers();
     }
 
     public List<String> getTopics(){
-        List<String> allTopics = new LinkedList<>();
-        List<ParseObject> objects = null;
-        ParseQuery<ParseObject> query = ParseQuery.getQuery("UserDevice");
-        query.whereEqualTo("user", ParseUser.getCurrentUser());
-        query.whereNotEqualTo("isSensor",false);
-        try {
-            objects = query.find();
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
-
-        if(objects!=null && objects.size()!=0){
-            for(ParseObject o: objects){
-                allTopics.add(o.getString("topic"));
-            }
-            allTopics.add("push");
-        }
-
-        return allTopics;
+        return new LinkedList<>(DeviceRegistry.getInstance().getSnapshot().getSensorTopics());
     }
 
     public List<String> getDeviceInfo(){
-        List<String> allDeviceInfo = new LinkedList<>();
-        List<ParseObject> objects = null;
-        ParseQuery<ParseObject> query = ParseQuery.getQuery("UserDevice");
-        query.whereEqualTo("user", ParseUser.getCurrentUser());
-        query.whereEqualTo("isSensor", true);
-        try{
-            objects = query.find();
-        }catch (ParseException e){
-            e.printStackTrace();
-        }
-
-        if(objects!=null && objects.size()!=0){
-            for (ParseObject object: objects){
-                String info = CommonUtils.mappingToName(object.getString("deviceType")) + "@" + object.getString("location");
-                allDeviceInfo.add(info);
-            }
-        }
-        return allDeviceInfo;
+        return new LinkedList<>(DeviceRegistry.getInstance().getSnapshot().getSensorLabels());
     }
 
     public void updateDevice(String objectId, DeviceItem deviceItem){
-        ParseQuery<ParseObject> query = ParseQuery.getQuery("UserDevice");
-        try {
-            ParseObject parseObject =  query.get(objectId);
-            parseObject.put("note", deviceItem.getNote());
-            parseObject.put("location", deviceItem.getLocation());
-            parseObject.saveInBackground();
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
+        // the object isn't fetched, only the fields changed are saved
+        ParseObject parseObject = ParseObject.createWithoutData("UserDevice", objectId);
+        parseObject.put("note", deviceItem.getNote());
+        parseObject.put("location", deviceItem.getLocation());
+        parseObject.saveInBackground();
+        DeviceRegistry.getInstance().update(objectId, deviceItem.getLocation(), deviceItem.getNote());
     }
 
     public void deleteDevice(String objectId){
-        ParseQuery<ParseObject> query = ParseQuery.getQuery("UserDevice");
-        try {
-            ParseObject parseObject =  query.get(objectId);
-            parseObject.deleteInBackground();
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
+        ParseObject.createWithoutData("UserDevice", objectId).deleteInBackground();
+        DeviceRegistry.getInstance().remove(objectId);
     }
 
 }
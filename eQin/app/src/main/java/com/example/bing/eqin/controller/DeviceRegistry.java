@@ -0,0 +1,263 @@
+package com.example.bing.eqin.controller;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.bing.eqin.model.DeviceItem;
+import com.example.bing.eqin.model.DeviceSnapshot;
+import com.parse.FindCallback;
+import com.parse.ParseException;
+import com.parse.ParseLiveQueryClient;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+import com.parse.ParseUser;
+import com.parse.SubscriptionHandling;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The devices of the current user, loaded from the server once and shared by all of the
+ * screens. The changes made by other clients are received by Parse LiveQuery, the changes
+ * made by this app are applied at once. The devices are loaded again when MQTT is reconnected,
+ * since the LiveQuery events are lost while offline.
+ * <p>
+ * The state is changed in the UI thread only, {@link #getSnapshot()} could be called in any
+ * thread.
+ */
+public class DeviceRegistry {
+    // the devices aren't loaded again by the reconnection sooner than it after the last load
+    private static final long MIN_RELOAD_INTERVAL = 30 * 1000;
+
+    private static final DeviceRegistry sInstance = new DeviceRegistry();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // the devices by object ID, in the order loaded
+    private final Map<String, DeviceItem> mDevices = new LinkedHashMap<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private volatile DeviceSnapshot mSnapshot = DeviceSnapshot.EMPTY;
+    private boolean mLoaded;
+    private boolean mLoading;
+    // increased by clear(), the loads started before it are ignored
+    private int mLoadGeneration;
+    private long mLoadTime;
+    private ParseLiveQueryClient mLiveQueryClient;
+    private ParseQuery<ParseObject> mLiveQuery;
+
+    public static DeviceRegistry getInstance() {
+        return sInstance;
+    }
+
+    private DeviceRegistry() {
+        MQTTController.getInstance().setConnectionListener(new MQTTController.ConnectionListener() {
+            @Override
+            public void onConnected(boolean reconnected) {
+                if (reconnected) {
+                    mMainHandler.post(mReloadIfStaleRunnable);
+                }
+            }
+        });
+    }
+
+    /**
+     * The devices loaded, empty before the first load is done
+     */
+    public DeviceSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Add the listener called in the UI thread whenever the devices are changed, and load the
+     * devices if they aren't loaded. It should be called in the UI thread.
+     */
+    public void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+        if (!mLoaded) {
+            load();
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Load the devices of the current user in background and subscribe to their changes,
+     * it should be called in the UI thread. It does nothing if it is loading already.
+     */
+    public void load() {
+        final ParseUser user = ParseUser.getCurrentUser();
+        if (user == null || mLoading) {
+            return;
+        }
+        mLoading = true;
+        final int generation = mLoadGeneration;
+        ParseQuery<ParseObject> query = ParseQuery.getQuery("UserDevice");
+        query.whereEqualTo("user", user);
+        query.findInBackground(new FindCallback<ParseObject>() {
+            @Override
+            public void done(List<ParseObject> objects, ParseException e) {
+                if (generation != mLoadGeneration) {
+                    // the devices of the user logged out
+                    return;
+                }
+                mLoading = false;
+                if (e != null || objects == null) {
+                    Log.e("DeviceRegistry", "Load the devices failed: " + e);
+                    return;
+                }
+                mDevices.clear();
+                for (ParseObject o : objects) {
+                    mDevices.put(o.getObjectId(), toDeviceItem(o));
+                }
+                mLoaded = true;
+                mLoadTime = System.currentTimeMillis();
+                publish();
+                subscribe(user);
+            }
+        });
+    }
+
+    /**
+     * Forget the devices, e.g. when the user logs out
+     */
+    public void clear() {
+        mLoadGeneration++;
+        mLoading = false;
+        unsubscribe();
+        mDevices.clear();
+        mLoaded = false;
+        publish();
+    }
+
+    /**
+     * Apply the device added or changed by this app
+     */
+    public void put(ParseObject object) {
+        mDevices.put(object.getObjectId(), toDeviceItem(object));
+        publish();
+    }
+
+    /**
+     * Apply the location and the note changed by this app
+     */
+    public void update(String objectId, String location, String note) {
+        DeviceItem deviceItem = mDevices.get(objectId);
+        if (deviceItem != null) {
+            deviceItem.setLocation(location);
+            deviceItem.setNote(note);
+            publish();
+        }
+    }
+
+    /**
+     * Apply the device deleted by this app
+     */
+    public void remove(String objectId) {
+        if (mDevices.remove(objectId) != null) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        DeviceSnapshot snapshot = new DeviceSnapshot(new ArrayList<>(mDevices.values()));
+        // the topics are parsed once here, not for every message
+        TopicKeyCache.getInstance().putDevices(new ArrayList<>(mDevices.values()));
+        mSnapshot = snapshot;
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onDevicesChanged(snapshot);
+        }
+    }
+
+    private void subscribe(ParseUser user) {
+        if (mLiveQuery != null) {
+            return;
+        }
+        try {
+            if (mLiveQueryClient == null) {
+                mLiveQueryClient = ParseLiveQueryClient.Factory.getClient();
+            }
+            mLiveQuery = ParseQuery.getQuery("UserDevice");
+            mLiveQuery.whereEqualTo("user", user);
+            SubscriptionHandling<ParseObject> handling = mLiveQueryClient.subscribe(mLiveQuery);
+            handling.handleEvents(new SubscriptionHandling.HandleEventsCallback<ParseObject>() {
+                @Override
+                public void onEvents(ParseQuery<ParseObject> query, final SubscriptionHandling.Event event,
+                                     final ParseObject object) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onLiveQueryEvent(event, object);
+                        }
+                    });
+                }
+            });
+        } catch (RuntimeException e) {
+            // the devices are kept in sync by the reloads only
+            Log.e("DeviceRegistry", "Subscribe to the devices failed: " + e);
+            mLiveQuery = null;
+        }
+    }
+
+    private void unsubscribe() {
+        if (mLiveQueryClient != null && mLiveQuery != null) {
+            mLiveQueryClient.unsubscribe(mLiveQuery);
+        }
+        mLiveQuery = null;
+    }
+
+    private void onLiveQueryEvent(SubscriptionHandling.Event event, ParseObject object) {
+        if (!mLoaded) {
+            return;
+        }
+        switch (event) {
+            case CREATE:
+            case ENTER:
+            case UPDATE:
+                put(object);
+                break;
+            case LEAVE:
+            case DELETE:
+                remove(object.getObjectId());
+                break;
+        }
+    }
+
+    private final Runnable mReloadIfStaleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mLoaded && System.currentTimeMillis() - mLoadTime > MIN_RELOAD_INTERVAL) {
+                load();
+            }
+        }
+    };
+
+    private static DeviceItem toDeviceItem(ParseObject o) {
+        DeviceItem deviceItem = new DeviceItem();
+        deviceItem.setLocation(o.getString("location"));
+        deviceItem.setNote(o.getString("note"));
+        deviceItem.setSensor(o.getBoolean("isSensor"));
+        deviceItem.setTopic(o.getString("topic"));
+        deviceItem.setDeviceType(o.getString("deviceType"));
+        deviceItem.setConnectionType(o.getString("connectionType"));
+        deviceItem.setDeviceId(o.getString("deviceId"));
+        deviceItem.setObjectId(o.getObjectId());
+        return deviceItem;
+    }
+
+    public interface Listener {
+        /**
+         * Called in the UI thread
+         */
+        void onDevicesChanged(DeviceSnapshot snapshot);
+    }
+}
@@ -1,5 +1,9 @@
 package com.example.bing.eqin.controller;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.components.AxisBase;
 import com.github.mikephil.charting.components.Description;
@@ -16,8 +20,15 @@ import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * 动态折线图。数据存在固定容量的环形缓冲区中，时间和每条曲线的值并排存放，超出容量的旧数据被覆盖，
+ * 图表长时间打开内存也不会增长。addEntry 可以在任何线程调用，每一帧最多重绘一次。
+ */
 public class DynamicLineChartController {
+    //默认保留的数据个数
+    public static final int DEFAULT_CAPACITY = 300;
 
     private LineChart lineChart;
     private YAxis leftAxis;
@@ -27,26 +38,66 @@ public class DynamicLineChartController {
     private LineDataSet lineDataSet;
     private List<ILineDataSet> lineDataSets = new ArrayList<>();
     private SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss");//设置日期格式  
-    private List<String> timeList = new ArrayList<>(); //存储x轴的时间
+    //显示的最大数量
+    private int visibleCount;
+
+    //环形缓冲区，第 seq 个数据在 seq % capacity，由 this 同步
+    private final int capacity;
+    private final long[] times;
+    private final float[][] values;
+    //已添加的数据总数
+    private long total;
+
+    //UI 线程使用：每条曲线复用的 Entry，以及当前显示的数据的时间
+    private final Entry[][] entryPool;
+    private final List<List<Entry>> entryLists = new ArrayList<>();
+    private final long[] drawnTimes;
+    private long drawnFirstSeq;
+    private int drawnCount;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
 
     //一条曲线
     public DynamicLineChartController(LineChart mLineChart, String name, int color) {
-        this.lineChart = mLineChart;
-        leftAxis = lineChart.getAxisLeft();
-        rightAxis = lineChart.getAxisRight();
-        xAxis = lineChart.getXAxis();
-        initLineChart();
+        this(mLineChart, name, color, DEFAULT_CAPACITY);
+    }
+
+    //一条曲线，最多保留 capacity 个数据
+    public DynamicLineChartController(LineChart mLineChart, String name, int color, int capacity) {
+        this(mLineChart, 1, capacity, 10);
         initLineDataSet(name, color);
     }
 
     //多条曲线
     public DynamicLineChartController(LineChart mLineChart, List<String> names, List<Integer> colors) {
+        this(mLineChart, names, colors, DEFAULT_CAPACITY);
+    }
+
+    //多条曲线，每条最多保留 capacity 个数据
+    public DynamicLineChartController(LineChart mLineChart, List<String> names, List<Integer> colors, int capacity) {
+        this(mLineChart, names.size(), capacity, 6);
+        initLineDataSet(names, colors);
+    }
+
+    private DynamicLineChartController(LineChart mLineChart, int seriesCount, int capacity, int visibleCount) {
         this.lineChart = mLineChart;
+        this.capacity = capacity;
+        this.visibleCount = visibleCount;
+        times = new long[capacity];
+        values = new float[seriesCount][capacity];
+        entryPool = new Entry[seriesCount][capacity];
+        for (int i = 0; i < seriesCount; i++) {
+            for (int j = 0; j < capacity; j++) {
+                entryPool[i][j] = new Entry();
+            }
+            entryLists.add(new ArrayList<Entry>(capacity));
+        }
+        drawnTimes = new long[capacity];
         leftAxis = lineChart.getAxisLeft();
         rightAxis = lineChart.getAxisRight();
         xAxis = lineChart.getXAxis();
         initLineChart();
-        initLineDataSet(names, colors);
     }
 
     /**
@@ -76,7 +127,12 @@ public class DynamicLineChartController {
         xAxis.setValueFormatter(new IAxisValueFormatter() {
             @Override
             public String getFormattedValue(float value, AxisBase axis) {
-                return timeList.get((int) value % timeList.size());
+                //x 是数据的序号，对应显示中的数据的时间
+                long index = (long) value - drawnFirstSeq;
+                if (index < 0 || index >= drawnCount) {
+                    return "";
+                }
+                return df.format(drawnTimes[(int) index]);
             }
         });
 
@@ -96,7 +152,7 @@ public class DynamicLineChartController {
      */
     private void initLineDataSet(String name, int color) {
 
-        lineDataSet = new LineDataSet(null, name);
+        lineDataSet = new LineDataSet(entryLists.get(0), name);
         lineDataSet.setLineWidth(1.5f);
         lineDataSet.setCircleRadius(1.5f);
         lineDataSet.setColor(color);
@@ -106,6 +162,7 @@ public class DynamicLineChartController {
         lineDataSet.setAxisDependency(YAxis.AxisDependency.LEFT);
         lineDataSet.setValueTextSize(10f);
         lineDataSet.setMode(LineDataSet.Mode.CUBIC_BEZIER);
+        lineDataSets.add(lineDataSet);
         lineData = new LineData();
         lineChart.setData(lineData);
         lineChart.invalidate();
@@ -121,7 +178,7 @@ public class DynamicLineChartController {
     private void initLineDataSet(List<String> names, List<Integer> colors) {
 
         for (int i = 0; i < names.size(); i++) {
-            lineDataSet = new LineDataSet(null, names.get(i));
+            lineDataSet = new LineDataSet(entryLists.get(i), names.get(i));
             lineDataSet.setColor(colors.get(i));
             lineDataSet.setLineWidth(1.5f);
             lineDataSet.setCircleRadius(1.5f);
@@ -148,28 +205,7 @@ public class DynamicLineChartController {
      * @param number
      */
     public void addEntry(int number) {
-
-        //最开始的时候才添加 lineDataSet（一个lineDataSet 代表一条线）
-        if (lineDataSet.getEntryCount() == 0) {
-            lineData.addDataSet(lineDataSet);
-        }
-        lineChart.setData(lineData);
-        //避免集合数据过多，及时清空（做这样的处理，并不知道有没有用，但还是这样做了）
-        if (timeList.size() > 11) {
-            timeList.clear();
-        }
-
-        timeList.add(df.format(System.currentTimeMillis()));
-
-        Entry entry = new Entry(lineDataSet.getEntryCount(), number);
-        lineData.addEntry(entry, 0);
-        //通知数据已经改变
-        lineData.notifyDataChanged();
-        lineChart.notifyDataSetChanged();
-        //设置在曲线图中显示的最大数量
-        lineChart.setVisibleXRangeMaximum(10);
-        //移到某个位置
-        lineChart.moveViewToX(lineData.getEntryCount() - 5);
+        addEntry(System.currentTimeMillis(), new float[]{number});
     }
 
     /**
@@ -178,24 +214,95 @@ public class DynamicLineChartController {
      * @param numbers
      */
     public void addEntry(List<Integer> numbers) {
+        float[] row = new float[numbers.size()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = numbers.get(i);
+        }
+        addEntry(System.currentTimeMillis(), row);
+    }
 
-        if (lineDataSets.get(0).getEntryCount() == 0) {
-            lineData = new LineData(lineDataSets);
-            lineChart.setData(lineData);
+    /**
+     * 添加一个时间的数据，可以在任何线程调用，下一帧才重绘
+     *
+     * @param time 数据的时间
+     * @param row  每条曲线的值，按曲线的顺序
+     */
+    public void addEntry(long time, float[] row) {
+        synchronized (this) {
+            int slot = (int) (total % capacity);
+            times[slot] = time;
+            for (int i = 0; i < values.length && i < row.length; i++) {
+                values[i][slot] = row[i];
+            }
+            total++;
+        }
+        if (frameScheduled.compareAndSet(false, true)) {
+            mainHandler.post(postFrameRunnable);
         }
-        if (timeList.size() > 11) {
-            timeList.clear();
+    }
+
+    /**
+     * 设置在曲线图中显示的最大数量
+     *
+     * @param count
+     */
+    public void setVisibleCount(int count) {
+        visibleCount = count;
+    }
+
+    private final Runnable postFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
         }
-        timeList.add(df.format(System.currentTimeMillis()));
-        for (int i = 0; i < numbers.size(); i++) {
-            Entry entry = new Entry(lineDataSet.getEntryCount(), numbers.get(i));
-            lineData.addEntry(entry, i);
+    };
+
+    //把这一帧之前添加的数据一次画出来
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled.set(false);
+            long lastSeq;
+            synchronized (DynamicLineChartController.this) {
+                int size = (int) Math.min(total, capacity);
+                long firstSeq = total - size;
+                for (int i = 0; i < values.length; i++) {
+                    List<Entry> entries = entryLists.get(i);
+                    entries.clear();
+                    for (int j = 0; j < size; j++) {
+                        int slot = (int) ((firstSeq + j) % capacity);
+                        Entry entry = entryPool[i][slot];
+                        entry.setX(firstSeq + j);
+                        entry.setY(values[i][slot]);
+                        entries.add(entry);
+                    }
+                }
+                for (int j = 0; j < size; j++) {
+                    drawnTimes[j] = times[(int) ((firstSeq + j) % capacity)];
+                }
+                drawnFirstSeq = firstSeq;
+                drawnCount = size;
+                lastSeq = total - 1;
+            }
+            if (drawnCount == 0) {
+                return;
+            }
+            //有数据后才添加 lineDataSet（一个lineDataSet 代表一条线）
+            if (lineData.getDataSetCount() == 0) {
+                lineData = new LineData(lineDataSets);
+                lineChart.setData(lineData);
+            }
+            for (ILineDataSet dataSet : lineDataSets) {
+                dataSet.calcMinMax();
+            }
+            //通知数据已经改变
             lineData.notifyDataChanged();
             lineChart.notifyDataSetChanged();
-            lineChart.setVisibleXRangeMaximum(6);
-            lineChart.moveViewToX(lineData.getEntryCount() - 5);
+            lineChart.setVisibleXRangeMaximum(visibleCount);
+            //移到某个位置
+            lineChart.moveViewToX(lastSeq - 4);
         }
-    }
+    };
 
     /**
      * 设置Y轴值
@@ -1,22 +1,89 @@
 package com.example.bing.eqin.controller;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.util.Log;
 
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MQTTController {
+    public static final String BROKER_URL = "tcp://115.159.98.171:1883";
+    // the messages published but not completed, more publishes are rejected instead of waiting
+    private static final int DEFAULT_MAX_IN_FLIGHT = 10;
+    // the delay of reconnecting is doubled after every failure, from MIN to MAX
+    private static final long MIN_RECONNECT_DELAY = 1000;
+    private static final long MAX_RECONNECT_DELAY = 64000;
+    // the delay of draining the outbox again when the in-flight window is full
+    private static final long DRAIN_RETRY_DELAY = 100;
+
     private static MQTTController mInstance = null;
     private MqttCallback mCallback;
-    private MqttClient client;
+    private CoalescingPublisher coalescingPublisher;
+    private MqttAsyncClient client;
     private MqttConnectOptions conOpt;
-    private boolean clean = true;
+    // the session is kept by the broker, so the subscriptions and QoS 1/2 messages survive
+    // the reconnections
+    private boolean clean = false;
+    private String clientId;
+    // the client ID and the topics subscribed in its session
+    private SharedPreferences preferences;
+    private File persistenceDir;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private Semaphore inFlightPermits = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicInteger peakInFlightCount = new AtomicInteger();
+    private final AtomicLong completedPublishCount = new AtomicLong();
+    private final AtomicLong failedPublishCount = new AtomicLong();
+    private final AtomicLong rejectedPublishCount = new AtomicLong();
+
+    private final ScheduledExecutorService connectionExecutor;
+    private final Random random = new Random();
+    private boolean started = false;
+    private boolean connecting = false;
+    private long reconnectDelay = MIN_RECONNECT_DELAY;
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private final SubscriptionRegistry subscriptionRegistry = new SubscriptionRegistry();
+    // the messages published while not connected, null if it can't be opened
+    private MqttOutbox outbox;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile ConnectionListener connectionListener;
+    private volatile long sessionResumedTime;
+
     private MQTTController() {
-        mCallback = new MqttCallbackBus();
+        mCallback = new MqttCallbackBus(this);
+        coalescingPublisher = new CoalescingPublisher(this);
+        connectionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MQTTConnection");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
     public static MQTTController getInstance() {
         if (null == mInstance) {
@@ -28,88 +95,575 @@ public class MQTTController {
         try {
             if (mInstance != null) {
                 mInstance.disConnect();
+                mInstance.coalescingPublisher.shutdown();
+                mInstance.connectionExecutor.shutdownNow();
+                if (mInstance.outbox != null) {
+                    mInstance.outbox.close();
+                }
                 mInstance = null;
             }
         } catch (Exception e) {
         }
     }
 
-    public boolean createConnect(String brokerUrl, String userName, String password, String clientId) {
-        boolean flag = false;
-        String tmpDir = System.getProperty("java.io.tmpdir");
-        MqttDefaultFilePersistence dataStore = new MqttDefaultFilePersistence(tmpDir);
+    /**
+     * Load the client ID of this install and keep the session data in the app's files,
+     * it should be called before {@link #start(String, String, String)}
+     */
+    public synchronized void init(Context context) {
+        SharedPreferences sharedPreferences = context.getSharedPreferences("mqtt", Context.MODE_PRIVATE);
+        String id = sharedPreferences.getString("clientId", null);
+        if (id == null) {
+            // the client ID of MQTT 3.1 is 23 characters at most
+            id = "eqin" + UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+            sharedPreferences.edit().putString("clientId", id).apply();
+        }
+        clientId = id;
+        preferences = sharedPreferences;
+        // the broker may still keep the topics subscribed before the app was killed
+        subscriptionRegistry.restore(sharedPreferences.getStringSet("subscriptions",
+                Collections.<String>emptySet()));
+        persistenceDir = new File(context.getFilesDir(), "mqtt");
+        if (outbox == null) {
+            try {
+                outbox = new MqttOutbox(new File(persistenceDir, "outbox"));
+            } catch (IOException e) {
+                Log.e("MQTTController", "Can't open the outbox: " + e);
+            }
+        }
+    }
+
+    /**
+     * Connect without waiting, and reconnect with exponential backoff until
+     * {@link #disConnect()} whenever the connection fails or is lost. It does nothing if
+     * it is started already.
+     */
+    public synchronized void start(String brokerUrl, String userName, String password) {
+        if (started) {
+            return;
+        }
+        if (clientId == null) {
+            throw new IllegalStateException("init(Context) isn't called");
+        }
         try {
             // Construct the connection options object that contains connection parameters
             // such as cleanSession and LWT
             conOpt = new MqttConnectOptions();
             conOpt.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
             conOpt.setCleanSession(clean);
+            conOpt.setMaxInflight(maxInFlight);
             if (password != null) {
                 conOpt.setPassword(password.toCharArray());
             }
             if (userName != null) {
                 conOpt.setUserName(userName);
             }
-            // Construct an MQTT blocking mode client
-            client = new MqttClient(brokerUrl, clientId, dataStore);
+            // the messages in flight are appended to one log, instead of a file per message
+            MqttLogPersistence dataStore = new MqttLogPersistence(persistenceDir);
+            // Construct an MQTT non-blocking mode client, publishing never waits for the
+            // QoS handshake of the previous message
+            client = new MqttAsyncClient(brokerUrl, clientId, dataStore);
             // Set this wrapper as the callback handler
             client.setCallback(mCallback);
-            flag = doConnect();
         } catch (MqttException e) {
-            Log.e("MQTTController1",e.getMessage());
+            Log.e("MQTTController", e.toString());
+            return;
         }
-        return flag;
+        started = true;
+        reconnectDelay = MIN_RECONNECT_DELAY;
+        scheduleConnect(0);
     }
 
-    public boolean doConnect() {
-        boolean flag = false;
-        if (client != null) {
-            try {
-                client.connect(conOpt);
-                Log.e("MQTTController","Connected to " + client.getServerURI() + " with client ID " + client.getClientId());
-                flag = true;
-            } catch (Exception e) {
+    /**
+     * Set the topics to be subscribed, only the difference to the topics set last time is
+     * subscribed or unsubscribed, by one SUBSCRIBE and one UNSUBSCRIBE at most. The topics
+     * are subscribed again on reconnection if the session isn't kept by the broker.
+     */
+    public synchronized void setTopics(Collection<String> topics, int qos) {
+        subscriptionRegistry.setTopics(topics, qos);
+        syncSubscriptions();
+    }
+
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    /**
+     * Publish without waiting, it could be called at the UI thread
+     *
+     * @return whether the message is accepted, it is rejected when the in-flight window or
+     * the outbox is full
+     */
+    public boolean publish(String topicName, int qos, byte[] payload) {
+        return publish(topicName, qos, payload, null);
+    }
+
+    /**
+     * Publish without waiting, it could be called at the UI thread. The message is kept in
+     * the outbox while not connected, and sent in order after the connection.
+     *
+     * @param callback called back at the MQTT thread when the message is completed or failed,
+     *                 could be null, it isn't called for the message kept in the outbox
+     * @return whether the message is accepted, it is rejected when the in-flight window or
+     * the outbox is full
+     */
+    public boolean publish(String topicName, int qos, byte[] payload, PublishCallback callback) {
+        if (shouldEnqueue()) {
+            return enqueue(topicName, qos, payload, false);
+        }
+        return publishNow(topicName, qos, payload, callback);
+    }
+
+    /**
+     * Publish the command setting the state of the topic, e.g. the switch or the color.
+     * While not connected or the in-flight window is full, it is kept in the outbox and
+     * replaces the command of the same topic kept, only the latest state is sent.
+     *
+     * @return whether the message is accepted, it is rejected when the outbox is full
+     */
+    public boolean publishSet(String topicName, int qos, byte[] payload) {
+        if (shouldEnqueue()) {
+            return enqueue(topicName, qos, payload, true);
+        }
+        if (publishNow(topicName, qos, payload, null)) {
+            return true;
+        }
+        return outbox != null && enqueue(topicName, qos, payload, true);
+    }
+
+    /**
+     * Publish at once bypassing the outbox
+     *
+     * @return whether the message is accepted, it is rejected when not connected or
+     * the in-flight window is full
+     */
+    boolean publishNow(final String topicName, int qos, byte[] payload, final PublishCallback callback) {
+        final MqttAsyncClient client = this.client;
+        if (client == null || !client.isConnected()) {
+            notifyFailure(callback, topicName, new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+            return false;
+        }
+        final Semaphore permits = inFlightPermits;
+        if (!permits.tryAcquire()) {
+            rejectedPublishCount.incrementAndGet();
+            Log.w("MQTTController", "In-flight window is full, reject topic \"" + topicName + "\"");
+            notifyFailure(callback, topicName, new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT));
+            return false;
+        }
+        int count = inFlightCount.incrementAndGet();
+        updatePeakInFlightCount(count);
+        Log.d("MQTTController","Publishing to topic \"" + topicName + "\" qos " + qos);
+        // Create and configure a message
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(qos);
+        try {
+            client.publish(topicName, message, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    onPublishFinished(permits);
+                    completedPublishCount.incrementAndGet();
+                    if (callback != null) {
+                        callback.onSuccess(topicName);
+                    }
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    onPublishFinished(permits);
+                    failedPublishCount.incrementAndGet();
+                    notifyFailure(callback, topicName, exception);
+                }
+            });
+            return true;
+        } catch (MqttException e) {
+            onPublishFinished(permits);
+            failedPublishCount.incrementAndGet();
+            notifyFailure(callback, topicName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Publish the value of the high-rate topic without waiting, the values of the same topic
+     * are coalesced by {@link CoalescingPublisher}
+     *
+     * @param isFinal whether it is the final value, which is sent with the requested QoS,
+     *                the transient ones may be sent with a lower QoS or dropped
+     */
+    public void publishCoalesced(String topicName, int qos, byte[] payload, boolean isFinal) {
+        coalescingPublisher.publish(topicName, qos, payload, isFinal);
+    }
+
+    public CoalescingPublisher getCoalescingPublisher() {
+        return coalescingPublisher;
+    }
+
+    /**
+     * The count of the messages kept in the outbox waiting for the connection
+     */
+    public int getOutboxSize() {
+        MqttOutbox outbox = this.outbox;
+        return outbox == null ? 0 : outbox.size();
+    }
+
+    /**
+     * The time of the last connection with the session kept by the broker, the messages
+     * queued while disconnected arrive right after it. 0 if there isn't any.
+     */
+    public long getSessionResumedTime() {
+        return sessionResumedTime;
+    }
+
+    /**
+     * Set the listener called whenever the client is connected, null to stop it
+     */
+    public void setConnectionListener(ConnectionListener listener) {
+        connectionListener = listener;
+    }
+
+    public boolean isConnected() {
+        MqttAsyncClient client = this.client;
+        return client != null && client.isConnected();
+    }
+
+    /**
+     * Disconnect without waiting and stop reconnecting, the client is closed when it is
+     * disconnected
+     */
+    public synchronized void disConnect() throws MqttException {
+        // the broker keeps the session with the subscriptions, the next connection tells
+        // whether it is present still
+        started = false;
+        final MqttAsyncClient client = this.client;
+        this.client = null;
+        if (client == null) {
+            return;
+        }
+        if (!connecting) {
+            disconnectAndClose(client);
+        }
+    }
+
+    /**
+     * Set the max count of the messages in flight, it takes effect at the next connection
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight should be positive");
+        }
+        this.maxInFlight = maxInFlight;
+        inFlightPermits = new Semaphore(maxInFlight);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    public int getPeakInFlightCount() {
+        return peakInFlightCount.get();
+    }
+
+    public long getCompletedPublishCount() {
+        return completedPublishCount.get();
+    }
+
+    public long getFailedPublishCount() {
+        return failedPublishCount.get();
+    }
+
+    /**
+     * The count of publishes rejected because the in-flight window is full, it shows how
+     * often the callers are faster than the broker
+     */
+    public long getRejectedPublishCount() {
+        return rejectedPublishCount.get();
+    }
+
+    private void onPublishFinished(Semaphore permits) {
+        inFlightCount.decrementAndGet();
+        permits.release();
+    }
+
+    synchronized void onConnectionLost(Throwable cause) {
+        Log.d("MQTTController", "Connection lost: " + cause);
+        if (started) {
+            scheduleConnect(nextReconnectDelay());
+        }
+    }
+
+    private void scheduleConnect(long delay) {
+        connectionExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                connect();
             }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void connect() {
+        final MqttAsyncClient client = this.client;
+        if (!started || connecting || client == null || client.isConnected()) {
+            return;
+        }
+        connecting = true;
+        try {
+            client.connect(conOpt, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    onConnected(client, asyncActionToken.getSessionPresent());
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    onConnectFailed(client, exception);
+                }
+            });
+        } catch (MqttException e) {
+            onConnectFailed(client, e);
         }
-        return flag;
     }
 
-    public boolean publish(String topicName, int qos, byte[] payload) {
-        boolean flag = false;
-        if (client != null && client.isConnected()) {
-            Log.d("MQTTController","Publishing to topic \"" + topicName + "\" qos " + qos);
-            // Create and configure a message
-            MqttMessage message = new MqttMessage(payload);            message.setQos(qos);
-            // Send the message to the server, control is not returned until
-            // it has been delivered to the server meeting the specified
-            // quality of service.
-            try {
-                client.publish(topicName, message);
-                flag = true;
-            } catch (MqttException e) {
+    private synchronized void onConnected(MqttAsyncClient client, boolean sessionPresent) {
+        connecting = false;
+        if (client != this.client) {
+            // disconnected while connecting
+            disconnectAndClose(client);
+            return;
+        }
+        Log.d("MQTTController","Connected to " + client.getServerURI() + " with client ID "
+                + client.getClientId() + ", session present " + sessionPresent);
+        reconnectDelay = MIN_RECONNECT_DELAY;
+        if (sessionPresent) {
+            sessionResumedTime = System.currentTimeMillis();
+        } else {
+            // the broker forgot the subscriptions
+            subscriptionRegistry.onSessionLost();
+            saveSubscriptions();
+        }
+        syncSubscriptions();
+        scheduleDrain(0);
+        ConnectionListener listener = connectionListener;
+        if (listener != null) {
+            listener.onConnected(reconnectCount.get() > 0);
+        }
+    }
+
+    private synchronized void onConnectFailed(MqttAsyncClient client, Throwable cause) {
+        connecting = false;
+        if (client != this.client) {
+            closeClient(client);
+            return;
+        }
+        long delay = nextReconnectDelay();
+        Log.d("MQTTController", "Connect failed, retry in " + delay + "ms: " + cause);
+        scheduleConnect(delay);
+    }
+
+    private long nextReconnectDelay() {
+        reconnectCount.incrementAndGet();
+        long delay = reconnectDelay;
+        reconnectDelay = Math.min(MAX_RECONNECT_DELAY, reconnectDelay * 2);
+        // the jitter keeps the clients lost at the same time from reconnecting together
+        return delay / 2 + (long) (random.nextDouble() * delay / 2);
+    }
+
+    // the messages published after the ones in the outbox are kept behind them
+    private boolean shouldEnqueue() {
+        MqttOutbox outbox = this.outbox;
+        return outbox != null && (!isConnected() || !outbox.isEmpty());
+    }
+
+    private boolean enqueue(String topicName, int qos, byte[] payload, boolean collapsible) {
+        if (!outbox.enqueue(topicName, qos, payload, collapsible)) {
+            rejectedPublishCount.incrementAndGet();
+            Log.w("MQTTController", "Outbox is full, reject topic \"" + topicName + "\"");
+            return false;
+        }
+        if (isConnected()) {
+            scheduleDrain(DRAIN_RETRY_DELAY);
+        }
+        return true;
+    }
+
+    private void scheduleDrain(long delay) {
+        if (outbox == null || !drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        connectionExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                drainScheduled.set(false);
+                drainOutbox();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // send the messages in the outbox in order, until the window is full or it is empty
+    private void drainOutbox() {
+        MqttOutbox.Message message;
+        while (isConnected() && (message = outbox.peek()) != null) {
+            // the QoS 1 and 2 messages are kept by the persistence of the client once accepted
+            if (!publishNow(message.getTopic(), message.getQos(), message.getPayload(), null)) {
+                if (isConnected()) {
+                    scheduleDrain(DRAIN_RETRY_DELAY);
+                }
+                return;
             }
+            outbox.remove(message);
         }
-        return flag;
     }
 
-    public boolean subscribe(String topicName, int qos) {
-        boolean flag = false;
-        if (client != null && client.isConnected()) {
-            Log.d("MQTT","Subscribing to topic \"" + topicName + "\" qos " + qos);
+    private void syncSubscriptions() {
+        MqttAsyncClient client = this.client;
+        if (client == null || !client.isConnected()) {
+            return;
+        }
+        SubscriptionRegistry.Diff diff = subscriptionRegistry.diff();
+        if (diff.isEmpty()) {
+            return;
+        }
+        saveSubscriptions();
+        if (diff.subscribeTopics.length > 0) {
+            final String[] topics = diff.subscribeTopics;
+            Log.d("MQTT","Subscribing to topics " + Arrays.toString(topics));
+            try {
+                client.subscribe(topics, diff.subscribeQos, null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken asyncActionToken) {
+                        // the topic refused by the broker is granted 0x80
+                        int[] grantedQos = asyncActionToken.getGrantedQos();
+                        List<String> failedTopics = new ArrayList<>();
+                        for (int i = 0; i < topics.length && i < grantedQos.length; i++) {
+                            if (grantedQos[i] == 0x80) {
+                                failedTopics.add(topics[i]);
+                            }
+                        }
+                        if (!failedTopics.isEmpty()) {
+                            onSubscribeFailed(failedTopics.toArray(new String[failedTopics.size()]), null);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                        onSubscribeFailed(topics, exception);
+                    }
+                });
+            } catch (MqttException e) {
+                onSubscribeFailed(topics, e);
+            }
+        }
+        if (diff.unsubscribeTopics.length > 0) {
+            final String[] topics = diff.unsubscribeTopics;
+            Log.d("MQTT","Unsubscribing from topics " + Arrays.toString(topics));
             try {
-                client.subscribe(topicName, qos);
-                flag = true;
+                client.unsubscribe(topics, null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken asyncActionToken) {
+                        onUnsubscribed(topics);
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                        onUnsubscribeFailed(topics, exception);
+                    }
+                });
             } catch (MqttException e) {
+                onUnsubscribeFailed(topics, e);
+            }
+        }
+    }
+
+    private synchronized void onSubscribeFailed(String[] topics, Throwable cause) {
+        Log.e("MQTTController", "Subscribe topics " + Arrays.toString(topics) + " failed: " + cause);
+        // subscribe them again on the next sync
+        subscriptionRegistry.onSubscribeFailed(topics);
+        saveSubscriptions();
+    }
+
+    private synchronized void onUnsubscribed(String[] topics) {
+        subscriptionRegistry.onUnsubscribed(topics);
+        saveSubscriptions();
+    }
+
+    private synchronized void onUnsubscribeFailed(String[] topics, Throwable cause) {
+        Log.e("MQTTController", "Unsubscribe topics " + Arrays.toString(topics) + " failed: " + cause);
+        // unsubscribe them again on the next sync
+        subscriptionRegistry.onUnsubscribeFailed(topics);
+        saveSubscriptions();
+    }
+
+    private void saveSubscriptions() {
+        if (preferences != null) {
+            preferences.edit().putStringSet("subscriptions", subscriptionRegistry.save()).apply();
+        }
+    }
+
+    private void updatePeakInFlightCount(int count) {
+        int peak;
+        while (count > (peak = peakInFlightCount.get())) {
+            if (peakInFlightCount.compareAndSet(peak, count)) {
+                return;
             }
         }
-        return flag;
     }
 
-    public void disConnect() throws MqttException {
-        if (client != null && client.isConnected()) {
-            client.disconnect();
-            client.close(true);
+    private static void notifyFailure(PublishCallback callback, String topicName, Throwable cause) {
+        if (callback != null) {
+            callback.onFailure(topicName, cause);
+        }
+    }
+
+    private static void disconnectAndClose(final MqttAsyncClient client) {
+        if (!client.isConnected()) {
+            closeClient(client);
+            return;
+        }
+        try {
+            client.disconnect(null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    closeClient(client);
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    closeClient(client);
+                }
+            });
+        } catch (MqttException e) {
+            Log.e("MQTTController", e.toString());
+        }
+    }
+
+    private static void closeClient(MqttAsyncClient client) {
+        try {
+            client.close();
             Log.d("MQTT", "结束链接" );
+        } catch (MqttException e) {
+            Log.e("MQTTController", e.toString());
         }
     }
+
+    public interface ConnectionListener {
+        /**
+         * Called in the connection thread, it shouldn't block
+         *
+         * @param reconnected whether it is connected again after the connection failed or was lost
+         */
+        void onConnected(boolean reconnected);
+    }
+
+    public interface PublishCallback {
+        void onSuccess(String topicName);
+
+        void onFailure(String topicName, Throwable cause);
+    }
 }
@@ -1,23 +1,31 @@
 package com.example.bing.eqin.controller;
 
-import android.util.Log;
-
 import com.example.bing.eqin.model.MQTTDataItem;
 
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.greenrobot.eventbus.EventBus;
 
 class MqttCallbackBus implements MqttCallback {
+    private final MQTTController mController;
+
+    MqttCallbackBus(MQTTController controller) {
+        mController = controller;
+    }
+
     @Override
     public void connectionLost(Throwable cause) {
-        Log.d("MQTTController",cause.toString());
+        mController.onConnectionLost(cause);
     }
     @Override
     public void messageArrived(String topic, MqttMessage message) {
-        MQTTDataItem dataItem = new MQTTDataItem(topic, message.toString());
-        EventBus.getDefault().post(dataItem);
+        // the payload is parsed once and not copied, the handlers are called in this
+        // thread, so the item could be recycled once it is dispatched
+        MQTTDataItem dataItem = MQTTDataItem.obtain(TopicKeyCache.getInstance().get(topic), message.getPayload());
+        dataItem.setRetained(message.isRetained());
+        dataItem.setDuplicate(message.isDuplicate());
+        TopicRouter.getInstance().dispatch(dataItem);
+        dataItem.recycle();
     }
     @Override
     public void deliveryComplete(IMqttDeliveryToken token) {
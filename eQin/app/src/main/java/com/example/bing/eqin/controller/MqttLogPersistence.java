@@ -0,0 +1,429 @@
+package com.example.bing.eqin.controller;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The persistence of the QoS 1 and 2 messages in flight, kept in an append-only log instead
+ * of a file per message like {@code MqttDefaultFilePersistence}.
+ * <p>
+ * A put or a remove is appended to the last segment of the log, a put is forced to the
+ * storage before it returns, as the client sends the message after it. The location of every
+ * message is indexed in memory, the log is read only by {@link #get(String)}, which the
+ * client calls to restore the messages on connection.
+ * <p>
+ * A new segment is started when the last one is full. When the log is longer than a segment
+ * and no message is left, it is truncated. When the bytes of the messages are less than a quarter of the log, the messages
+ * left are copied to a new segment and the older ones are deleted, the messages of the client
+ * are few, so it costs little.
+ * <p>
+ * A record of the log is:
+ * <pre>
+ * int length of the whole record, byte type, short key length, key,
+ * int header length, header, int payload length, payload, int crc32 of the bytes before it
+ * </pre>
+ * A remove record has no header and payload.
+ */
+public class MqttLogPersistence implements MqttClientPersistence {
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long DEFAULT_SEGMENT_SIZE = 1 << 20;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mRootDir;
+    private final long mSegmentSize;
+    private File mDir;
+    // the segments in order, the last one is appended
+    private final ArrayList<Segment> mSegments = new ArrayList<>();
+    private final Map<String, Location> mIndex = new HashMap<>();
+    private long mLiveBytes;
+    private long mTotalBytes;
+    private ByteBuffer mWriteBuffer = ByteBuffer.allocate(512);
+    private final CRC32 mCrc = new CRC32();
+    private long mCompactionCount = 0;
+
+    public MqttLogPersistence(File rootDir) {
+        this(rootDir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param rootDir     the directory of the logs, a log of every client ID and server
+     * @param segmentSize the size a segment is closed at
+     */
+    public MqttLogPersistence(File rootDir, long segmentSize) {
+        mRootDir = rootDir;
+        mSegmentSize = segmentSize;
+    }
+
+    @Override
+    public synchronized void open(String clientId, String serverURI) throws MqttPersistenceException {
+        if (mDir != null) {
+            throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+        }
+        // a directory of every client ID and server, named like the default persistence does
+        StringBuilder name = new StringBuilder();
+        for (char c : (clientId + "-" + serverURI).toCharArray()) {
+            if (Character.isJavaIdentifierPart(c) || c == '-') {
+                name.append(c);
+            }
+        }
+        File dir = new File(mRootDir, name.toString());
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new MqttPersistenceException(new IOException("can't create " + dir));
+        }
+        mDir = dir;
+        try {
+            load();
+        } catch (IOException e) {
+            closeSegments();
+            mDir = null;
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws MqttPersistenceException {
+        checkOpen();
+        closeSegments();
+        mDir = null;
+    }
+
+    @Override
+    public synchronized void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkOpen();
+        try {
+            byte[] keyBytes = key.getBytes(UTF_8);
+            int headerLen = persistable.getHeaderLength();
+            int payloadLen = persistable.getPayloadBytes() == null ? 0 : persistable.getPayloadLength();
+            ByteBuffer buffer = beginRecord(TYPE_PUT, keyBytes, 4 + headerLen + 4 + payloadLen);
+            buffer.putInt(headerLen);
+            buffer.put(persistable.getHeaderBytes(), persistable.getHeaderOffset(), headerLen);
+            buffer.putInt(payloadLen);
+            if (payloadLen > 0) {
+                buffer.put(persistable.getPayloadBytes(), persistable.getPayloadOffset(), payloadLen);
+            }
+            long offset = append(buffer);
+            Segment segment = mSegments.get(mSegments.size() - 1);
+            segment.mChannel.force(false);
+            int dataOffset = 4 + 1 + 2 + keyBytes.length;
+            Location location = new Location(segment, offset + dataOffset, headerLen, payloadLen,
+                    buffer.limit());
+            onRemoved(mIndex.put(key, location));
+            mLiveBytes += location.mRecordLen;
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized MqttPersistable get(String key) throws MqttPersistenceException {
+        checkOpen();
+        Location location = mIndex.get(key);
+        if (location == null) {
+            return null;
+        }
+        try {
+            byte[] header = new byte[location.mHeaderLen];
+            byte[] payload = new byte[location.mPayloadLen];
+            FileChannel channel = location.mSegment.mChannel;
+            readFully(channel, ByteBuffer.wrap(header), location.mOffset + 4);
+            readFully(channel, ByteBuffer.wrap(payload), location.mOffset + 4 + location.mHeaderLen + 4);
+            return new MqttPersistentData(key, header, 0, header.length, payload, 0, payload.length);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) throws MqttPersistenceException {
+        checkOpen();
+        Location location = mIndex.remove(key);
+        if (location == null) {
+            return;
+        }
+        onRemoved(location);
+        try {
+            // not forced, the message is sent again at worst if the remove is lost
+            if (mIndex.isEmpty() && mTotalBytes > mSegmentSize) {
+                // nothing to keep, the log is started again instead of being compacted
+                reset();
+            } else {
+                append(beginRecord(TYPE_REMOVE, key.getBytes(UTF_8), 0));
+                if (mTotalBytes > mSegmentSize && mLiveBytes * 4 < mTotalBytes) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized Enumeration keys() throws MqttPersistenceException {
+        checkOpen();
+        return Collections.enumeration(new ArrayList<>(mIndex.keySet()));
+    }
+
+    @Override
+    public synchronized void clear() throws MqttPersistenceException {
+        checkOpen();
+        mIndex.clear();
+        mLiveBytes = 0;
+        try {
+            reset();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean containsKey(String key) throws MqttPersistenceException {
+        checkOpen();
+        return mIndex.containsKey(key);
+    }
+
+    /**
+     * The count of the times the messages are copied to a new segment
+     */
+    public synchronized long getCompactionCount() {
+        return mCompactionCount;
+    }
+
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    private void checkOpen() throws MqttPersistenceException {
+        if (mDir == null) {
+            throw new MqttPersistenceException();
+        }
+    }
+
+    // read the segments in order and rebuild the index
+    private void load() throws IOException {
+        String[] names = mDir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(names);
+        mIndex.clear();
+        mLiveBytes = 0;
+        mTotalBytes = 0;
+        for (String name : names) {
+            long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = openSegment(id);
+            mSegments.add(segment);
+            long validLen = replay(segment);
+            if (validLen < segment.mChannel.size()) {
+                // the record torn by a crash, only the last segment could have it
+                segment.mChannel.truncate(validLen);
+            }
+            segment.mSize = validLen;
+            mTotalBytes += validLen;
+        }
+        if (mSegments.isEmpty()) {
+            mSegments.add(openSegment(1));
+        }
+    }
+
+    private long replay(Segment segment) throws IOException {
+        FileChannel channel = segment.mChannel;
+        long size = channel.size();
+        long offset = 0;
+        ByteBuffer lenBuffer = ByteBuffer.allocate(4);
+        while (offset + 4 <= size) {
+            lenBuffer.clear();
+            readFully(channel, lenBuffer, offset);
+            int len = lenBuffer.getInt(0);
+            if (len < 4 + 1 + 2 + 4 || offset + len > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(len);
+            readFully(channel, record, offset);
+            mCrc.reset();
+            mCrc.update(record.array(), 0, len - 4);
+            if ((int) mCrc.getValue() != record.getInt(len - 4)) {
+                break;
+            }
+            byte type = record.get(4);
+            int keyLen = record.getShort(5) & 0xffff;
+            String key = new String(record.array(), 7, keyLen, UTF_8);
+            if (type == TYPE_PUT) {
+                int dataOffset = 7 + keyLen;
+                int headerLen = record.getInt(dataOffset);
+                int payloadLen = record.getInt(dataOffset + 4 + headerLen);
+                onRemoved(mIndex.put(key, new Location(segment, offset + dataOffset, headerLen, payloadLen, len)));
+                mLiveBytes += len;
+            } else {
+                onRemoved(mIndex.remove(key));
+            }
+            offset += len;
+        }
+        return offset;
+    }
+
+    // the record with the key, the rest of length dataLen is filled by the caller
+    private ByteBuffer beginRecord(byte type, byte[] keyBytes, int dataLen) {
+        int len = 4 + 1 + 2 + keyBytes.length + dataLen + 4;
+        if (mWriteBuffer.capacity() < len) {
+            mWriteBuffer = ByteBuffer.allocate(Math.max(len, mWriteBuffer.capacity() * 2));
+        }
+        ByteBuffer buffer = mWriteBuffer;
+        buffer.clear();
+        buffer.limit(len);
+        buffer.putInt(len);
+        buffer.put(type);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        return buffer;
+    }
+
+    // end the record with the crc and append it, a new segment is started if the last is full
+    private long append(ByteBuffer buffer) throws IOException {
+        mCrc.reset();
+        mCrc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) mCrc.getValue());
+        buffer.flip();
+        Segment segment = mSegments.get(mSegments.size() - 1);
+        if (segment.mSize > 0 && segment.mSize + buffer.limit() > mSegmentSize) {
+            segment = openSegment(segment.mId + 1);
+            mSegments.add(segment);
+        }
+        long offset = segment.mSize;
+        while (buffer.hasRemaining()) {
+            segment.mChannel.write(buffer, segment.mSize + buffer.position());
+        }
+        segment.mSize += buffer.limit();
+        mTotalBytes += buffer.limit();
+        return offset;
+    }
+
+    // copy the messages left to a new segment, and delete the older ones
+    private void compact() throws IOException {
+        Segment segment = openSegment(mSegments.get(mSegments.size() - 1).mId + 1);
+        mTotalBytes = 0;
+        mLiveBytes = 0;
+        for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+            Location location = entry.getValue();
+            ByteBuffer record = ByteBuffer.allocate(location.mRecordLen);
+            long recordOffset = location.mOffset - (4 + 1 + 2 + entry.getKey().getBytes(UTF_8).length);
+            readFully(location.mSegment.mChannel, record, recordOffset);
+            record.flip();
+            long offset = segment.mSize;
+            while (record.hasRemaining()) {
+                segment.mChannel.write(record, offset + record.position());
+            }
+            segment.mSize += record.limit();
+            location.mSegment = segment;
+            location.mOffset += offset - recordOffset;
+            mTotalBytes += record.limit();
+            mLiveBytes += record.limit();
+        }
+        // the new segment is durable before the older ones are deleted
+        segment.mChannel.force(false);
+        for (Segment old : mSegments) {
+            old.mChannel.close();
+            new File(mDir, old.mName).delete();
+        }
+        mSegments.clear();
+        mSegments.add(segment);
+        mCompactionCount++;
+    }
+
+    // empty the last segment and delete the others
+    private void reset() throws IOException {
+        Segment last = mSegments.remove(mSegments.size() - 1);
+        for (Segment old : mSegments) {
+            old.mChannel.close();
+            new File(mDir, old.mName).delete();
+        }
+        mSegments.clear();
+        last.mChannel.truncate(0);
+        last.mSize = 0;
+        mSegments.add(last);
+        mTotalBytes = 0;
+    }
+
+    private void onRemoved(Location location) {
+        if (location != null) {
+            mLiveBytes -= location.mRecordLen;
+        }
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        // the names are sorted in the order of the ids
+        String name = String.format("%016d", id) + SEGMENT_SUFFIX;
+        RandomAccessFile file = new RandomAccessFile(new File(mDir, name), "rw");
+        return new Segment(id, name, file.getChannel());
+    }
+
+    private void closeSegments() {
+        for (Segment segment : mSegments) {
+            try {
+                segment.mChannel.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        mSegments.clear();
+        mIndex.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("unexpected end of the log");
+            }
+        }
+    }
+
+    private static class Segment {
+        private final long mId;
+        private final String mName;
+        private final FileChannel mChannel;
+        private long mSize;
+
+        private Segment(long id, String name, FileChannel channel) {
+            mId = id;
+            mName = name;
+            mChannel = channel;
+        }
+    }
+
+    private static class Location {
+        private Segment mSegment;
+        // the offset of the header length in the segment
+        private long mOffset;
+        private final int mHeaderLen;
+        private final int mPayloadLen;
+        private final int mRecordLen;
+
+        private Location(Segment segment, long offset, int headerLen, int payloadLen, int recordLen) {
+            mSegment = segment;
+            mOffset = offset;
+            mHeaderLen = headerLen;
+            mPayloadLen = payloadLen;
+            mRecordLen = recordLen;
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package com.example.bing.eqin.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The durable queue of the messages published while the broker is unreachable, drained in
+ * order by {@link MQTTController} once it is connected.
+ * <p>
+ * The messages are appended to a memory-mapped file, so enqueuing is a copy into the page
+ * cache. The file is forced to the storage once per sync interval at most, a crash loses the
+ * messages of the last interval at worst. The force runs without the lock of the outbox, so
+ * enqueuing, e.g. in the UI thread, isn't blocked by the storage. A message enqueued as
+ * collapsible replaces the collapsible message of the same topic still queued, e.g. only the
+ * last color set offline is sent.
+ * <p>
+ * The file starts with the header:
+ * <pre>
+ * int magic, int offset of the first record not removed
+ * </pre>
+ * followed by the records, ended by a record length of 0:
+ * <pre>
+ * int length of the whole record, byte state, byte qos, byte collapsible, byte 0,
+ * short topic length, topic, int payload length, payload, int crc32 of the bytes after the state
+ * </pre>
+ */
+public class MqttOutbox {
+    private static final int MAGIC = 0x45514f42;
+    private static final int HEADER_LEN = 8;
+    private static final int HEAD_OFFSET = 4;
+    // the fixed part of a record, besides the topic and the payload
+    private static final int RECORD_OVERHEAD = 4 + 4 + 2 + 4 + 4;
+    private static final int STATE_OFFSET = 4;
+    private static final byte STATE_PENDING = 1;
+    private static final byte STATE_REMOVED = 2;
+
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final long DEFAULT_SYNC_INTERVAL = 100;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final int mCapacity;
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    private int mHead;
+    private int mTail;
+    private final ArrayDeque<Entry> mPending = new ArrayDeque<>();
+    private final Map<String, Entry> mCollapsible = new HashMap<>();
+    private final CRC32 mCrc = new CRC32();
+    // the bytes of the crc are fed from the heap, CRC32 is slow byte by byte
+    private final byte[] mCrcHeader = new byte[5];
+    private byte[] mCrcBuffer = new byte[256];
+
+    private final ScheduledExecutorService mSyncExecutor;
+    private long mSyncInterval = DEFAULT_SYNC_INTERVAL;
+    private boolean mSyncScheduled = false;
+    private boolean mSyncNow = false;
+    private long mSyncCount = 0;
+    private long mCollapsedCount = 0;
+
+    public MqttOutbox(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Open the outbox, the messages queued by the last process are loaded
+     *
+     * @param file     the file of the queue, created if it doesn't exist
+     * @param capacity the size of the file, the messages more than it are rejected
+     */
+    public MqttOutbox(File file, int capacity) throws IOException {
+        if (capacity < HEADER_LEN + RECORD_OVERHEAD + 4) {
+            throw new IllegalArgumentException("capacity is too small");
+        }
+        mFile = file;
+        mCapacity = capacity;
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        map();
+        if (mBuffer.getInt(0) != MAGIC) {
+            reset();
+        } else {
+            load();
+        }
+        mSyncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MqttOutboxSync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Append the message
+     *
+     * @param collapsible whether it replaces the collapsible message of the same topic queued
+     * @return false if the outbox is full
+     */
+    public boolean enqueue(String topic, int qos, byte[] payload, boolean collapsible) {
+        synchronized (this) {
+            if (!append(topic, qos, payload, collapsible)) {
+                return false;
+            }
+        }
+        syncIfScheduled();
+        return true;
+    }
+
+    private boolean append(String topic, int qos, byte[] payload, boolean collapsible) {
+        byte[] topicBytes = topic.getBytes(UTF_8);
+        int len = RECORD_OVERHEAD + topicBytes.length + payload.length;
+        // the record and the terminator after it
+        if (mTail + len + 4 > mCapacity) {
+            compact();
+            if (mTail + len + 4 > mCapacity) {
+                return false;
+            }
+        }
+        if (collapsible) {
+            Entry replaced = mCollapsible.remove(topic);
+            if (replaced != null) {
+                markRemoved(replaced);
+                mPending.remove(replaced);
+                mCollapsedCount++;
+            }
+        }
+        int offset = mTail;
+        MappedByteBuffer buffer = mBuffer;
+        buffer.position(offset + 4);
+        buffer.put(STATE_PENDING);
+        buffer.put((byte) qos);
+        buffer.put((byte) (collapsible ? 1 : 0));
+        buffer.put((byte) 0);
+        buffer.putShort((short) topicBytes.length);
+        buffer.put(topicBytes);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.putInt(crc(qos, collapsible, topicBytes, payload));
+        buffer.putInt(offset + len, 0);
+        // the length is written last, so a record torn by a crash ends the queue
+        buffer.putInt(offset, len);
+        mTail = offset + len;
+
+        Entry entry = new Entry(offset, topic, qos, collapsible);
+        mPending.addLast(entry);
+        if (collapsible) {
+            mCollapsible.put(topic, entry);
+        }
+        scheduleSync();
+        return true;
+    }
+
+    /**
+     * Get the first message queued without removing it, null if the outbox is empty
+     */
+    public synchronized Message peek() {
+        Entry entry = mPending.peekFirst();
+        if (entry == null) {
+            return null;
+        }
+        MappedByteBuffer buffer = mBuffer;
+        int topicLen = buffer.getShort(entry.mOffset + 8) & 0xffff;
+        int payloadOffset = entry.mOffset + 10 + topicLen;
+        byte[] payload = new byte[buffer.getInt(payloadOffset)];
+        buffer.position(payloadOffset + 4);
+        buffer.get(payload);
+        return new Message(entry, payload);
+    }
+
+    /**
+     * Remove the message got by {@link #peek()} once it is handed to the client
+     */
+    public void remove(Message message) {
+        synchronized (this) {
+            if (!removeEntry(message.mEntry)) {
+                return;
+            }
+        }
+        syncIfScheduled();
+    }
+
+    private boolean removeEntry(Entry entry) {
+        if (!mPending.remove(entry)) {
+            // replaced by a collapsible message after peeked
+            return false;
+        }
+        if (mCollapsible.get(entry.mTopic) == entry) {
+            mCollapsible.remove(entry.mTopic);
+        }
+        markRemoved(entry);
+        Entry first = mPending.peekFirst();
+        if (first == null) {
+            // empty, the file is reused from the start
+            mBuffer.putInt(HEADER_LEN, 0);
+            mTail = HEADER_LEN;
+            setHead(HEADER_LEN);
+        } else {
+            setHead(first.mOffset);
+        }
+        scheduleSync();
+        return true;
+    }
+
+    public synchronized int size() {
+        return mPending.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return mPending.isEmpty();
+    }
+
+    /**
+     * Set the max time in milliseconds a message stays unforced to the storage, 0 to force
+     * on every enqueue
+     */
+    public synchronized void setSyncInterval(long syncInterval) {
+        if (syncInterval < 0) {
+            throw new IllegalArgumentException("syncInterval shouldn't be negative");
+        }
+        mSyncInterval = syncInterval;
+    }
+
+    public synchronized long getSyncCount() {
+        return mSyncCount;
+    }
+
+    /**
+     * The count of the collapsible messages replaced before sent
+     */
+    public synchronized long getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    /**
+     * Force the messages enqueued and removed so far to the storage now, the outbox isn't
+     * locked while forcing
+     */
+    public void sync() {
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            if (!mChannel.isOpen()) {
+                return;
+            }
+            buffer = mBuffer;
+        }
+        // the buffer replaced by a compaction meanwhile is forced for nothing, the new file
+        // is forced by the compaction itself
+        buffer.force();
+        synchronized (this) {
+            mSyncCount++;
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        mSyncExecutor.shutdownNow();
+        sync();
+        mChannel.close();
+    }
+
+    // called with the lock held, the sync itself is done without it
+    private void scheduleSync() {
+        if (mSyncInterval == 0) {
+            mSyncNow = true;
+        } else if (!mSyncScheduled) {
+            mSyncScheduled = true;
+            mSyncExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (MqttOutbox.this) {
+                        // the changes after it schedule another sync
+                        mSyncScheduled = false;
+                    }
+                    sync();
+                }
+            }, mSyncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // the sync on every change with the sync interval of 0, in the caller's thread
+    private void syncIfScheduled() {
+        synchronized (this) {
+            if (!mSyncNow) {
+                return;
+            }
+            mSyncNow = false;
+        }
+        sync();
+    }
+
+    private void map() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        mChannel = file.getChannel();
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+    }
+
+    private void reset() {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(HEADER_LEN, 0);
+        mTail = HEADER_LEN;
+        setHead(HEADER_LEN);
+        mBuffer.force();
+    }
+
+    // rebuild the index from the head of the file
+    private void load() {
+        MappedByteBuffer buffer = mBuffer;
+        mHead = buffer.getInt(HEAD_OFFSET);
+        int offset = mHead < HEADER_LEN || mHead > mCapacity - 4 ? HEADER_LEN : mHead;
+        while (offset + 4 <= mCapacity) {
+            int len = buffer.getInt(offset);
+            if (len < RECORD_OVERHEAD || offset + len + 4 > mCapacity || buffer.getInt(offset + len - 4) != crc(offset, len)) {
+                break;
+            }
+            if (buffer.get(offset + STATE_OFFSET) == STATE_PENDING) {
+                int topicLen = buffer.getShort(offset + 8) & 0xffff;
+                byte[] topicBytes = new byte[topicLen];
+                buffer.position(offset + 10);
+                buffer.get(topicBytes);
+                String topic = new String(topicBytes, UTF_8);
+                boolean collapsible = buffer.get(offset + 6) != 0;
+                Entry entry = new Entry(offset, topic, buffer.get(offset + 5), collapsible);
+                if (collapsible) {
+                    Entry replaced = mCollapsible.put(topic, entry);
+                    if (replaced != null) {
+                        markRemoved(replaced);
+                        mPending.remove(replaced);
+                    }
+                }
+                mPending.addLast(entry);
+            }
+            offset += len;
+        }
+        mTail = offset;
+        // the bytes after the last valid record may be a torn one
+        if (mTail + 4 <= mCapacity) {
+            buffer.putInt(mTail, 0);
+        }
+        Entry first = mPending.peekFirst();
+        setHead(first == null ? mTail : first.mOffset);
+    }
+
+    // copy the pending records to a new file from the start, and replace the file with it
+    private void compact() {
+        if (mPending.isEmpty()) {
+            mBuffer.putInt(HEADER_LEN, 0);
+            mTail = HEADER_LEN;
+            setHead(HEADER_LEN);
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(mPending);
+        int liveLen = 0;
+        for (Entry entry : entries) {
+            liveLen += mBuffer.getInt(entry.mOffset);
+        }
+        if (HEADER_LEN + liveLen == mTail) {
+            // nothing to reclaim
+            return;
+        }
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        try {
+            RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw");
+            FileChannel tmpChannel = tmp.getChannel();
+            MappedByteBuffer tmpBuffer = tmpChannel.map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+            tmpBuffer.putInt(0, MAGIC);
+            tmpBuffer.putInt(HEAD_OFFSET, HEADER_LEN);
+            tmpBuffer.position(HEADER_LEN);
+            int[] newOffsets = new int[entries.size()];
+            byte[] record = new byte[256];
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                int len = mBuffer.getInt(entry.mOffset);
+                if (record.length < len) {
+                    record = new byte[len];
+                }
+                mBuffer.position(entry.mOffset);
+                mBuffer.get(record, 0, len);
+                newOffsets[i] = tmpBuffer.position();
+                tmpBuffer.put(record, 0, len);
+            }
+            int tail = tmpBuffer.position();
+            tmpBuffer.putInt(tail, 0);
+            tmpBuffer.force();
+            tmpChannel.close();
+            mChannel.close();
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("can't rename " + tmpFile);
+            }
+            map();
+            for (int i = 0; i < newOffsets.length; i++) {
+                entries.get(i).mOffset = newOffsets[i];
+            }
+            mHead = HEADER_LEN;
+            mTail = tail;
+        } catch (IOException e) {
+            // keep the old file, the message is rejected
+            tmpFile.delete();
+            if (!mChannel.isOpen()) {
+                try {
+                    map();
+                } catch (IOException e1) {
+                    throw new IllegalStateException("can't map " + mFile, e1);
+                }
+            }
+        }
+    }
+
+    private void markRemoved(Entry entry) {
+        mBuffer.put(entry.mOffset + STATE_OFFSET, STATE_REMOVED);
+    }
+
+    private void setHead(int head) {
+        mHead = head;
+        mBuffer.putInt(HEAD_OFFSET, head);
+    }
+
+    // crc of the record from the qos to the payload, the state is excluded as it is changed in place
+    private int crc(int offset, int len) {
+        int start = offset + STATE_OFFSET + 1;
+        int count = offset + len - 4 - start;
+        if (mCrcBuffer.length < count) {
+            mCrcBuffer = new byte[Math.max(count, mCrcBuffer.length * 2)];
+        }
+        // the position of the buffer isn't changed, the record may be being written
+        ByteBuffer record = mBuffer.duplicate();
+        record.position(start);
+        record.get(mCrcBuffer, 0, count);
+        mCrc.reset();
+        mCrc.update(mCrcBuffer, 0, count);
+        return (int) mCrc.getValue();
+    }
+
+    // the same crc as crc(int, int) of the record being enqueued, from the arrays of its fields
+    private int crc(int qos, boolean collapsible, byte[] topicBytes, byte[] payload) {
+        byte[] header = mCrcHeader;
+        header[0] = (byte) qos;
+        header[1] = (byte) (collapsible ? 1 : 0);
+        header[2] = 0;
+        header[3] = (byte) (topicBytes.length >> 8);
+        header[4] = (byte) topicBytes.length;
+        mCrc.reset();
+        mCrc.update(header, 0, 5);
+        mCrc.update(topicBytes);
+        header[0] = (byte) (payload.length >> 24);
+        header[1] = (byte) (payload.length >> 16);
+        header[2] = (byte) (payload.length >> 8);
+        header[3] = (byte) payload.length;
+        mCrc.update(header, 0, 4);
+        mCrc.update(payload);
+        return (int) mCrc.getValue();
+    }
+
+    private static class Entry {
+        private int mOffset;
+        private final String mTopic;
+        private final int mQos;
+        private final boolean mCollapsible;
+
+        private Entry(int offset, String topic, int qos, boolean collapsible) {
+            mOffset = offset;
+            mTopic = topic;
+            mQos = qos;
+            mCollapsible = collapsible;
+        }
+    }
+
+    public static class Message {
+        private final Entry mEntry;
+        private final byte[] mPayload;
+
+        private Message(Entry entry, byte[] payload) {
+            mEntry = entry;
+            mPayload = payload;
+        }
+
+        public String getTopic() {
+            return mEntry.mTopic;
+        }
+
+        public int getQos() {
+            return mEntry.mQos;
+        }
+
+        public byte[] getPayload() {
+            return mPayload;
+        }
+
+        public boolean isCollapsible() {
+            return mEntry.mCollapsible;
+        }
+    }
+}
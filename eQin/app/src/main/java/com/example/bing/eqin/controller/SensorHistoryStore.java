@@ -0,0 +1,985 @@
+package com.example.bing.eqin.controller;
+
+import com.example.bing.eqin.model.SensorBuckets;
+import com.example.bing.eqin.model.SensorSeries;
+import com.example.bing.eqin.utils.Downsampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The history of the sensor values on the device, a file of every topic.
+ * <p>
+ * The values are kept in chunks of {@link #CHUNK_POINTS} at most, with the times and the
+ * values in separate columns. A time is stored as the varint of its delta to the previous
+ * one, a value as the varint of the delta of its float bits to the previous ones, so a value
+ * costs 3 or 4 bytes usually. The chunk being appended is closed when it is full or when it
+ * is older than {@link #MAX_CHUNK_AGE}, and then written to the file, so the values lost by
+ * a crash are of the last chunk only. A chunk may span a gap, the gaps are found from the
+ * values by {@link #findGaps(String, long, long, long)}.
+ * <p>
+ * The chunks written are indexed by their time range in memory and read from the file on
+ * query. The chunks older than {@link #RETENTION} are dropped when the file is loaded.
+ * The files are loaded by the writer, starting at {@link #open(File)}, so an append never
+ * waits for a load; the queries do.
+ * <p>
+ * The count, min, max and sum of every minute, hour and day are kept by {@link SensorRollup}
+ * as the values are added, so a long range is drawn from them instead of every value.
+ * <p>
+ * A chunk of the file is:
+ * <pre>
+ * int magic, int count, long first time, long last time, float min, float max,
+ * int times length, int values length, times, values, int crc32 of the bytes before it
+ * </pre>
+ */
+public class SensorHistoryStore {
+    private static final int CHUNK_POINTS = 256;
+    // a chunk of a sensor reporting every few minutes holds a few dozens of values at least
+    private static final long MAX_CHUNK_AGE = 60 * 60 * 1000;
+    // an interval is a gap if it is longer than it times the median interval of the range
+    private static final int GAP_CADENCE_FACTOR = 3;
+    private static final long RETENTION = 31L * 24 * 60 * 60 * 1000;
+    private static final int CHUNK_MAGIC = 0x54534331;
+    private static final int CHUNK_HEADER_LEN = 40;
+    private static final String FILE_SUFFIX = ".ts";
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long[] ROLLUP_RESOLUTIONS = {MINUTE, HOUR, DAY};
+    private static final long[] ROLLUP_RETENTIONS = {RETENTION, 400 * DAY, 10 * 365 * DAY};
+    private static final String[] ROLLUP_SUFFIXES = {".1m", ".1h", ".1d"};
+    // the values of a range are downsampled from the rollups if they are more than it times
+    // the points to be drawn
+    private static final int MAX_RAW_POINTS_PER_POINT = 16;
+    // the source points of a bucket of LTTB at least
+    private static final int MIN_POINTS_PER_BUCKET = 4;
+    private static final Comparator<Chunk> FIRST_TIME_ORDER = new Comparator<Chunk>() {
+        @Override
+        public int compare(Chunk o1, Chunk o2) {
+            return o1.mFirstTime < o2.mFirstTime ? -1 : o1.mFirstTime == o2.mFirstTime ? 0 : 1;
+        }
+    };
+
+    private static final SensorHistoryStore sInstance = new SensorHistoryStore();
+
+    private File mDir;
+    // guarded by the lock of the store
+    private final Map<String, Series> mSeries = new HashMap<>();
+    // writes the chunks closed and closes the chunks too old
+    private final ScheduledExecutorService mWriter;
+
+    public static SensorHistoryStore getInstance() {
+        return sInstance;
+    }
+
+    // a store of its own, e.g. for the tests
+    SensorHistoryStore() {
+        mWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SensorHistory");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Keep the history in the directory, it should be called before the other methods
+     */
+    public synchronized void open(final File dir) {
+        if (mDir == null && (dir.isDirectory() || dir.mkdirs())) {
+            mDir = dir;
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String[] names = dir.list();
+                    if (names == null) {
+                        return;
+                    }
+                    for (String name : names) {
+                        if (name.endsWith(FILE_SUFFIX)) {
+                            try {
+                                getSeries(URLDecoder.decode(name.substring(0,
+                                        name.length() - FILE_SUFFIX.length()), "UTF-8"));
+                            } catch (UnsupportedEncodingException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Append the value of the topic, the time is later than the values appended before
+     * usually, an older one starts a new chunk
+     */
+    public void append(String topic, long time, float value) {
+        Series series = getSeries(topic);
+        if (series != null) {
+            series.append(time, value);
+        }
+    }
+
+    /**
+     * Insert the values fetched from the server, e.g. of a gap found by
+     * {@link #findGaps(String, long, long, long)}
+     *
+     * @param times in ascending order
+     */
+    public void insert(String topic, long[] times, float[] values, int count) {
+        Series series = getSeries(topic);
+        if (series != null) {
+            series.insert(times, values, count);
+        }
+    }
+
+    /**
+     * Get the values of the topic between from and to (both inclusive) in time order
+     */
+    public SensorSeries query(String topic, long from, long to) {
+        Series series = getSeries(topic);
+        return series == null ? SensorSeries.EMPTY : series.query(from, to);
+    }
+
+    /**
+     * Get about threshold points of the values between from and to selected by
+     * Largest-Triangle-Three-Buckets, for a long range the averages of the rollups are selected
+     * instead of the values
+     */
+    public SensorSeries queryDownsampled(String topic, long from, long to, int threshold) {
+        Series series = getSeries(topic);
+        return series == null ? SensorSeries.EMPTY : series.queryDownsampled(from, to, threshold);
+    }
+
+    /**
+     * Get the count, min, max and average of the values between from and to in bucketCount
+     * buckets of the same width, aggregated from the rollups if the width is a minute at least
+     */
+    public SensorBuckets queryBuckets(String topic, long from, long to, int bucketCount) {
+        Series series = getSeries(topic);
+        return series == null ? SensorBuckets.EMPTY : series.queryBuckets(from, to, bucketCount);
+    }
+
+    /**
+     * Find the time ranges between from and to without any value of the topic, which are
+     * longer than {@link #GAP_CADENCE_FACTOR} times the median interval of the values, so
+     * a sensor reporting every 10 minutes has no gap until it misses some reports
+     *
+     * @param minGap the min length of the ranges, used alone if there are less than 2 values
+     * @return the ranges as {start, end}, in time order
+     */
+    public List<long[]> findGaps(String topic, long from, long to, long minGap) {
+        Series series = getSeries(topic);
+        if (series == null) {
+            List<long[]> gaps = new ArrayList<>();
+            gaps.add(new long[]{from, to});
+            return gaps;
+        }
+        return series.findGaps(from, to, minGap);
+    }
+
+    /**
+     * Close the chunks being appended and write them now
+     */
+    public void flush() {
+        List<Series> all;
+        synchronized (this) {
+            all = new ArrayList<>(mSeries.values());
+        }
+        for (Series series : all) {
+            series.close(null);
+            series.flushRollups();
+        }
+    }
+
+    /**
+     * Write the values kept in memory and close the files, the store can't be used any more
+     */
+    void close() {
+        if (mWriter.isShutdown()) {
+            return;
+        }
+        // the loads are done before the flush, and the writes after it
+        awaitWriter();
+        flush();
+        awaitWriter();
+        mWriter.shutdownNow();
+        synchronized (this) {
+            for (Series series : mSeries.values()) {
+                series.closeFiles();
+            }
+            mSeries.clear();
+        }
+    }
+
+    // wait for the tasks of the writer submitted before, they are run in order
+    private void awaitWriter() {
+        try {
+            mWriter.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized Series getSeries(String topic) {
+        if (mDir == null) {
+            return null;
+        }
+        Series series = mSeries.get(topic);
+        if (series == null) {
+            try {
+                series = new Series(mDir, URLEncoder.encode(topic, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            mSeries.put(topic, series);
+            final Series loading = series;
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loading.load();
+                }
+            });
+        }
+        return series;
+    }
+
+    private class Series {
+        private final File mFile;
+        private FileChannel mChannel;
+        // the chunks closed, in the order of the first times
+        private final ArrayList<Chunk> mChunks = new ArrayList<>();
+        // the chunk being appended, null if there isn't any
+        private Chunk mOpen;
+
+        private final SensorRollup[] mRollups = new SensorRollup[ROLLUP_RESOLUTIONS.length];
+        // the rollups are loaded with the chunks, the values appended before are added to them
+        // after the load
+        private boolean mLoaded;
+        private final CountDownLatch mLoadLatch = new CountDownLatch(1);
+        private long[] mPendingTimes = new long[16];
+        private float[] mPendingValues = new float[16];
+        private int mPendingCount;
+
+        private Series(File dir, String name) {
+            mFile = new File(dir, name + FILE_SUFFIX);
+            for (int i = 0; i < mRollups.length; i++) {
+                mRollups[i] = new SensorRollup(new File(dir, name + ROLLUP_SUFFIXES[i]),
+                        ROLLUP_RESOLUTIONS[i], ROLLUP_RETENTIONS[i]);
+            }
+        }
+
+        synchronized void append(long time, float value) {
+            Chunk open = mOpen;
+            if (open != null && (open.mCount == CHUNK_POINTS || time < open.mLastTime)) {
+                close(open);
+                open = null;
+            }
+            if (open == null) {
+                open = new Chunk();
+                mOpen = open;
+                final Chunk chunk = open;
+                mWriter.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        close(chunk);
+                    }
+                }, MAX_CHUNK_AGE, TimeUnit.MILLISECONDS);
+            }
+            open.append(time, value);
+            if (mLoaded) {
+                addToRollups(time, value);
+            } else {
+                if (mPendingCount == mPendingTimes.length) {
+                    mPendingTimes = Arrays.copyOf(mPendingTimes, mPendingCount * 2);
+                    mPendingValues = Arrays.copyOf(mPendingValues, mPendingCount * 2);
+                }
+                mPendingTimes[mPendingCount] = time;
+                mPendingValues[mPendingCount] = value;
+                mPendingCount++;
+            }
+        }
+
+        void insert(long[] times, float[] values, int count) {
+            awaitLoaded();
+            synchronized (this) {
+                insertLoaded(times, values, count);
+            }
+        }
+
+        private void insertLoaded(long[] times, float[] values, int count) {
+            Chunk chunk = null;
+            for (int i = 0; i < count; i++) {
+                if (chunk != null && (chunk.mCount == CHUNK_POINTS || times[i] < chunk.mLastTime)) {
+                    addClosed(chunk);
+                    chunk = null;
+                }
+                if (chunk == null) {
+                    chunk = new Chunk();
+                }
+                chunk.append(times[i], values[i]);
+            }
+            if (chunk != null) {
+                addClosed(chunk);
+            }
+            addToRollups(times, values, count);
+        }
+
+        // close the chunk if it is still being appended, or the one being appended if null
+        synchronized void close(Chunk chunk) {
+            if (mOpen == null || chunk != null && chunk != mOpen) {
+                return;
+            }
+            Chunk open = mOpen;
+            mOpen = null;
+            addClosed(open);
+        }
+
+        private void addClosed(final Chunk chunk) {
+            chunk.trim();
+            int index = mChunks.size();
+            while (index > 0 && mChunks.get(index - 1).mFirstTime > chunk.mFirstTime) {
+                index--;
+            }
+            mChunks.add(index, chunk);
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(chunk);
+                }
+            });
+        }
+
+        // called by the writer only
+        private void write(Chunk chunk) {
+            byte[] times;
+            byte[] values;
+            synchronized (this) {
+                times = chunk.mTimes;
+                values = chunk.mValues;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_HEADER_LEN + times.length + values.length + 4);
+            buffer.putInt(CHUNK_MAGIC);
+            buffer.putInt(chunk.mCount);
+            buffer.putLong(chunk.mFirstTime);
+            buffer.putLong(chunk.mLastTime);
+            buffer.putFloat(chunk.mMin);
+            buffer.putFloat(chunk.mMax);
+            buffer.putInt(times.length);
+            buffer.putInt(values.length);
+            buffer.put(times);
+            buffer.put(values);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            try {
+                FileChannel channel = channel();
+                long offset = channel.size();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + buffer.position());
+                }
+                synchronized (this) {
+                    // read from the file from now on
+                    chunk.mFileOffset = offset + CHUNK_HEADER_LEN;
+                    chunk.mTimes = null;
+                    chunk.mValues = null;
+                }
+            } catch (IOException e) {
+                // kept in memory, lost when the process is killed
+            }
+        }
+
+        private void addToRollups(long time, float value) {
+            for (final SensorRollup rollup : mRollups) {
+                int closed = rollup.add(time, value);
+                if (closed >= 0) {
+                    writeRollup(rollup, rollup.record(closed));
+                }
+            }
+        }
+
+        // a value fetched for a past bucket writes the bucket again, so the buckets are
+        // collected for the values and each of them is written once
+        private void addToRollups(long[] times, float[] values, int count) {
+            for (SensorRollup rollup : mRollups) {
+                long[] starts = new long[16];
+                int startCount = 0;
+                for (int i = 0; i < count; i++) {
+                    int closed = rollup.add(times[i], values[i]);
+                    if (closed < 0) {
+                        continue;
+                    }
+                    long start = rollup.getStart(closed);
+                    if (startCount > 0 && starts[startCount - 1] == start) {
+                        continue;
+                    }
+                    if (startCount == starts.length) {
+                        starts = Arrays.copyOf(starts, startCount * 2);
+                    }
+                    starts[startCount++] = start;
+                }
+                if (startCount > 0) {
+                    writeRollup(rollup, rollup.records(starts, startCount));
+                }
+            }
+        }
+
+        // write the buckets not complete, they are written again when complete
+        synchronized void flushRollups() {
+            if (!mLoaded) {
+                return;
+            }
+            for (SensorRollup rollup : mRollups) {
+                ByteBuffer record = rollup.lastRecord();
+                if (record != null) {
+                    writeRollup(rollup, record);
+                }
+            }
+        }
+
+        private void writeRollup(final SensorRollup rollup, final ByteBuffer record) {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rollup.write(record);
+                    } catch (IOException e) {
+                        // kept in memory, lost when the process is killed
+                    }
+                }
+            });
+        }
+
+        SensorSeries queryDownsampled(long from, long to, int threshold) {
+            awaitLoaded();
+            long width = bucketWidth(from, to, threshold);
+            SensorRollup rollup = rollupFor(width / MIN_POINTS_PER_BUCKET);
+            if (rollup == null || rawCount(from, to) <= (long) threshold * MAX_RAW_POINTS_PER_POINT) {
+                return Downsampler.lttb(query(from, to), threshold);
+            }
+            SensorBuckets buckets;
+            synchronized (this) {
+                buckets = rollup.query(from, to);
+            }
+            return Downsampler.lttb(Downsampler.averages(buckets, rollup.getResolution()), threshold);
+        }
+
+        SensorBuckets queryBuckets(long from, long to, int bucketCount) {
+            awaitLoaded();
+            long width = bucketWidth(from, to, bucketCount);
+            SensorRollup rollup = rollupFor(width);
+            if (rollup == null) {
+                return Downsampler.aggregate(query(from, to), from, width, bucketCount);
+            }
+            SensorBuckets buckets;
+            synchronized (this) {
+                buckets = rollup.query(from, to);
+            }
+            return Downsampler.aggregate(buckets, from, width, bucketCount);
+        }
+
+        // the coarsest rollup not coarser than the width, null if the width is less than a minute
+        private SensorRollup rollupFor(long width) {
+            for (int i = mRollups.length - 1; i >= 0; i--) {
+                if (mRollups[i].getResolution() <= width) {
+                    return mRollups[i];
+                }
+            }
+            return null;
+        }
+
+        // the count of the values of the chunks overlapping the range
+        private synchronized long rawCount(long from, long to) {
+            long count = 0;
+            for (Chunk chunk : chunks()) {
+                if (chunk.mLastTime >= from && chunk.mFirstTime <= to) {
+                    count += chunk.mCount;
+                }
+            }
+            return count;
+        }
+
+        SensorSeries query(long from, long to) {
+            awaitLoaded();
+            // the columns are copied with the lock, and decoded without it
+            List<Chunk> snapshots = new ArrayList<>();
+            synchronized (this) {
+                for (Chunk chunk : chunks()) {
+                    if (chunk.mLastTime >= from && chunk.mFirstTime <= to) {
+                        snapshots.add(chunk.snapshot());
+                    }
+                }
+            }
+            long[] times = new long[0];
+            float[] values = new float[0];
+            int size = 0;
+            boolean sorted = true;
+            for (Chunk chunk : snapshots) {
+                if (times.length < size + chunk.mCount) {
+                    int capacity = Math.max(size + chunk.mCount, times.length * 2);
+                    times = Arrays.copyOf(times, capacity);
+                    values = Arrays.copyOf(values, capacity);
+                }
+                int start = size;
+                try {
+                    size = chunk.decode(chunk.mTimes == null ? channel() : null, from, to, times, values, size);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (start > 0 && size > start && times[start] < times[start - 1]) {
+                    sorted = false;
+                }
+            }
+            if (!sorted) {
+                sort(times, values, size);
+            }
+            return new SensorSeries(times, values, size);
+        }
+
+        List<long[]> findGaps(long from, long to, long minGap) {
+            SensorSeries series = query(from, to);
+            long[] times = series.getTimes();
+            int size = series.size();
+            long threshold = minGap;
+            if (size > 1) {
+                long[] intervals = new long[size - 1];
+                for (int i = 1; i < size; i++) {
+                    intervals[i - 1] = times[i] - times[i - 1];
+                }
+                Arrays.sort(intervals);
+                threshold = Math.max(minGap, GAP_CADENCE_FACTOR * intervals[intervals.length / 2]);
+            }
+            List<long[]> gaps = new ArrayList<>();
+            long cursor = from;
+            for (int i = 0; i < size; i++) {
+                if (times[i] - cursor > threshold) {
+                    gaps.add(new long[]{cursor, times[i]});
+                }
+                cursor = times[i];
+            }
+            if (to - cursor > threshold) {
+                gaps.add(new long[]{cursor, to});
+            }
+            return gaps;
+        }
+
+        // the chunks closed and the one being appended, in the order of the first times
+        private List<Chunk> chunks() {
+            if (mOpen == null || mOpen.mCount == 0) {
+                return mChunks;
+            }
+            List<Chunk> chunks = new ArrayList<>(mChunks);
+            chunks.add(mOpen);
+            if (!mChunks.isEmpty() && mChunks.get(mChunks.size() - 1).mFirstTime > mOpen.mFirstTime) {
+                Collections.sort(chunks, FIRST_TIME_ORDER);
+            }
+            return chunks;
+        }
+
+        synchronized void closeFiles() {
+            if (mChannel != null) {
+                try {
+                    mChannel.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+                mChannel = null;
+            }
+            for (SensorRollup rollup : mRollups) {
+                rollup.close();
+            }
+        }
+
+        private FileChannel channel() throws IOException {
+            synchronized (this) {
+                if (mChannel == null) {
+                    mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+                }
+                return mChannel;
+            }
+        }
+
+        private void awaitLoaded() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mLoadLatch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // called by the writer only, the chunks closed meanwhile are written after it
+        private void load() {
+            List<Chunk> chunks = new ArrayList<>();
+            try {
+                loadChunks(chunks);
+                loadRollups(chunks);
+            } finally {
+                synchronized (this) {
+                    mChunks.addAll(chunks);
+                    Collections.sort(mChunks, FIRST_TIME_ORDER);
+                    addToRollups(mPendingTimes, mPendingValues, mPendingCount);
+                    mPendingTimes = null;
+                    mPendingValues = null;
+                    mLoaded = true;
+                }
+                mLoadLatch.countDown();
+            }
+        }
+
+        // index the chunks of the file, the expired ones are dropped
+        private void loadChunks(List<Chunk> chunks) {
+            if (!mFile.exists()) {
+                return;
+            }
+            long expiredTime = System.currentTimeMillis() - RETENTION;
+            boolean expired = false;
+            try {
+                FileChannel channel = channel();
+                long size = channel.size();
+                long offset = 0;
+                ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_LEN);
+                while (offset + CHUNK_HEADER_LEN <= size) {
+                    header.clear();
+                    readFully(channel, header, offset);
+                    int timesLen = header.getInt(32);
+                    int valuesLen = header.getInt(36);
+                    long len = CHUNK_HEADER_LEN + (long) timesLen + valuesLen + 4;
+                    if (header.getInt(0) != CHUNK_MAGIC || timesLen < 0 || valuesLen < 0 || offset + len > size) {
+                        break;
+                    }
+                    ByteBuffer record = ByteBuffer.allocate((int) len);
+                    readFully(channel, record, offset);
+                    CRC32 crc = new CRC32();
+                    crc.update(record.array(), 0, (int) len - 4);
+                    if ((int) crc.getValue() != record.getInt((int) len - 4)) {
+                        break;
+                    }
+                    Chunk chunk = new Chunk(header.getInt(4), header.getLong(8), header.getLong(16),
+                            header.getFloat(24), header.getFloat(28), timesLen, valuesLen,
+                            offset + CHUNK_HEADER_LEN);
+                    if (chunk.mLastTime < expiredTime) {
+                        expired = true;
+                    } else {
+                        chunks.add(chunk);
+                    }
+                    offset += len;
+                }
+                if (offset < size) {
+                    // the chunk torn by a crash
+                    channel.truncate(offset);
+                }
+                Collections.sort(chunks, FIRST_TIME_ORDER);
+                if (expired) {
+                    rewrite(chunks);
+                }
+            } catch (IOException e) {
+                chunks.clear();
+            }
+        }
+
+        // the rollups are built again from the values since the last bucket written, which may
+        // be written before it is complete, or since the last value written, as the buckets of
+        // the values lost with the chunk being appended would be counted twice by a backfill
+        private void loadRollups(List<Chunk> chunks) {
+            for (SensorRollup rollup : mRollups) {
+                try {
+                    rollup.load();
+                } catch (IOException e) {
+                    // built again below
+                }
+            }
+            if (chunks.isEmpty()) {
+                return;
+            }
+            long expiredTime = System.currentTimeMillis() - RETENTION;
+            long lastTime = Long.MIN_VALUE;
+            for (Chunk chunk : chunks) {
+                lastTime = Math.max(lastTime, chunk.mLastTime);
+            }
+            long[] froms = new long[mRollups.length];
+            long minFrom = Long.MAX_VALUE;
+            for (int i = 0; i < mRollups.length; i++) {
+                SensorRollup rollup = mRollups[i];
+                long from = Long.MIN_VALUE;
+                if (!rollup.isEmpty()) {
+                    from = Math.min(rollup.getLastStart(), rollup.startOf(lastTime));
+                    // the values of the older buckets are expired, the buckets are kept
+                    if (from < expiredTime) {
+                        from = rollup.startOf(expiredTime) + rollup.getResolution();
+                    }
+                }
+                rollup.removeFrom(from);
+                froms[i] = from;
+                minFrom = Math.min(minFrom, from);
+            }
+            long[] times = new long[CHUNK_POINTS];
+            float[] values = new float[CHUNK_POINTS];
+            for (Chunk chunk : chunks) {
+                if (chunk.mLastTime < minFrom) {
+                    continue;
+                }
+                int size;
+                try {
+                    size = chunk.decode(channel(), minFrom, Long.MAX_VALUE, times, values, 0);
+                } catch (IOException e) {
+                    continue;
+                }
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j < mRollups.length; j++) {
+                        if (times[i] >= froms[j]) {
+                            mRollups[j].add(times[i], values[i]);
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < mRollups.length; i++) {
+                try {
+                    mRollups[i].writeFrom(froms[i]);
+                } catch (IOException e) {
+                    // kept in memory
+                }
+            }
+        }
+
+        // copy the chunks indexed to a new file and replace the file with it
+        private void rewrite(List<Chunk> chunks) throws IOException {
+            File tmpFile = new File(mFile.getPath() + ".tmp");
+            FileChannel tmp = new RandomAccessFile(tmpFile, "rw").getChannel();
+            tmp.truncate(0);
+            long[] offsets = new long[chunks.size()];
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                long start = chunk.mFileOffset - CHUNK_HEADER_LEN;
+                ByteBuffer record = ByteBuffer.allocate(CHUNK_HEADER_LEN + chunk.mTimesLen + chunk.mValuesLen + 4);
+                readFully(mChannel, record, start);
+                record.flip();
+                long offset = tmp.size();
+                while (record.hasRemaining()) {
+                    tmp.write(record, offset + record.position());
+                }
+                offsets[i] = offset + CHUNK_HEADER_LEN;
+            }
+            tmp.close();
+            mChannel.close();
+            mChannel = null;
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("can't rename " + tmpFile);
+            }
+            for (int i = 0; i < offsets.length; i++) {
+                chunks.get(i).mFileOffset = offsets[i];
+            }
+        }
+    }
+
+    private static class Chunk {
+        private int mCount;
+        private long mFirstTime;
+        private long mLastTime;
+        private float mMin = Float.POSITIVE_INFINITY;
+        private float mMax = Float.NEGATIVE_INFINITY;
+        // the columns, null once the chunk is written to the file
+        private byte[] mTimes;
+        private int mTimesLen;
+        private byte[] mValues;
+        private int mValuesLen;
+        // the offset of the columns in the file, -1 if it isn't written
+        private long mFileOffset = -1;
+        private int mLastBits;
+
+        // a chunk being appended, the columns are allocated for the max count
+        private Chunk() {
+            mTimes = new byte[CHUNK_POINTS * 10];
+            mValues = new byte[CHUNK_POINTS * 5];
+        }
+
+        // a chunk of the file
+        private Chunk(int count, long firstTime, long lastTime, float min, float max,
+                      int timesLen, int valuesLen, long fileOffset) {
+            mCount = count;
+            mFirstTime = firstTime;
+            mLastTime = lastTime;
+            mMin = min;
+            mMax = max;
+            mTimesLen = timesLen;
+            mValuesLen = valuesLen;
+            mFileOffset = fileOffset;
+        }
+
+        private void append(long time, float value) {
+            int bits = Float.floatToIntBits(value);
+            if (mCount == 0) {
+                mTimesLen = writeVarLong(mTimes, mTimesLen, time);
+                mValuesLen = writeVarInt(mValues, mValuesLen, zigZag(bits));
+                mFirstTime = time;
+            } else {
+                mTimesLen = writeVarLong(mTimes, mTimesLen, time - mLastTime);
+                mValuesLen = writeVarInt(mValues, mValuesLen, zigZag(bits - mLastBits));
+            }
+            mLastTime = time;
+            mLastBits = bits;
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+            mCount++;
+        }
+
+        private void trim() {
+            mTimes = Arrays.copyOf(mTimes, mTimesLen);
+            mValues = Arrays.copyOf(mValues, mValuesLen);
+        }
+
+        // a copy whose columns aren't changed by the later appends
+        private Chunk snapshot() {
+            Chunk copy = new Chunk(mCount, mFirstTime, mLastTime, mMin, mMax, mTimesLen, mValuesLen, mFileOffset);
+            copy.mTimes = mTimes;
+            copy.mValues = mValues;
+            return copy;
+        }
+
+        // decode the values between from and to into the arrays from size, return the new size
+        private int decode(FileChannel channel, long from, long to, long[] times, float[] values,
+                           int size) throws IOException {
+            byte[] timeColumn = mTimes;
+            byte[] valueColumn = mValues;
+            if (timeColumn == null) {
+                ByteBuffer buffer = ByteBuffer.allocate(mTimesLen + mValuesLen);
+                readFully(channel, buffer, mFileOffset);
+                timeColumn = Arrays.copyOfRange(buffer.array(), 0, mTimesLen);
+                valueColumn = Arrays.copyOfRange(buffer.array(), mTimesLen, mTimesLen + mValuesLen);
+            }
+            int[] timePos = {0};
+            int[] valuePos = {0};
+            long time = 0;
+            int bits = 0;
+            for (int i = 0; i < mCount; i++) {
+                long timeDelta = readVarLong(timeColumn, timePos);
+                int bitsDelta = unZigZag(readVarInt(valueColumn, valuePos));
+                time = i == 0 ? timeDelta : time + timeDelta;
+                bits = i == 0 ? bitsDelta : bits + bitsDelta;
+                if (time >= from && time <= to) {
+                    times[size] = time;
+                    values[size] = Float.intBitsToFloat(bits);
+                    size++;
+                }
+            }
+            return size;
+        }
+    }
+
+    // the width of the buckets splitting the range into count buckets, the range should be finite
+    private static long bucketWidth(long from, long to, int count) {
+        long range = Math.max(1, to - from + 1);
+        return Math.max(1, (range + count - 1) / Math.max(1, count));
+    }
+
+    private static void sort(long[] times, float[] values, int size) {
+        // nearly sorted, only the overlapped chunks are out of order
+        for (int i = 1; i < size; i++) {
+            long time = times[i];
+            float value = values[i];
+            int j = i - 1;
+            while (j >= 0 && times[j] > time) {
+                times[j + 1] = times[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            times[j + 1] = time;
+            values[j + 1] = value;
+        }
+    }
+
+    private static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unZigZag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    // the deltas of the times are positive except the clock is changed, written as unsigned
+    private static int writeVarLong(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int writeVarInt(byte[] buffer, int pos, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long readVarLong(byte[] buffer, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[pos[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int readVarInt(byte[] buffer, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("unexpected end of the file");
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.example.bing.eqin.controller;
+
+import com.example.bing.eqin.model.SensorBuckets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * The count, min, max and sum of the values of a topic in every bucket of a resolution,
+ * e.g. every minute, updated as the values are added. It isn't thread safe.
+ * <p>
+ * The buckets are kept in memory in the order of their start times. A bucket is appended to
+ * the file when a value of a later bucket is added, or when it is updated by a value older
+ * than the last bucket. The file is replayed on load, the last record of a bucket wins.
+ * A record is:
+ * <pre>
+ * long start time, int count, float min, float max, double sum
+ * </pre>
+ */
+class SensorRollup {
+    private static final int RECORD_LEN = 28;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final long mResolution;
+    private final long mRetention;
+    // the buckets are aligned to the local days
+    private final long mZoneOffset = TimeZone.getDefault().getRawOffset();
+    private final File mFile;
+    private FileChannel mChannel;
+
+    private long[] mStarts = new long[INITIAL_CAPACITY];
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    private float[] mMins = new float[INITIAL_CAPACITY];
+    private float[] mMaxs = new float[INITIAL_CAPACITY];
+    private double[] mSums = new double[INITIAL_CAPACITY];
+    private int mSize;
+
+    SensorRollup(File file, long resolution, long retention) {
+        mFile = file;
+        mResolution = resolution;
+        mRetention = retention;
+    }
+
+    long getResolution() {
+        return mResolution;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * The start time of the bucket of the time
+     */
+    long startOf(long time) {
+        return time - floorMod(time + mZoneOffset, mResolution);
+    }
+
+    /**
+     * The start time of the last bucket, Long.MIN_VALUE if empty
+     */
+    long getLastStart() {
+        return mSize == 0 ? Long.MIN_VALUE : mStarts[mSize - 1];
+    }
+
+    /**
+     * The start time of the bucket at the index, e.g. of the one returned by
+     * {@link #add(long, float)}
+     */
+    long getStart(int index) {
+        return mStarts[index];
+    }
+
+    /**
+     * Drop the buckets starting at or after the time, e.g. to build them again from the values
+     */
+    void removeFrom(long start) {
+        mSize = lowerBound(start);
+    }
+
+    /**
+     * Add the value to its bucket
+     *
+     * @return the index of the bucket to be written, -1 if there isn't any
+     */
+    int add(long time, float value) {
+        long start = startOf(time);
+        int index;
+        int closed = -1;
+        if (mSize > 0 && mStarts[mSize - 1] == start) {
+            index = mSize - 1;
+        } else if (mSize == 0 || mStarts[mSize - 1] < start) {
+            // the last bucket is complete
+            closed = mSize - 1;
+            index = insert(mSize, start);
+        } else {
+            index = Arrays.binarySearch(mStarts, 0, mSize, start);
+            if (index < 0) {
+                index = insert(-index - 1, start);
+            }
+            // a value fetched for a past bucket
+            closed = index;
+        }
+        mCounts[index]++;
+        mMins[index] = Math.min(mMins[index], value);
+        mMaxs[index] = Math.max(mMaxs[index], value);
+        mSums[index] += value;
+        return closed;
+    }
+
+    /**
+     * Get the buckets overlapping the range between from and to
+     */
+    SensorBuckets query(long from, long to) {
+        int start = lowerBound(from == Long.MIN_VALUE ? from : from - mResolution + 1);
+        int end = lowerBound(to == Long.MAX_VALUE ? to : to + 1);
+        return new SensorBuckets(Arrays.copyOfRange(mStarts, start, end), Arrays.copyOfRange(mMins, start, end),
+                Arrays.copyOfRange(mMaxs, start, end), Arrays.copyOfRange(mSums, start, end),
+                Arrays.copyOfRange(mCounts, start, end), end - start);
+    }
+
+    /**
+     * The record of the bucket to be written by {@link #write(ByteBuffer)}
+     */
+    ByteBuffer record(int index) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_LEN);
+        buffer.putLong(mStarts[index]);
+        buffer.putInt(mCounts[index]);
+        buffer.putFloat(mMins[index]);
+        buffer.putFloat(mMaxs[index]);
+        buffer.putDouble(mSums[index]);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The records of the buckets starting at the times, to be written by
+     * {@link #write(ByteBuffer)} at once. A bucket given more than once is written once.
+     */
+    ByteBuffer records(long[] starts, int count) {
+        long[] sorted = Arrays.copyOf(starts, count);
+        Arrays.sort(sorted);
+        ByteBuffer buffer = ByteBuffer.allocate(count * RECORD_LEN);
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && sorted[i] == sorted[i - 1]) {
+                continue;
+            }
+            int index = Arrays.binarySearch(mStarts, 0, mSize, sorted[i]);
+            if (index >= 0) {
+                buffer.put(record(index));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The record of the last bucket, which isn't written until it is complete, null if empty
+     */
+    ByteBuffer lastRecord() {
+        return mSize == 0 ? null : record(mSize - 1);
+    }
+
+    /**
+     * Append the buckets starting at or after the time to the file, they replace the records
+     * of the same buckets written before
+     */
+    void writeFrom(long start) throws IOException {
+        int from = lowerBound(start);
+        if (from == mSize) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((mSize - from) * RECORD_LEN);
+        for (int i = from; i < mSize; i++) {
+            buffer.put(record(i));
+        }
+        buffer.flip();
+        write(buffer);
+    }
+
+    void write(ByteBuffer record) throws IOException {
+        FileChannel channel = channel();
+        long offset = channel.size();
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+    }
+
+    /**
+     * Replay the file, the expired buckets are dropped and the file is compacted if
+     * a bucket is written more than once
+     */
+    void load() throws IOException {
+        if (!mFile.exists()) {
+            return;
+        }
+        FileChannel channel = channel();
+        long size = channel.size();
+        long validLen = size - size % RECORD_LEN;
+        ByteBuffer buffer = ByteBuffer.allocate((int) validLen);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        long expiredTime = System.currentTimeMillis() - mRetention;
+        int records = 0;
+        while (buffer.remaining() >= RECORD_LEN) {
+            long start = buffer.getLong();
+            int count = buffer.getInt();
+            float min = buffer.getFloat();
+            float max = buffer.getFloat();
+            double sum = buffer.getDouble();
+            records++;
+            if (start < expiredTime) {
+                continue;
+            }
+            int index = Arrays.binarySearch(mStarts, 0, mSize, start);
+            if (index < 0) {
+                index = insert(-index - 1, start);
+            }
+            mCounts[index] = count;
+            mMins[index] = min;
+            mMaxs[index] = max;
+            mSums[index] = sum;
+        }
+        if (records > mSize || validLen < size) {
+            rewrite();
+        }
+    }
+
+    void close() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            mChannel = null;
+        }
+    }
+
+    /**
+     * Write all of the buckets to a new file replacing the file
+     */
+    void rewrite() throws IOException {
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        FileChannel tmp = new RandomAccessFile(tmpFile, "rw").getChannel();
+        tmp.truncate(0);
+        ByteBuffer buffer = ByteBuffer.allocate(mSize * RECORD_LEN);
+        for (int i = 0; i < mSize; i++) {
+            buffer.put(record(i));
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            tmp.write(buffer, buffer.position());
+        }
+        tmp.close();
+        close();
+        if (!tmpFile.renameTo(mFile)) {
+            throw new IOException("can't rename " + tmpFile);
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (mChannel == null) {
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        }
+        return mChannel;
+    }
+
+    // insert an empty bucket at the index
+    private int insert(int index, long start) {
+        if (mSize == mStarts.length) {
+            int capacity = mSize * 2;
+            mStarts = Arrays.copyOf(mStarts, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+            mMins = Arrays.copyOf(mMins, capacity);
+            mMaxs = Arrays.copyOf(mMaxs, capacity);
+            mSums = Arrays.copyOf(mSums, capacity);
+        }
+        int moved = mSize - index;
+        if (moved > 0) {
+            System.arraycopy(mStarts, index, mStarts, index + 1, moved);
+            System.arraycopy(mCounts, index, mCounts, index + 1, moved);
+            System.arraycopy(mMins, index, mMins, index + 1, moved);
+            System.arraycopy(mMaxs, index, mMaxs, index + 1, moved);
+            System.arraycopy(mSums, index, mSums, index + 1, moved);
+        }
+        mStarts[index] = start;
+        mCounts[index] = 0;
+        mMins[index] = Float.POSITIVE_INFINITY;
+        mMaxs[index] = Float.NEGATIVE_INFINITY;
+        mSums[index] = 0;
+        mSize++;
+        return index;
+    }
+
+    // the index of the first bucket starting at or after the time
+    private int lowerBound(long time) {
+        int index = Arrays.binarySearch(mStarts, 0, mSize, time);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    private static long floorMod(long x, long y) {
+        long mod = x % y;
+        return mod < 0 ? mod + y : mod;
+    }
+}
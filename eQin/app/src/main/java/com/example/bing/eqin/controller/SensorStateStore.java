@@ -0,0 +1,163 @@
+package com.example.bing.eqin.controller;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The latest value of every sensor, indexed by the slot of its
+ * {@link com.example.bing.eqin.model.TopicKey}.
+ * <p>
+ * The values are updated without lock by the MQTT thread, the only writer. The slots updated
+ * are marked dirty, and the listener is called in the UI thread once per display frame at
+ * most with the slots updated since the last call, however many messages arrived.
+ */
+public class SensorStateStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final SensorStateStore sInstance = new SensorStateStore();
+
+    // replaced by the writer when a slot is beyond the capacity
+    private volatile State mState = new State(INITIAL_CAPACITY);
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener mListener;
+    private int[] mChangedSlots = new int[INITIAL_CAPACITY];
+
+    public static SensorStateStore getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Update the value of the slot, it should be called in one thread only
+     */
+    public void update(int slot, double value, long timeMillis) {
+        State state = mState;
+        if (slot >= state.mCapacity) {
+            state = grow(state, slot + 1);
+        }
+        state.mValues.lazySet(slot, Double.doubleToRawLongBits(value));
+        state.mTimes.lazySet(slot, timeMillis);
+        // the dirty bit is set after the value, so the value is visible to the reader of the bit
+        int word = slot >>> 6;
+        long bit = 1L << slot;
+        long dirty;
+        do {
+            dirty = state.mDirty.get(word);
+        } while ((dirty & bit) == 0 && !state.mDirty.compareAndSet(word, dirty, dirty | bit));
+        scheduleFrame();
+    }
+
+    public boolean hasValue(int slot) {
+        State state = mState;
+        return slot < state.mCapacity && state.mTimes.get(slot) != 0;
+    }
+
+    public double getValue(int slot) {
+        State state = mState;
+        return slot < state.mCapacity ? Double.longBitsToDouble(state.mValues.get(slot)) : Double.NaN;
+    }
+
+    /**
+     * The time of the latest value of the slot, 0 if there isn't any value
+     */
+    public long getTime(int slot) {
+        State state = mState;
+        return slot < state.mCapacity ? state.mTimes.get(slot) : 0;
+    }
+
+    /**
+     * Set the listener called in the UI thread with the slots updated, null to stop it
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+        if (listener != null) {
+            scheduleFrame();
+        }
+    }
+
+    private void scheduleFrame() {
+        if (mListener != null && mFrameScheduled.compareAndSet(false, true)) {
+            mMainHandler.post(mPostFrameRunnable);
+        }
+    }
+
+    private State grow(State state, int minCapacity) {
+        int capacity = state.mCapacity;
+        while (capacity < minCapacity) {
+            capacity *= 2;
+        }
+        State grown = new State(capacity);
+        for (int i = 0; i < state.mCapacity; i++) {
+            grown.mValues.set(i, state.mValues.get(i));
+            grown.mTimes.set(i, state.mTimes.get(i));
+        }
+        // a bit cleared by the reader after it is copied is delivered once more at worst
+        for (int i = 0; i < state.mDirty.length(); i++) {
+            grown.mDirty.set(i, state.mDirty.get(i));
+        }
+        mState = grown;
+        return grown;
+    }
+
+    private final Runnable mPostFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // the updates after this are delivered by the next frame
+            mFrameScheduled.set(false);
+            State state = mState;
+            int count = 0;
+            for (int word = 0; word < state.mDirty.length(); word++) {
+                long dirty = state.mDirty.getAndSet(word, 0);
+                while (dirty != 0) {
+                    int slot = (word << 6) + Long.numberOfTrailingZeros(dirty);
+                    dirty &= dirty - 1;
+                    if (count == mChangedSlots.length) {
+                        int[] slots = new int[count * 2];
+                        System.arraycopy(mChangedSlots, 0, slots, 0, count);
+                        mChangedSlots = slots;
+                    }
+                    mChangedSlots[count++] = slot;
+                }
+            }
+            Listener listener = mListener;
+            if (listener != null && count > 0) {
+                listener.onSlotsChanged(mChangedSlots, count);
+            }
+        }
+    };
+
+    public interface Listener {
+        /**
+         * Called in the UI thread once per frame at most
+         *
+         * @param slots the slots updated, only the first count ones are valid, the array is
+         *              reused by the next call
+         */
+        void onSlotsChanged(int[] slots, int count);
+    }
+
+    private static class State {
+        private final int mCapacity;
+        private final AtomicLongArray mValues;
+        private final AtomicLongArray mTimes;
+        private final AtomicLongArray mDirty;
+
+        private State(int capacity) {
+            mCapacity = capacity;
+            mValues = new AtomicLongArray(capacity);
+            mTimes = new AtomicLongArray(capacity);
+            mDirty = new AtomicLongArray((capacity + 63) >>> 6);
+        }
+    }
+}
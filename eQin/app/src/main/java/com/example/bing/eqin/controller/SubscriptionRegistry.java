@@ -0,0 +1,146 @@
+package com.example.bing.eqin.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The topics wanted and the topics believed to be subscribed at the broker, with QoS.
+ * {@link #diff()} gives the topics to be subscribed and unsubscribed, so that a refresh
+ * of the topics costs one SUBSCRIBE and one UNSUBSCRIBE at most.
+ * <p>
+ * The broker keeps the subscriptions of a persistent session across the restarts of the
+ * app, so the topics subscribed are saved by {@link #save()} and restored by
+ * {@link #restore(Set)}, the ones not wanted any more are unsubscribed by the next diff.
+ * <p>
+ * It isn't thread safe, {@link MQTTController} calls it with its lock held.
+ */
+class SubscriptionRegistry {
+    private final Map<String, Integer> mWanted = new LinkedHashMap<>();
+    private final Map<String, Integer> mActive = new HashMap<>();
+    // the topics being unsubscribed, they are still subscribed until the broker acknowledges
+    private final Map<String, Integer> mUnsubscribing = new HashMap<>();
+
+    void setTopics(Collection<String> topics, int qos) {
+        mWanted.clear();
+        for (String topic : topics) {
+            mWanted.put(topic, qos);
+        }
+    }
+
+    /**
+     * Compute the difference between the wanted topics and the active ones, and take the
+     * wanted ones as active. The topics failed to be subscribed should be reported by
+     * {@link #onSubscribeFailed(String[])}, and the topics to be unsubscribed should be
+     * reported by {@link #onUnsubscribed(String[])} or {@link #onUnsubscribeFailed(String[])}.
+     */
+    Diff diff() {
+        List<String> subscribeTopics = new ArrayList<>();
+        List<Integer> subscribeQos = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : mWanted.entrySet()) {
+            Integer qos = entry.getValue();
+            if (!qos.equals(mActive.put(entry.getKey(), qos))) {
+                subscribeTopics.add(entry.getKey());
+                subscribeQos.add(qos);
+            }
+        }
+        List<String> unsubscribeTopics = new ArrayList<>();
+        Iterator<Map.Entry<String, Integer>> iterator = mActive.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            if (!mWanted.containsKey(entry.getKey())) {
+                iterator.remove();
+                mUnsubscribing.put(entry.getKey(), entry.getValue());
+                unsubscribeTopics.add(entry.getKey());
+            }
+        }
+
+        Diff diff = new Diff();
+        diff.subscribeTopics = subscribeTopics.toArray(new String[subscribeTopics.size()]);
+        diff.subscribeQos = new int[subscribeQos.size()];
+        for (int i = 0; i < diff.subscribeQos.length; i++) {
+            diff.subscribeQos[i] = subscribeQos.get(i);
+        }
+        diff.unsubscribeTopics = unsubscribeTopics.toArray(new String[unsubscribeTopics.size()]);
+        return diff;
+    }
+
+    /**
+     * The topics are subscribed again by the next {@link #diff()}
+     */
+    void onSubscribeFailed(String[] topics) {
+        for (String topic : topics) {
+            mActive.remove(topic);
+        }
+    }
+
+    void onUnsubscribed(String[] topics) {
+        for (String topic : topics) {
+            mUnsubscribing.remove(topic);
+        }
+    }
+
+    /**
+     * The topics are unsubscribed again by the next {@link #diff()}, unless they are
+     * wanted again meanwhile
+     */
+    void onUnsubscribeFailed(String[] topics) {
+        for (String topic : topics) {
+            Integer qos = mUnsubscribing.remove(topic);
+            if (qos != null && !mActive.containsKey(topic)) {
+                mActive.put(topic, qos);
+            }
+        }
+    }
+
+    /**
+     * The broker doesn't keep the session, all of the wanted topics are subscribed again by
+     * the next {@link #diff()}
+     */
+    void onSessionLost() {
+        mActive.clear();
+        mUnsubscribing.clear();
+    }
+
+    /**
+     * The topics which may be subscribed at the broker, including the ones being unsubscribed,
+     * as strings of the QoS followed by the topic
+     */
+    Set<String> save() {
+        Map<String, Integer> subscribed = new HashMap<>(mUnsubscribing);
+        subscribed.putAll(mActive);
+        Set<String> saved = new HashSet<>();
+        for (Map.Entry<String, Integer> entry : subscribed.entrySet()) {
+            saved.add(entry.getValue() + entry.getKey());
+        }
+        return saved;
+    }
+
+    /**
+     * Take the topics given by {@link #save()} as active, for the session kept by the broker
+     */
+    void restore(Set<String> saved) {
+        for (String topic : saved) {
+            if (topic.length() > 1) {
+                // the QoS is one digit
+                mActive.put(topic.substring(1), topic.charAt(0) - '0');
+            }
+        }
+    }
+
+    static class Diff {
+        String[] subscribeTopics;
+        int[] subscribeQos;
+        String[] unsubscribeTopics;
+
+        boolean isEmpty() {
+            return subscribeTopics.length == 0 && unsubscribeTopics.length == 0;
+        }
+    }
+}
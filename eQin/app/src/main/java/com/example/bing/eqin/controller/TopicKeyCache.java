@@ -0,0 +1,90 @@
+package com.example.bing.eqin.controller;
+
+import com.example.bing.eqin.model.DeviceItem;
+import com.example.bing.eqin.model.TopicKey;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link TopicKey}s by topic. The keys of the devices are put when the devices are loaded
+ * by {@link DeviceController}, every device topic gets a slot kept until the process exits,
+ * so the per-device state could be indexed by the slot.
+ */
+public class TopicKeyCache {
+    // the topics not of a device are interned too, up to this count
+    private static final int MAX_OTHER_SIZE = 256;
+
+    private static final TopicKeyCache sInstance = new TopicKeyCache();
+
+    private final Map<String, TopicKey> mKeys = new ConcurrentHashMap<>();
+    private int mNextSlot = 0;
+    private int mOtherSize = 0;
+
+    public static TopicKeyCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Put the keys of the devices, the devices put before keep their slots
+     */
+    public synchronized void putDevices(List<DeviceItem> deviceItems) {
+        for (DeviceItem deviceItem : deviceItems) {
+            String topic = deviceItem.getTopic();
+            if (topic == null) {
+                continue;
+            }
+            TopicKey key = mKeys.get(topic);
+            if (key == null || key.getSlot() < 0) {
+                if (key != null) {
+                    mOtherSize--;
+                }
+                mKeys.put(topic, parse(topic, mNextSlot++));
+            }
+        }
+    }
+
+    /**
+     * Get the key of the topic, the topic not put by {@link #putDevices(List)} gets a key
+     * without slot
+     */
+    public TopicKey get(String topic) {
+        TopicKey key = mKeys.get(topic);
+        if (key != null) {
+            return key;
+        }
+        synchronized (this) {
+            key = mKeys.get(topic);
+            if (key == null) {
+                key = parse(topic, -1);
+                if (mOtherSize < MAX_OTHER_SIZE) {
+                    mKeys.put(topic, key);
+                    mOtherSize++;
+                }
+            }
+            return key;
+        }
+    }
+
+    /**
+     * The count of the slots assigned, the slots are from 0 to it (exclusive)
+     */
+    public synchronized int getSlotCount() {
+        return mNextSlot;
+    }
+
+    private static TopicKey parse(String topic, int slot) {
+        String connectionType = null;
+        String deviceType = null;
+        String deviceId = null;
+        int first = topic.indexOf('/');
+        int second = first < 0 ? -1 : topic.indexOf('/', first + 1);
+        if (second > 0 && topic.indexOf('/', second + 1) < 0) {
+            connectionType = topic.substring(0, first);
+            deviceType = topic.substring(first + 1, second);
+            deviceId = topic.substring(second + 1);
+        }
+        return new TopicKey(topic, connectionType, deviceType, deviceId, slot);
+    }
+}
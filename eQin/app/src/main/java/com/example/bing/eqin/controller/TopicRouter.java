@@ -0,0 +1,184 @@
+package com.example.bing.eqin.controller;
+
+import com.example.bing.eqin.model.MQTTDataItem;
+import com.example.bing.eqin.model.TopicKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deliver the messages arrived to the handlers registered for the matched topic filters,
+ * e.g. "+/temperature/+" or "push". The filters are kept in a trie by their levels, with
+ * the MQTT wildcards "+" (one level) and "#" (the rest levels, the parent level included).
+ * <p>
+ * The handlers of a topic are looked up from the trie once and cached by its {@link TopicKey},
+ * so delivering a message costs a map lookup and the calls of the matched handlers only. The handlers are
+ * called in the MQTT thread.
+ */
+public class TopicRouter {
+    private static final int MAX_CACHE_SIZE = 1024;
+    private static final Handler[] NO_HANDLERS = new Handler[0];
+
+    private static final TopicRouter sInstance = new TopicRouter();
+
+    private final Node mRoot = new Node();
+    // the handlers matched by the interned topic, compared by identity, cleared whenever
+    // a handler is registered or unregistered
+    private final Map<TopicKey, Handler[]> mMatchCache = new ConcurrentHashMap<>();
+
+    public static TopicRouter getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Register the handler for the topic filter, registering the same pair twice does nothing
+     */
+    public synchronized void register(String topicFilter, Handler handler) {
+        Node node = mRoot;
+        for (String level : topicFilter.split("/", -1)) {
+            Node child = node.mChildren.get(level);
+            if (child == null) {
+                child = new Node();
+                node.mChildren.put(level, child);
+            }
+            node = child;
+        }
+        for (Handler h : node.mHandlers) {
+            if (h == handler) {
+                return;
+            }
+        }
+        Handler[] handlers = new Handler[node.mHandlers.length + 1];
+        System.arraycopy(node.mHandlers, 0, handlers, 0, node.mHandlers.length);
+        handlers[handlers.length - 1] = handler;
+        node.mHandlers = handlers;
+        mMatchCache.clear();
+    }
+
+    /**
+     * Unregister the handler from the topic filter
+     */
+    public synchronized void unregister(String topicFilter, Handler handler) {
+        Node node = mRoot;
+        for (String level : topicFilter.split("/", -1)) {
+            node = node.mChildren.get(level);
+            if (node == null) {
+                return;
+            }
+        }
+        List<Handler> handlers = new ArrayList<>();
+        for (Handler h : node.mHandlers) {
+            if (h != handler) {
+                handlers.add(h);
+            }
+        }
+        node.mHandlers = handlers.isEmpty() ? NO_HANDLERS : handlers.toArray(new Handler[handlers.size()]);
+        mMatchCache.clear();
+    }
+
+    /**
+     * Unregister the handler from all of the topic filters
+     */
+    public synchronized void unregister(Handler handler) {
+        unregister(mRoot, handler);
+        mMatchCache.clear();
+    }
+
+    /**
+     * Deliver the message to the handlers of the matched filters
+     *
+     * @return the count of the handlers called
+     */
+    public int dispatch(MQTTDataItem message) {
+        TopicKey topicKey = message.getTopicKey();
+        if (topicKey == null) {
+            topicKey = TopicKeyCache.getInstance().get(message.getTopic());
+        }
+        Handler[] handlers = mMatchCache.get(topicKey);
+        if (handlers == null) {
+            handlers = match(topicKey);
+        }
+        for (Handler handler : handlers) {
+            handler.onMessage(message);
+        }
+        return handlers.length;
+    }
+
+    private synchronized Handler[] match(TopicKey topicKey) {
+        String topic = topicKey.getTopic();
+        List<Handler> handlers = new ArrayList<>();
+        String[] levels = topic.split("/", -1);
+        // the topics of the broker like "$SYS/..." aren't matched by the wildcards at the first level
+        collect(mRoot, levels, 0, !topic.startsWith("$"), handlers);
+        Handler[] result = handlers.isEmpty() ? NO_HANDLERS : handlers.toArray(new Handler[handlers.size()]);
+        if (mMatchCache.size() >= MAX_CACHE_SIZE) {
+            mMatchCache.clear();
+        }
+        mMatchCache.put(topicKey, result);
+        return result;
+    }
+
+    private static void collect(Node node, String[] levels, int index, boolean wildcard,
+                                List<Handler> handlers) {
+        if (wildcard) {
+            Node hash = node.mChildren.get("#");
+            if (hash != null) {
+                addAll(hash.mHandlers, handlers);
+            }
+        }
+        if (index == levels.length) {
+            addAll(node.mHandlers, handlers);
+            return;
+        }
+        Node child = node.mChildren.get(levels[index]);
+        if (child != null) {
+            collect(child, levels, index + 1, true, handlers);
+        }
+        if (wildcard) {
+            Node plus = node.mChildren.get("+");
+            if (plus != null) {
+                collect(plus, levels, index + 1, true, handlers);
+            }
+        }
+    }
+
+    private static void addAll(Handler[] from, List<Handler> to) {
+        for (Handler handler : from) {
+            // a handler registered for several matched filters is called once
+            if (!to.contains(handler)) {
+                to.add(handler);
+            }
+        }
+    }
+
+    private static void unregister(Node node, Handler handler) {
+        List<Handler> handlers = new ArrayList<>();
+        for (Handler h : node.mHandlers) {
+            if (h != handler) {
+                handlers.add(h);
+            }
+        }
+        if (handlers.size() != node.mHandlers.length) {
+            node.mHandlers = handlers.isEmpty() ? NO_HANDLERS : handlers.toArray(new Handler[handlers.size()]);
+        }
+        for (Node child : node.mChildren.values()) {
+            unregister(child, handler);
+        }
+    }
+
+    public interface Handler {
+        /**
+         * Called in the MQTT thread, the message is recycled after the call
+         */
+        void onMessage(MQTTDataItem message);
+    }
+
+    // guarded by the lock of the router
+    private static class Node {
+        private final Map<String, Node> mChildren = new HashMap<>();
+        private Handler[] mHandlers = NO_HANDLERS;
+    }
+}
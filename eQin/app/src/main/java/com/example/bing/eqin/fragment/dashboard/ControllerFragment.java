@@ -29,8 +29,10 @@ import com.example.bing.eqin.MainActivity;
 import com.example.bing.eqin.R;
 import com.example.bing.eqin.adapter.ControllerAdapter;
 import com.example.bing.eqin.controller.DeviceController;
+import com.example.bing.eqin.controller.DeviceRegistry;
 import com.example.bing.eqin.controller.MQTTController;
 import com.example.bing.eqin.model.DeviceItem;
+import com.example.bing.eqin.model.DeviceSnapshot;
 import com.example.bing.eqin.model.ControllerItem;
 import com.example.bing.eqin.utils.CommonUtils;
 import com.example.bing.eqin.utils.ItemDecoration;
@@ -38,7 +40,7 @@ import com.example.bing.eqin.utils.ItemDecoration;
 import java.util.LinkedList;
 import java.util.List;
 
-public class ControllerFragment extends Fragment implements ColorChooserDialog.ColorCallback{
+public class ControllerFragment extends Fragment implements ColorChooserDialog.ColorCallback, DeviceRegistry.Listener{
 
     private RecyclerView controllerContainer;
     private SwipeRefreshLayout controllerSwipeRefreshLayout;
@@ -54,7 +56,7 @@ public class ControllerFragment extends Fragment implements ColorChooserDialog.C
             if (color != 0) {
                 controllerItems.get(colorPos).setData(CommonUtils.argbToHex(color));
                 String data = String.format("{\"m\":0,\"r\":%d,\"g\":%d,\"b\":%d}", Color.red(color),Color.green(color),Color.blue(color));
-                MQTTController.getInstance().publish("wifi/color/1",2 ,data.getBytes());
+                MQTTController.getInstance().publishSet("wifi/color/1",2 ,data.getBytes());
                 controllerAdapter.notifyDataSetChanged();
             }
             return false;
@@ -69,6 +71,17 @@ public class ControllerFragment extends Fragment implements ColorChooserDialog.C
         super.onCreate(savedInstanceState);
     }
 
+    @Override
+    public void onDestroyView() {
+        DeviceRegistry.getInstance().removeListener(this);
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDevicesChanged(DeviceSnapshot snapshot) {
+        getData();
+    }
+
     @Override
     public void onAttach(Context context) {
         super.onAttach(context);
@@ -86,6 +99,8 @@ public class ControllerFragment extends Fragment implements ColorChooserDialog.C
         controllerSwipeRefreshLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
             @Override
             public void onRefresh() {
+                // the devices loaded again are shown by onDevicesChanged
+                DeviceRegistry.getInstance().load();
                 getData();
                 controllerSwipeRefreshLayout.setRefreshing(false);
                 CommonUtils.showMessage(getContext(), "刷新完成");
@@ -97,6 +112,8 @@ public class ControllerFragment extends Fragment implements ColorChooserDialog.C
         controllerAdapter.setEmptyView(R.layout.item_empty, (ViewGroup)controllerContainer.getParent());
         controllerAdapter.addHeaderView(inflater.inflate(R.layout.item_header, (ViewGroup)controllerContainer.getParent(), false));
         controllerContainer.addItemDecoration(new ItemDecoration(30));
+        // the devices are loaded once and shared by the screens, the rows are built again when changed
+        DeviceRegistry.getInstance().addListener(this);
 
         controllerAdapter.setOnItemClickListener(new BaseQuickAdapter.OnItemClickListener() {
             @Override
@@ -111,10 +128,10 @@ public class ControllerFragment extends Fragment implements ColorChooserDialog.C
                                     @Override
                                     public void onSelection(MaterialDialog dialog, View view, int which, CharSequence text) {
                                         if(which==0){
-                                            MQTTController.getInstance().publish("wifi/switch/1",2,("{\"br\":"+0+"}").getBytes());
+                                            MQTTController.getInstance().publishSet("wifi/switch/1",2,("{\"br\":"+0+"}").getBytes());
                                             controllerItems.get(position).setData("OFF");
                                         } else{
-                                            MQTTController.getInstance().publish("wifi/switch/1",2,("{\"m\":"+(which-1)+"}").getBytes());
+                                            MQTTController.getInstance().publishSet("wifi/switch/1",2,("{\"m\":"+(which-1)+"}").getBytes());
                                             controllerItems.get(position).setData("ON");
                                         }
                                         controllerAdapter.notifyDataSetChanged();
@@ -140,7 +157,8 @@ public class ControllerFragment extends Fragment implements ColorChooserDialog.C
                             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                                 controllerItems.get(position).setData(seekBar.getProgress()+"%");
                                 controllerAdapter.notifyDataSetChanged();
-                                MQTTController.getInstance().publish("wifi/slide/1",2 ,("{\"br\":"+progress+"}").getBytes());
+                                // the value being dragged is transient, only the latest one is sent
+                                MQTTController.getInstance().publishCoalesced("wifi/slide/1",2 ,("{\"br\":"+progress+"}").getBytes(), !fromUser);
                             }
 
                             @Override
@@ -150,7 +168,7 @@ public class ControllerFragment extends Fragment implements ColorChooserDialog.C
 
                             @Override
                             public void onStopTrackingTouch(SeekBar seekBar) {
-
+                                MQTTController.getInstance().publishCoalesced("wifi/slide/1",2 ,("{\"br\":"+seekBar.getProgress()+"}").getBytes(), true);
                             }
                         });
                         break;
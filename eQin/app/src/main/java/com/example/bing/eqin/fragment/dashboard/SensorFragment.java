@@ -1,7 +1,6 @@
 package com.example.bing.eqin.fragment.dashboard;
 
 import android.os.Bundle;
-import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -9,6 +8,7 @@ import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.format.DateFormat;
+import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -20,18 +20,25 @@ import com.example.bing.eqin.R;
 import com.example.bing.eqin.adapter.SensorAdapter;
 import com.example.bing.eqin.controller.DataController;
 import com.example.bing.eqin.controller.DeviceController;
+import com.example.bing.eqin.controller.DeviceRegistry;
 import com.example.bing.eqin.controller.MQTTController;
+import com.example.bing.eqin.controller.SensorStateStore;
+import com.example.bing.eqin.controller.TopicKeyCache;
+import com.example.bing.eqin.controller.TopicRouter;
 import com.example.bing.eqin.model.DeviceItem;
+import com.example.bing.eqin.model.DeviceSnapshot;
 import com.example.bing.eqin.model.MQTTDataItem;
 import com.example.bing.eqin.model.SensorItem;
+import com.example.bing.eqin.model.SensorSeries;
+import com.example.bing.eqin.model.TopicKey;
 import com.example.bing.eqin.utils.CommonUtils;
-import com.example.bing.eqin.utils.MQTTRunnable;
 import com.example.bing.eqin.utils.ItemDecoration;
 import com.example.bing.eqin.views.ChartMarkView;
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.components.AxisBase;
 import com.github.mikephil.charting.components.Description;
 import com.github.mikephil.charting.components.Legend;
+import com.github.mikephil.charting.components.LimitLine;
 import com.github.mikephil.charting.components.XAxis;
 import com.github.mikephil.charting.components.YAxis;
 import com.github.mikephil.charting.data.Entry;
@@ -39,39 +46,45 @@ import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.formatter.IAxisValueFormatter;
 
-import org.eclipse.paho.client.mqttv3.MqttException;
-import org.greenrobot.eventbus.EventBus;
-import org.greenrobot.eventbus.Subscribe;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 
-public class SensorFragment extends Fragment {
+public class SensorFragment extends Fragment implements TopicRouter.Handler, SensorStateStore.Listener, DeviceRegistry.Listener {
+
+    // the chart shows the values of the last day downsampled to about CHART_POINTS points
+    private static final long CHART_RANGE = 24 * 60 * 60 * 1000;
+    private static final int CHART_POINTS = 120;
+    private static final int CHART_LABELS = 6;
 
     private RecyclerView sensorContainer;
     private SwipeRefreshLayout sensorSwipeRefreshLayout;
-    List<SensorItem> sensorItems = new LinkedList<>();
+    List<SensorItem> sensorItems = new ArrayList<>();
     private SensorAdapter sensorAdapter;
-    private Map<String, Integer> positionTopicMapping = new HashMap<>();
-    private Handler handler=null;
+    // the positions of the sensors by the slots of their topics
+    private SparseIntArray positionSlotMapping = new SparseIntArray();
     private List<String> topics = new LinkedList<>();
-    private MQTTRunnable mqttRunnable = new MQTTRunnable();
-    private Thread mqttThread;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
-        EventBus.getDefault().register(this);
         super.onCreate(savedInstanceState);
-        handler=new Handler();
-        mqttRunnable.setTopics(DeviceController.getInstance().getTopics());
-        mqttThread = new Thread(mqttRunnable);
+        TopicRouter.getInstance().register("+/temperature/+", this);
+        TopicRouter.getInstance().register("+/humidity/+", this);
+    }
+
+    @Override
+    public void onDestroyView() {
+        SensorStateStore.getInstance().setListener(null);
+        DeviceRegistry.getInstance().removeListener(this);
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDestroy() {
+        TopicRouter.getInstance().unregister(this);
+        super.onDestroy();
     }
 
 
@@ -85,6 +98,8 @@ public class SensorFragment extends Fragment {
         sensorSwipeRefreshLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
             @Override
             public void onRefresh() {
+                // the devices loaded again are shown by onDevicesChanged
+                DeviceRegistry.getInstance().load();
                 getData();
                 sensorSwipeRefreshLayout.setRefreshing(false);
                 CommonUtils.showMessage(getContext(), "刷新完成");
@@ -96,6 +111,10 @@ public class SensorFragment extends Fragment {
         sensorAdapter.setEmptyView(R.layout.item_empty, (ViewGroup)sensorContainer.getParent());
         sensorAdapter.addHeaderView(inflater.inflate(R.layout.item_header, (ViewGroup)sensorContainer.getParent(), false));
         sensorContainer.addItemDecoration(new ItemDecoration(30));
+        // the rows of the values arrived are refreshed once per frame
+        SensorStateStore.getInstance().setListener(this);
+        // the devices are loaded once and shared by the screens, the rows are built again when changed
+        DeviceRegistry.getInstance().addListener(this);
 
         sensorAdapter.setOnItemLongClickListener(new BaseQuickAdapter.OnItemLongClickListener() {
             @Override
@@ -107,9 +126,8 @@ public class SensorFragment extends Fragment {
                         .onPositive(new MaterialDialog.SingleButtonCallback() {
                             @Override
                             public void onClick(@NonNull MaterialDialog dialog, @NonNull DialogAction which) {
+                                // the rows are built again by onDevicesChanged
                                 DeviceController.getInstance().deleteDevice(sensorItems.get(position).getDeviceItem().getObjectId());
-                                sensorItems.remove(position);
-                                sensorAdapter.notifyDataSetChanged();
                                 CommonUtils.showMessage(getContext(),"删除");
                             }
                         })
@@ -134,76 +152,17 @@ public class SensorFragment extends Fragment {
                 dialog.getWindow().setLayout(900,1200);
                 dialog.getWindow().setGravity(0);
                 SensorItem curr = sensorItems.get(position);
-                LineChart lineChart = (LineChart) dialog.findViewById(R.id.item_chart);
-                final List<SensorItem> list = DataController.getInstance().getRecentData(curr.getDeviceItem());
-                lineChart.setDrawBorders(false);
-                List<Entry> entries = new ArrayList<>();
-                for (int i = list.size()-1; i >=0 ; i--) {
-                    entries.add(new Entry(list.size() - i, Float.parseFloat(list.get(i).getData())));
-                }
-                LineDataSet lineDataSet = new LineDataSet(entries, "");
-                lineDataSet.setColor(R.color.colorAccent);
-                lineDataSet.setLineWidth(1.6f);
-                lineDataSet.setDrawCircles(false);
-                lineDataSet.setMode(LineDataSet.Mode.HORIZONTAL_BEZIER);
-                LineData data = new LineData(lineDataSet);
+                final LineChart lineChart = (LineChart) dialog.findViewById(R.id.item_chart);
                 lineChart.setNoDataText("暂无数据");
-                data.setDrawValues(false);
-                XAxis xAxis = lineChart.getXAxis();
-                xAxis.setPosition(XAxis.XAxisPosition.BOTTOM);
-                xAxis.setGranularity(1f);
-                xAxis.setLabelCount(list.size() / 2, false);
-                xAxis.setAxisMinimum(0f);
-                xAxis.setAxisMaximum((float) list.size());
-                xAxis.setDrawGridLines(false);
-                xAxis.setLabelRotationAngle(45);
-                xAxis.setValueFormatter(new IAxisValueFormatter() {
-                    @Override
-                    public String getFormattedValue(float value, AxisBase axis)
-                    {
-                        int IValue = (int) value;
-                        if(IValue < list.size()){
-                            CharSequence format = DateFormat.format("dd日hh时mm分", list.get(list.size()  -1 - IValue).getDate().getTime());
-                            return format.toString();
-                        }
-                        return "";
-                    }
-                });
-                YAxis yAxis = lineChart.getAxisLeft();
-                YAxis rightYAxis = lineChart.getAxisRight();
-                rightYAxis.setEnabled(false); //右侧Y轴不显示
-                yAxis.setDrawGridLines(false);
-                yAxis.setGranularity(1);
-                yAxis.setLabelCount(list.size()/3, true);
-                yAxis.setAxisMinimum(Float.parseFloat(Collections.min(list, new Comparator<SensorItem>() {
-                    @Override
-                    public int compare(SensorItem o1, SensorItem o2) {
-                        return Float.parseFloat(o1.getData()) > Float.parseFloat(o2.getData())?1:-1;
-                    }
-                }).getData())-1);
-                yAxis.setAxisMaximum(Float.parseFloat(Collections.max(list, new Comparator<SensorItem>() {
-                    @Override
-                    public int compare(SensorItem o1, SensorItem o2) {
-                        return Float.parseFloat(o1.getData()) > Float.parseFloat(o2.getData())?1:-1;
-                    }
-                }).getData())+1);
-                yAxis.setValueFormatter(new IAxisValueFormatter() {
-                    @Override
-                    public String getFormattedValue(float value, AxisBase axis)
-                    {
-                        int IValue = (int) value;
-                        return String.valueOf(IValue);
-                    }
-                });
-                Legend legend = lineChart.getLegend();
-                legend.setEnabled(false);
-                Description description = new Description();
-                description.setEnabled(false);
-                lineChart.setDescription(description);
-                ChartMarkView mv = new ChartMarkView(getContext());
-                lineChart.setMarker(mv);
-                lineChart.setData(data);
-                lineChart.invalidate();
+                // the local values are shown at once, and shown again with the values fetched
+                long now = System.currentTimeMillis();
+                DataController.getInstance().getHistory(curr.getDeviceItem(), now - CHART_RANGE, now, CHART_POINTS,
+                        new DataController.HistoryCallback() {
+                            @Override
+                            public void onHistory(SensorSeries series) {
+                                showChart(lineChart, series);
+                            }
+                        });
             }
         });
 
@@ -274,68 +233,169 @@ public class SensorFragment extends Fragment {
         return view;
     }
 
-    public void updateTopics(){
-        try {
-            MQTTController.getInstance().disConnect();
-        } catch (MqttException e) {
-            e.printStackTrace();
+    private void showChart(LineChart lineChart, final SensorSeries series) {
+        if(!isAdded())
+            return;
+        if(series.size() == 0){
+            lineChart.clear();
+            return;
+        }
+        final int size = series.size();
+        lineChart.setDrawBorders(false);
+        // the x of an entry is its index in the series, the oldest first
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(i, series.getValue(i)));
         }
-        mqttRunnable.setTopics(DeviceController.getInstance().getTopics());
-        mqttThread = new Thread(mqttRunnable);
-        mqttThread.start();
+        LineDataSet lineDataSet = new LineDataSet(entries, "");
+        lineDataSet.setColor(R.color.colorAccent);
+        lineDataSet.setLineWidth(1.6f);
+        lineDataSet.setDrawCircles(false);
+        lineDataSet.setMode(LineDataSet.Mode.HORIZONTAL_BEZIER);
+        LineData data = new LineData(lineDataSet);
+        data.setDrawValues(false);
+        XAxis xAxis = lineChart.getXAxis();
+        xAxis.setPosition(XAxis.XAxisPosition.BOTTOM);
+        xAxis.setGranularity(1f);
+        xAxis.setLabelCount(Math.min(size, CHART_LABELS), false);
+        xAxis.setAxisMinimum(0f);
+        xAxis.setAxisMaximum((float) (size - 1));
+        xAxis.setDrawGridLines(false);
+        xAxis.setLabelRotationAngle(45);
+        xAxis.setValueFormatter(new IAxisValueFormatter() {
+            // the labels are formatted once by the index
+            private final String[] labels = new String[size];
+
+            @Override
+            public String getFormattedValue(float value, AxisBase axis)
+            {
+                int IValue = (int) value;
+                if(IValue < 0 || IValue >= size)
+                    return "";
+                if(labels[IValue] == null)
+                    labels[IValue] = DateFormat.format("dd日hh时mm分", series.getTime(IValue)).toString();
+                return labels[IValue];
+            }
+        });
+        YAxis yAxis = lineChart.getAxisLeft();
+        YAxis rightYAxis = lineChart.getAxisRight();
+        rightYAxis.setEnabled(false); //右侧Y轴不显示
+        yAxis.setDrawGridLines(false);
+        yAxis.setGranularity(1);
+        yAxis.setLabelCount(CHART_LABELS, true);
+        yAxis.setAxisMinimum(series.getMin()-1);
+        yAxis.setAxisMaximum(series.getMax()+1);
+        yAxis.removeAllLimitLines();
+        LimitLine averageLine = new LimitLine(series.getAverage(), "平均 " + String.format(Locale.getDefault(), "%.1f", series.getAverage()));
+        averageLine.setLineWidth(1f);
+        averageLine.enableDashedLine(10f, 10f, 0f);
+        averageLine.setTextSize(10f);
+        yAxis.addLimitLine(averageLine);
+        yAxis.setValueFormatter(new IAxisValueFormatter() {
+            @Override
+            public String getFormattedValue(float value, AxisBase axis)
+            {
+                int IValue = (int) value;
+                return String.valueOf(IValue);
+            }
+        });
+        Legend legend = lineChart.getLegend();
+        legend.setEnabled(false);
+        Description description = new Description();
+        description.setEnabled(false);
+        lineChart.setDescription(description);
+        ChartMarkView mv = new ChartMarkView(getContext());
+        lineChart.setMarker(mv);
+        lineChart.setData(data);
+        lineChart.invalidate();
+    }
+
+    public void updateTopics(){
+        // the connection is kept, only the topics changed are subscribed or unsubscribed
+        MQTTController.getInstance().setTopics(topics, 2);
+        MQTTController.getInstance().start(MQTTController.BROKER_URL, null, null);
     }
 
     private void getData() {
-        updateTopics();
         sensorItems.clear();
+        topics.clear();
+        positionSlotMapping.clear();
         List<DeviceItem> deviceItems =  DeviceController.getInstance().getDevice(true);
         for (int i = 0; i < deviceItems.size(); i++ ){
             DeviceItem d = deviceItems.get(i);
             SensorItem s = new SensorItem();
             d.setDeviceType(CommonUtils.mappingToName(d.getDeviceType()));
             s.setDeviceItem(d);
-            s.setData("未获取到数据");
-            if(d.isSensor())
+            // the value arrived before the refresh is kept by the store
+            TopicKey topicKey = TopicKeyCache.getInstance().get(d.getTopic());
+            int slot = topicKey.getSlot();
+            if(slot >= 0 && SensorStateStore.getInstance().hasValue(slot))
+                s.setData(formatData(topicKey.getTypeCode(), SensorStateStore.getInstance().getValue(slot)));
+            else
+                s.setData("未获取到数据");
+            if(d.isSensor()){
+                positionSlotMapping.put(slot, sensorItems.size());
                 sensorItems.add(s);
-            positionTopicMapping.put(d.getTopic(), i);
+            }
             topics.add(d.getTopic());
         }
+        // the topics of the sensors loaded above, the same as DeviceController.getTopics()
+        if(!topics.isEmpty())
+            topics.add("push");
+        updateTopics();
         if(sensorAdapter!=null)
             sensorAdapter.notifyDataSetChanged();
     }
 
-    Runnable udpUIRunnable=new  Runnable(){
-        @Override
-        public void run() {
-            sensorAdapter.notifyDataSetChanged();
-        }
-    };
+    @Override
+    public void onDevicesChanged(DeviceSnapshot snapshot) {
+        getData();
+    }
 
-    @Subscribe
-    public void onEvent(MQTTDataItem message) {
-        try {
-            String topic = message.getTopic();
-            String[] parts = topic.split("/");
-            if(parts.length!=3)
-                return;
-            String connectionType = parts[0];
-            String type = parts[1];
-            String id = parts[2];
-            if(!type.equals("humidity") && !type.equals("temperature"))
+    @Override
+    public void onMessage(MQTTDataItem message) {
+        TopicKey topicKey = message.getTopicKey();
+        if(topicKey == null || topicKey.getSlot() < 0)
+            return;
+        int key;
+        switch (topicKey.getTypeCode()){
+            case TopicKey.TYPE_TEMPERATURE:
+                key = MQTTDataItem.VALUE_TEMPERATURE;
+                break;
+            case TopicKey.TYPE_HUMIDITY:
+                key = MQTTDataItem.VALUE_HUMIDITY;
+                break;
+            default:
                 return;
-            int pos = positionTopicMapping.get(topic);
-            String data = "";
+        }
+        // the payload is parsed already, the message is recycled after this call, the
+        // rows are refreshed in the UI thread by onSlotsChanged
+        if(message.hasValue(key))
+            SensorStateStore.getInstance().update(topicKey.getSlot(), message.getValue(key), System.currentTimeMillis());
+    }
 
-            JSONObject jsonObject = new JSONObject(message.getData().toString());
-            if(type.equals("temperature")){
-                data = jsonObject.getDouble("temperature")+"°C";
-            }else if(type.equals("humidity")){
-                data = jsonObject.getDouble("humidity")+"%";
-            }
-            sensorItems.get(pos).setData(data);
-            handler.post(udpUIRunnable);
-        } catch (JSONException e) {
-            e.printStackTrace();
+    @Override
+    public void onSlotsChanged(int[] slots, int count) {
+        if(sensorAdapter == null)
+            return;
+        SensorStateStore store = SensorStateStore.getInstance();
+        for (int i = 0; i < count; i++) {
+            int pos = positionSlotMapping.get(slots[i], -1);
+            if(pos < 0 || pos >= sensorItems.size())
+                continue;
+            SensorItem item = sensorItems.get(pos);
+            int typeCode = TopicKeyCache.getInstance().get(item.getDeviceItem().getTopic()).getTypeCode();
+            item.setData(formatData(typeCode, store.getValue(slots[i])));
+            // only the value of the row is bound again
+            sensorAdapter.notifyItemChanged(pos + sensorAdapter.getHeaderLayoutCount(), SensorAdapter.PAYLOAD_DATA);
         }
     }
+
+    private static String formatData(int typeCode, double value) {
+        if(typeCode == TopicKey.TYPE_TEMPERATURE)
+            return value+"°C";
+        else if(typeCode == TopicKey.TYPE_HUMIDITY)
+            return value+"%";
+        return String.valueOf(value);
+    }
 }
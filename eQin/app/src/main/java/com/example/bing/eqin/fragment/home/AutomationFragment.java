@@ -1,5 +1,6 @@
 package com.example.bing.eqin.fragment.home;
 
+import android.content.DialogInterface;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -22,15 +23,16 @@ import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.example.bing.eqin.R;
 import com.example.bing.eqin.controller.AutomationController;
-import com.example.bing.eqin.controller.DeviceController;
+import com.example.bing.eqin.controller.DeviceRegistry;
 import com.example.bing.eqin.model.AutomationItem;
 import com.example.bing.eqin.model.DeviceItem;
+import com.example.bing.eqin.model.DeviceSnapshot;
 import com.example.bing.eqin.utils.CommonUtils;
 
 import java.util.LinkedList;
 import java.util.List;
 
-public class AutomationFragment extends Fragment{
+public class AutomationFragment extends Fragment implements DeviceRegistry.Listener {
 
     private TextView tvThis, tvThat;
     private ImageView ivThis, ivThat, ivConfirm;
@@ -38,6 +40,8 @@ public class AutomationFragment extends Fragment{
     private AutomationItem automationItem;
     private final String[] limit = {""};
     private List<DeviceItem> deviceItems;
+    // the sources of the dialog shown, null if it isn't shown
+    private ArrayAdapter<String> sourceAdapter;
 
 
     @Override
@@ -61,6 +65,8 @@ public class AutomationFragment extends Fragment{
 
         ivConfirm = view.findViewById(R.id.automation_confirm);
 
+        // the sensors are loaded if they aren't, the dialog is refreshed by onDevicesChanged
+        DeviceRegistry.getInstance().addListener(this);
 
         itemThis.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -89,6 +95,21 @@ public class AutomationFragment extends Fragment{
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        DeviceRegistry.getInstance().removeListener(this);
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDevicesChanged(DeviceSnapshot snapshot) {
+        deviceItems = snapshot.getSensors();
+        if(sourceAdapter != null){
+            sourceAdapter.clear();
+            sourceAdapter.addAll(snapshot.getSensorLabels());
+        }
+    }
+
     private void showThatDialog() {
         MaterialDialog dialog = new MaterialDialog.Builder(getContext())
                 .title("操作")
@@ -114,7 +135,8 @@ public class AutomationFragment extends Fragment{
     }
 
     private void showThisDialog() {
-        deviceItems = DeviceController.getInstance().getDevice(true);
+        DeviceSnapshot snapshot = DeviceRegistry.getInstance().getSnapshot();
+        deviceItems = snapshot.getSensors();
 
         MaterialDialog dialog =  new MaterialDialog.Builder(getContext())
                 .customView(R.layout.item_automation_this, false)
@@ -133,15 +155,19 @@ public class AutomationFragment extends Fragment{
                             ivThis.setImageResource(R.drawable.humidity);
                     }
                 })
+                .dismissListener(new DialogInterface.OnDismissListener() {
+                    @Override
+                    public void onDismiss(DialogInterface dialog) {
+                        sourceAdapter = null;
+                    }
+                })
                 .show();
 
         Spinner sourceSpinner =  dialog.getCustomView().findViewById(R.id.automation_this_source);
-        final List<String> sources = new LinkedList<>();
-        for (DeviceItem deviceItem : deviceItems){
-            String deviceInfo = CommonUtils.mappingToName(deviceItem.getDeviceType())+"@"+deviceItem.getLocation();
-            sources.add(deviceInfo);
-        }
-        sourceSpinner.setAdapter(new ArrayAdapter<String>(getContext(), android.R.layout.simple_spinner_item,sources));
+        // the labels are in the order of the sensors, "type@location"
+        sourceAdapter = new ArrayAdapter<String>(getContext(), android.R.layout.simple_spinner_item,
+                new LinkedList<String>(snapshot.getSensorLabels()));
+        sourceSpinner.setAdapter(sourceAdapter);
 
         sourceSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
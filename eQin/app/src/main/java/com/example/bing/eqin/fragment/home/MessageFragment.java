@@ -28,7 +28,6 @@ import com.example.bing.eqin.model.MessageItem;
 import com.example.bing.eqin.utils.CommonUtils;
 import com.example.bing.eqin.utils.ItemDecoration;
 
-import org.greenrobot.eventbus.Subscribe;
 import org.json.JSONException;
 import org.json.JSONObject;
 
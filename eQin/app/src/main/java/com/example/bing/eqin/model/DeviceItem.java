@@ -10,6 +10,20 @@ public class DeviceItem {
     private String objectId;
     private boolean isSensor;
 
+    public DeviceItem() {
+    }
+
+    public DeviceItem(DeviceItem other) {
+        this.connectionType = other.connectionType;
+        this.deviceType = other.deviceType;
+        this.deviceId = other.deviceId;
+        this.topic = other.topic;
+        this.location = other.location;
+        this.note = other.note;
+        this.objectId = other.objectId;
+        this.isSensor = other.isSensor;
+    }
+
     public String getConnectionType() {
         return connectionType;
     }
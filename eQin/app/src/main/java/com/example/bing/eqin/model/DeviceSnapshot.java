@@ -0,0 +1,73 @@
+package com.example.bing.eqin.model;
+
+import com.example.bing.eqin.utils.CommonUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The devices of the user at a moment, split into the sensors and the controllers. It isn't
+ * changed after it is created, the devices returned are copies which could be changed by the
+ * caller.
+ */
+public class DeviceSnapshot {
+    public static final DeviceSnapshot EMPTY = new DeviceSnapshot(new ArrayList<DeviceItem>());
+
+    private final List<DeviceItem> sensors = new ArrayList<>();
+    private final List<DeviceItem> controllers = new ArrayList<>();
+    private final List<String> sensorTopics = new ArrayList<>();
+    private final List<String> sensorLabels = new ArrayList<>();
+
+    public DeviceSnapshot(List<DeviceItem> deviceItems) {
+        for (DeviceItem deviceItem : deviceItems) {
+            DeviceItem copy = new DeviceItem(deviceItem);
+            if (copy.isSensor()) {
+                sensors.add(copy);
+                sensorLabels.add(CommonUtils.mappingToName(copy.getDeviceType()) + "@" + copy.getLocation());
+                if (copy.getTopic() != null) {
+                    sensorTopics.add(copy.getTopic());
+                }
+            } else {
+                controllers.add(copy);
+            }
+        }
+        if (!sensorTopics.isEmpty()) {
+            sensorTopics.add("push");
+        }
+    }
+
+    public List<DeviceItem> getSensors() {
+        return copy(sensors);
+    }
+
+    public List<DeviceItem> getControllers() {
+        return copy(controllers);
+    }
+
+    /**
+     * The topics of the sensors and "push", empty if there isn't any sensor
+     */
+    public List<String> getSensorTopics() {
+        return Collections.unmodifiableList(sensorTopics);
+    }
+
+    /**
+     * The labels of the sensors as "type@location", in the order of {@link #getSensors()}
+     */
+    public List<String> getSensorLabels() {
+        return Collections.unmodifiableList(sensorLabels);
+    }
+
+    public int size() {
+        return sensors.size() + controllers.size();
+    }
+
+    private static List<DeviceItem> copy(List<DeviceItem> deviceItems) {
+        List<DeviceItem> copies = new ArrayList<>(deviceItems.size());
+        for (DeviceItem deviceItem : deviceItems) {
+            copies.add(new DeviceItem(deviceItem));
+        }
+        return copies;
+    }
+}
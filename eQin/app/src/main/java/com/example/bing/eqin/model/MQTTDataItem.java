@@ -1,13 +1,104 @@
 package com.example.bing.eqin.model;
 
+import com.example.bing.eqin.utils.PayloadParser;
+
+import java.nio.charset.Charset;
+
+/**
+ * The message arrived, with the raw payload and the numbers of the known keys parsed once.
+ * <p>
+ * The items are pooled, an item obtained by {@link #obtain(String, byte[])} is recycled
+ * after it is posted, so the subscribers shouldn't keep it or its payload.
+ */
 public class MQTTDataItem {
+    public static final int VALUE_TEMPERATURE = 0;
+    public static final int VALUE_HUMIDITY = 1;
+    public static final int VALUE_BR = 2;
+    public static final int VALUE_M = 3;
+    public static final int VALUE_R = 4;
+    public static final int VALUE_G = 5;
+    public static final int VALUE_B = 6;
+    // the time the values were measured, in seconds or milliseconds since the epoch, if the
+    // sensor sends it
+    public static final int VALUE_TIME = 7;
+    public static final int VALUE_COUNT = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_POOL_SIZE = 16;
+    private static final Object sPoolLock = new Object();
+    private static MQTTDataItem sPool;
+    private static int sPoolSize = 0;
+
     private String topic;
+    private TopicKey topicKey;
     private String data;
-
+    private byte[] payload;
+    // bit i is set if the value i is in the payload
+    private int valueFlags;
+    private final double[] values = new double[VALUE_COUNT];
+    private boolean retained;
+    private boolean duplicate;
+    private MQTTDataItem next;
 
     public MQTTDataItem(String topic, String data){
         this.topic = topic;
         this.data = data;
+        this.payload = data.getBytes(UTF_8);
+        PayloadParser.parse(payload, 0, payload.length, this);
+    }
+
+    private MQTTDataItem() {
+    }
+
+    /**
+     * Get an item of the interned topic from the pool, the payload isn't copied
+     */
+    public static MQTTDataItem obtain(TopicKey topicKey, byte[] payload) {
+        MQTTDataItem item = obtain(topicKey.getTopic(), payload);
+        item.topicKey = topicKey;
+        return item;
+    }
+
+    /**
+     * Get an item from the pool and parse the payload into it, the payload isn't copied
+     */
+    public static MQTTDataItem obtain(String topic, byte[] payload) {
+        MQTTDataItem item = null;
+        synchronized (sPoolLock) {
+            if (sPool != null) {
+                item = sPool;
+                sPool = item.next;
+                item.next = null;
+                sPoolSize--;
+            }
+        }
+        if (item == null) {
+            item = new MQTTDataItem();
+        }
+        item.topic = topic;
+        item.payload = payload;
+        PayloadParser.parse(payload, 0, payload.length, item);
+        return item;
+    }
+
+    /**
+     * Return the item to the pool, it mustn't be used any more
+     */
+    public void recycle() {
+        topic = null;
+        topicKey = null;
+        data = null;
+        payload = null;
+        valueFlags = 0;
+        retained = false;
+        duplicate = false;
+        synchronized (sPoolLock) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                next = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
     }
 
     public String getTopic() {
@@ -18,11 +109,67 @@ public class MQTTDataItem {
         this.topic = topic;
     }
 
+    /**
+     * Get the interned topic, null if the item isn't obtained with it
+     */
+    public TopicKey getTopicKey() {
+        return topicKey;
+    }
+
+    /**
+     * Get the payload as a string, it is decoded at the first call
+     */
     public String getData() {
+        if (data == null && payload != null) {
+            data = new String(payload, UTF_8);
+        }
         return data;
     }
 
     public void setData(String data) {
         this.data = data;
     }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Whether it is the message kept by the broker for the new subscribers, which may be old
+     */
+    public boolean isRetained() {
+        return retained;
+    }
+
+    public void setRetained(boolean retained) {
+        this.retained = retained;
+    }
+
+    /**
+     * Whether it may be delivered before, by the connection lost
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    public void setDuplicate(boolean duplicate) {
+        this.duplicate = duplicate;
+    }
+
+    public boolean hasValue(int key) {
+        return (valueFlags & (1 << key)) != 0;
+    }
+
+    public double getValue(int key) {
+        return values[key];
+    }
+
+    public void setValue(int key, double value) {
+        values[key] = value;
+        valueFlags |= 1 << key;
+    }
+
+    public void clearValues() {
+        valueFlags = 0;
+    }
 }
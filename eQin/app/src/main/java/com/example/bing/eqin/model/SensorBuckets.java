@@ -0,0 +1,57 @@
+package com.example.bing.eqin.model;
+
+/**
+ * The values of a sensor aggregated into the time buckets, in time order. The buckets without
+ * any value are left out. Only the first {@link #size()} elements of the arrays are valid.
+ */
+public class SensorBuckets {
+    public static final SensorBuckets EMPTY = new SensorBuckets(new long[0], new float[0],
+            new float[0], new double[0], new int[0], 0);
+
+    private final long[] times;
+    private final float[] mins;
+    private final float[] maxs;
+    private final double[] sums;
+    private final int[] counts;
+    private final int size;
+
+    public SensorBuckets(long[] times, float[] mins, float[] maxs, double[] sums, int[] counts, int size) {
+        this.times = times;
+        this.mins = mins;
+        this.maxs = maxs;
+        this.sums = sums;
+        this.counts = counts;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The start time of the bucket
+     */
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public float getMin(int index) {
+        return mins[index];
+    }
+
+    public float getMax(int index) {
+        return maxs[index];
+    }
+
+    public float getAverage(int index) {
+        return (float) (sums[index] / counts[index]);
+    }
+
+    public double getSum(int index) {
+        return sums[index];
+    }
+
+    public int getCount(int index) {
+        return counts[index];
+    }
+}
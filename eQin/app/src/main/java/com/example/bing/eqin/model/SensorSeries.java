@@ -0,0 +1,95 @@
+package com.example.bing.eqin.model;
+
+/**
+ * The values of a sensor in time order, kept in the primitive arrays instead of a list of
+ * {@link SensorItem}. Only the first {@link #size()} elements of the arrays are valid.
+ */
+public class SensorSeries {
+    public static final SensorSeries EMPTY = new SensorSeries(new long[0], new float[0], 0);
+
+    private final long[] times;
+    private final float[] values;
+    private final int size;
+    // computed together when any of them is needed first
+    private boolean statsComputed;
+    private float min;
+    private float max;
+    private float average;
+
+    public SensorSeries(long[] times, float[] values, int size) {
+        this.times = times;
+        this.values = values;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    public long[] getTimes() {
+        return times;
+    }
+
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * The min value, NaN if empty
+     */
+    public float getMin() {
+        computeStats();
+        return min;
+    }
+
+    /**
+     * The max value, NaN if empty
+     */
+    public float getMax() {
+        computeStats();
+        return max;
+    }
+
+    /**
+     * The average of the values, NaN if empty
+     */
+    public float getAverage() {
+        computeStats();
+        return average;
+    }
+
+    // the min, max and sum in one pass over the values
+    private void computeStats() {
+        if (statsComputed) {
+            return;
+        }
+        if (size == 0) {
+            min = max = average = Float.NaN;
+        } else {
+            float lo = values[0];
+            float hi = values[0];
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                float value = values[i];
+                if (value < lo) {
+                    lo = value;
+                } else if (value > hi) {
+                    hi = value;
+                }
+                sum += value;
+            }
+            min = lo;
+            max = hi;
+            average = (float) (sum / size);
+        }
+        statsComputed = true;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.bing.eqin.model;
+
+/**
+ * The interned topic "connectionType/deviceType/deviceId", parsed once by
+ * {@link com.example.bing.eqin.controller.TopicKeyCache} and shared by the messages of the topic.
+ */
+public final class TopicKey {
+    public static final int TYPE_UNKNOWN = 0;
+    public static final int TYPE_TEMPERATURE = 1;
+    public static final int TYPE_HUMIDITY = 2;
+    public static final int TYPE_SWITCH = 3;
+    public static final int TYPE_SLIDE = 4;
+    public static final int TYPE_COLOR = 5;
+    public static final int TYPE_PUSH = 6;
+
+    private final String topic;
+    private final String connectionType;
+    private final String deviceType;
+    private final String deviceId;
+    private final int typeCode;
+    private final int slot;
+
+    public TopicKey(String topic, String connectionType, String deviceType, String deviceId, int slot) {
+        this.topic = topic;
+        this.connectionType = connectionType;
+        this.deviceType = deviceType;
+        this.deviceId = deviceId;
+        this.typeCode = "push".equals(topic) ? TYPE_PUSH : typeCodeOf(deviceType);
+        this.slot = slot;
+    }
+
+    public static int typeCodeOf(String deviceType) {
+        if (deviceType == null) {
+            return TYPE_UNKNOWN;
+        }
+        switch (deviceType) {
+            case "temperature":
+                return TYPE_TEMPERATURE;
+            case "humidity":
+                return TYPE_HUMIDITY;
+            case "switch":
+                return TYPE_SWITCH;
+            case "slide":
+                return TYPE_SLIDE;
+            case "color":
+                return TYPE_COLOR;
+            default:
+                return TYPE_UNKNOWN;
+        }
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getConnectionType() {
+        return connectionType;
+    }
+
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    /**
+     * The index of the device, from 0 and never changed once assigned, -1 if the topic
+     * isn't of a device
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isSensor() {
+        return typeCode == TYPE_TEMPERATURE || typeCode == TYPE_HUMIDITY;
+    }
+
+    @Override
+    public String toString() {
+        return topic;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.bing.eqin.utils;
+
+import com.example.bing.eqin.model.SensorBuckets;
+import com.example.bing.eqin.model.SensorSeries;
+
+import java.util.Arrays;
+
+/**
+ * Reduce the values of a long range to the points to be drawn, by Largest-Triangle-Three-Buckets
+ * which keeps the shape of the line, or by the min, max and average of the fixed time buckets.
+ */
+public class Downsampler {
+
+    /**
+     * Select the points by Largest-Triangle-Three-Buckets, the first and the last points are
+     * always selected
+     *
+     * @param threshold the count of the points selected
+     */
+    public static SensorSeries lttb(SensorSeries series, int threshold) {
+        int size = series.size();
+        if (threshold >= size || threshold < 3) {
+            return series;
+        }
+        long[] times = series.getTimes();
+        float[] values = series.getValues();
+        long[] sampledTimes = new long[threshold];
+        float[] sampledValues = new float[threshold];
+        long base = times[0];
+        // the points except the first and the last are split into threshold - 2 buckets
+        double every = (double) (size - 2) / (threshold - 2);
+        int a = 0;
+        sampledTimes[0] = times[0];
+        sampledValues[0] = values[0];
+        for (int i = 0; i < threshold - 2; i++) {
+            // the average point of the next bucket
+            int avgStart = (int) ((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) ((i + 2) * every) + 1, size);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += times[j] - base;
+                avgY += values[j];
+            }
+            avgX /= avgEnd - avgStart;
+            avgY /= avgEnd - avgStart;
+
+            // the point of this bucket making the largest triangle with the point selected
+            // last and the average point
+            int rangeStart = (int) (i * every) + 1;
+            int rangeEnd = (int) ((i + 1) * every) + 1;
+            double ax = times[a] - base;
+            double ay = values[a];
+            double maxArea = -1;
+            int selected = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((ax - avgX) * (values[j] - ay) - (ax - (times[j] - base)) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    selected = j;
+                }
+            }
+            sampledTimes[i + 1] = times[selected];
+            sampledValues[i + 1] = values[selected];
+            a = selected;
+        }
+        sampledTimes[threshold - 1] = times[size - 1];
+        sampledValues[threshold - 1] = values[size - 1];
+        return new SensorSeries(sampledTimes, sampledValues, threshold);
+    }
+
+    /**
+     * Aggregate the values into the buckets of the width from the time, the values out of the
+     * buckets are put into the first or the last one
+     */
+    public static SensorBuckets aggregate(SensorSeries series, long from, long width, int bucketCount) {
+        Aggregator aggregator = new Aggregator(from, width, bucketCount);
+        for (int i = 0; i < series.size(); i++) {
+            float value = series.getValue(i);
+            aggregator.add(series.getTime(i), 1, value, value, value);
+        }
+        return aggregator.result();
+    }
+
+    /**
+     * Aggregate the buckets of a finer resolution, e.g. the rollups of every minute, into the
+     * buckets of the width from the time
+     */
+    public static SensorBuckets aggregate(SensorBuckets buckets, long from, long width, int bucketCount) {
+        Aggregator aggregator = new Aggregator(from, width, bucketCount);
+        for (int i = 0; i < buckets.size(); i++) {
+            aggregator.add(buckets.getTime(i), buckets.getCount(i), buckets.getMin(i),
+                    buckets.getMax(i), buckets.getSum(i));
+        }
+        return aggregator.result();
+    }
+
+    /**
+     * The average of every bucket at the middle of the bucket, as a line to be downsampled
+     */
+    public static SensorSeries averages(SensorBuckets buckets, long width) {
+        long[] times = new long[buckets.size()];
+        float[] values = new float[buckets.size()];
+        for (int i = 0; i < buckets.size(); i++) {
+            times[i] = buckets.getTime(i) + width / 2;
+            values[i] = buckets.getAverage(i);
+        }
+        return new SensorSeries(times, values, buckets.size());
+    }
+
+    private static class Aggregator {
+        private final long mFrom;
+        private final long mWidth;
+        private final int[] mCounts;
+        private final float[] mMins;
+        private final float[] mMaxs;
+        private final double[] mSums;
+
+        private Aggregator(long from, long width, int bucketCount) {
+            mFrom = from;
+            mWidth = width;
+            mCounts = new int[bucketCount];
+            mMins = new float[bucketCount];
+            mMaxs = new float[bucketCount];
+            mSums = new double[bucketCount];
+            Arrays.fill(mMins, Float.POSITIVE_INFINITY);
+            Arrays.fill(mMaxs, Float.NEGATIVE_INFINITY);
+        }
+
+        private void add(long time, int count, float min, float max, double sum) {
+            long bucket = time < mFrom ? 0 : (time - mFrom) / mWidth;
+            int index = (int) Math.min(bucket, mCounts.length - 1);
+            mCounts[index] += count;
+            mMins[index] = Math.min(mMins[index], min);
+            mMaxs[index] = Math.max(mMaxs[index], max);
+            mSums[index] += sum;
+        }
+
+        // the buckets without any value are left out
+        private SensorBuckets result() {
+            int size = 0;
+            for (int count : mCounts) {
+                if (count > 0) {
+                    size++;
+                }
+            }
+            long[] times = new long[size];
+            float[] mins = new float[size];
+            float[] maxs = new float[size];
+            double[] sums = new double[size];
+            int[] counts = new int[size];
+            int j = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                if (mCounts[i] > 0) {
+                    times[j] = mFrom + i * mWidth;
+                    mins[j] = mMins[i];
+                    maxs[j] = mMaxs[i];
+                    sums[j] = mSums[i];
+                    counts[j] = mCounts[i];
+                    j++;
+                }
+            }
+            return new SensorBuckets(times, mins, maxs, sums, counts, size);
+        }
+    }
+}
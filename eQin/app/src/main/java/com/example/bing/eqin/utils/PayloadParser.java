@@ -0,0 +1,208 @@
+package com.example.bing.eqin.utils;
+
+import com.example.bing.eqin.model.MQTTDataItem;
+
+import java.nio.charset.Charset;
+
+/**
+ * Extract the numbers of the known keys from the JSON payload in one pass, without decoding
+ * the payload into a String or building a JSONObject. The keys are matched at any depth, the
+ * other keys and values are skipped. A number in a string, e.g. "23.5", is accepted for a
+ * known key as JSONObject.getDouble() does.
+ */
+public class PayloadParser {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    // the keys of MQTTDataItem.VALUE_*
+    private static final byte[][] KEYS = new byte[MQTTDataItem.VALUE_COUNT][];
+
+    static {
+        KEYS[MQTTDataItem.VALUE_TEMPERATURE] = ascii("temperature");
+        KEYS[MQTTDataItem.VALUE_HUMIDITY] = ascii("humidity");
+        KEYS[MQTTDataItem.VALUE_BR] = ascii("br");
+        KEYS[MQTTDataItem.VALUE_M] = ascii("m");
+        KEYS[MQTTDataItem.VALUE_R] = ascii("r");
+        KEYS[MQTTDataItem.VALUE_G] = ascii("g");
+        KEYS[MQTTDataItem.VALUE_B] = ascii("b");
+        KEYS[MQTTDataItem.VALUE_TIME] = ascii("time");
+    }
+
+    // 10^i is exact in double for i <= 22
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Parse the payload into the item, the values of the item are cleared first
+     *
+     * @return the count of the values parsed
+     */
+    public static int parse(byte[] payload, int offset, int len, MQTTDataItem item) {
+        item.clearValues();
+        int count = 0;
+        int end = offset + len;
+        // the key whose value is expected, -1 if it isn't a known key
+        int key = -1;
+        int i = offset;
+        while (i < end) {
+            byte c = payload[i];
+            if (c == '"') {
+                int start = i + 1;
+                i = skipString(payload, start, end);
+                int j = skipWhitespace(payload, i, end);
+                if (j < end && payload[j] == ':') {
+                    key = findKey(payload, start, i - 1);
+                    i = j + 1;
+                } else {
+                    if (key >= 0) {
+                        double value = parseString(payload, start, i - 1);
+                        if (!Double.isNaN(value)) {
+                            item.setValue(key, value);
+                            count++;
+                        }
+                    }
+                    key = -1;
+                }
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                int numberEnd = skipNumber(payload, i, end);
+                if (key >= 0) {
+                    double value = parseNumber(payload, i, numberEnd);
+                    if (!Double.isNaN(value)) {
+                        item.setValue(key, value);
+                        count++;
+                    }
+                }
+                key = -1;
+                i = numberEnd;
+            } else {
+                if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                    // a value other than the number, or the start of an object or array
+                    key = -1;
+                }
+                i++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+
+    // return the index after the closing quote
+    private static int skipString(byte[] payload, int i, int end) {
+        while (i < end) {
+            byte c = payload[i++];
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int skipWhitespace(byte[] payload, int i, int end) {
+        while (i < end) {
+            byte c = payload[i];
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipNumber(byte[] payload, int i, int end) {
+        while (i < end) {
+            byte c = payload[i];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    // the key between start and end (exclusive), -1 if it isn't known
+    private static int findKey(byte[] payload, int start, int end) {
+        int len = end - start;
+        for (int k = 0; k < KEYS.length; k++) {
+            byte[] key = KEYS[k];
+            if (key.length != len) {
+                continue;
+            }
+            int i = 0;
+            while (i < len && payload[start + i] == key[i]) {
+                i++;
+            }
+            if (i == len) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    // the number in the string between start and end (exclusive), NaN if it isn't a number
+    private static double parseString(byte[] payload, int start, int end) {
+        try {
+            // the whitespace around is trimmed by it
+            return Double.parseDouble(new String(payload, start, Math.max(0, end - start), US_ASCII));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // NaN if it isn't a valid number
+    private static double parseNumber(byte[] payload, int start, int end) {
+        int i = start;
+        boolean negative = payload[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        int digitsStart = i;
+        for (; i < end; i++) {
+            byte c = payload[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (fraction) {
+                    scale++;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (i == digitsStart || (i == digitsStart + 1 && fraction)) {
+            return Double.NaN;
+        }
+        if (i < end || digits > 15 || scale >= POWERS_OF_TEN.length) {
+            // the exponent or too many digits, the division below may not be exact
+            try {
+                return Double.parseDouble(new String(payload, start, end - start, US_ASCII));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        // both of the mantissa and the power are exact, so the quotient is correctly rounded
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+}
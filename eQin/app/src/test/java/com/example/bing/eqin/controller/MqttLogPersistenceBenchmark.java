@@ -0,0 +1,105 @@
+package com.example.bing.eqin.controller;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Compare {@link MqttLogPersistence} with {@code MqttDefaultFilePersistence} on the JVM.
+ * <p>
+ * Without arguments, the persistence calls of a QoS 2 publish are replayed without a broker:
+ * the PUBLISH and the PUBREL are put, then both are removed on the PUBCOMP. Run it with the
+ * URL of a broker, e.g. "tcp://127.0.0.1:1883", to measure the time from publishing a QoS 2
+ * message to its PUBCOMP instead, one message at a time.
+ */
+public class MqttLogPersistenceBenchmark {
+
+    private static final int WARM_UP_COUNT = 200;
+    private static final int COUNT = 2000;
+    private static final byte[] PAYLOAD = "{\"r\":255,\"g\":128,\"b\":0}".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "MqttLogPersistenceBenchmark");
+        String brokerUrl = args.length > 0 ? args[0] : null;
+        for (int i = 0; i < 2; i++) {
+            // the first round warms up
+            int count = i == 0 ? WARM_UP_COUNT : COUNT;
+            long[] log = run(new MqttLogPersistence(new File(dir, "log")), brokerUrl, count);
+            long[] file = run(new MqttDefaultFilePersistence(new File(dir, "file").getPath()), brokerUrl, count);
+            if (i > 0) {
+                print("MqttLogPersistence", log);
+                print("MqttDefaultFilePersistence", file);
+            }
+        }
+    }
+
+    /**
+     * @return the latencies of the messages in nanoseconds, sorted
+     */
+    public static long[] run(MqttClientPersistence persistence, String brokerUrl, int count)
+            throws MqttException {
+        long[] latencies = brokerUrl == null ? replay(persistence, count) : publish(persistence, brokerUrl, count);
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long[] replay(MqttClientPersistence persistence, int count) throws MqttException {
+        persistence.open("benchmark", "tcp://127.0.0.1:1883");
+        persistence.clear();
+        byte[] header = {0x34, 0, 0, 0};
+        byte[] pubrel = {0x62, 0x02, 0, 0};
+        long[] latencies = new long[count];
+        for (int i = 0; i < count; i++) {
+            int id = i % 65535 + 1;
+            long start = System.nanoTime();
+            persistence.put("s-" + id, new MqttPersistentData("s-" + id, header, 0, header.length,
+                    PAYLOAD, 0, PAYLOAD.length));
+            persistence.put("sc-" + id, new MqttPersistentData("sc-" + id, pubrel, 0, pubrel.length,
+                    null, 0, 0));
+            persistence.remove("s-" + id);
+            persistence.remove("sc-" + id);
+            latencies[i] = System.nanoTime() - start;
+        }
+        persistence.close();
+        return latencies;
+    }
+
+    private static long[] publish(MqttClientPersistence persistence, String brokerUrl, int count)
+            throws MqttException {
+        MqttAsyncClient client = new MqttAsyncClient(brokerUrl, "benchmark", persistence);
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
+        options.setCleanSession(true);
+        client.connect(options).waitForCompletion();
+        long[] latencies = new long[count];
+        for (int i = 0; i < count; i++) {
+            MqttMessage message = new MqttMessage(PAYLOAD);
+            message.setQos(2);
+            long start = System.nanoTime();
+            IMqttDeliveryToken token = client.publish("benchmark/qos2", message);
+            token.waitForCompletion();
+            latencies[i] = System.nanoTime() - start;
+        }
+        client.disconnect().waitForCompletion();
+        client.close();
+        return latencies;
+    }
+
+    private static void print(String name, long[] latencies) {
+        System.out.println(String.format("%-26s p50 %8.1fus  p99 %8.1fus  max %9.1fus", name,
+                percentile(latencies, 0.5) / 1000.0, percentile(latencies, 0.99) / 1000.0,
+                latencies[latencies.length - 1] / 1000.0));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+}
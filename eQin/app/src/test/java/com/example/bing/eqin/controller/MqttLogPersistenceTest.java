@@ -0,0 +1,244 @@
+package com.example.bing.eqin.controller;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MqttLogPersistenceTest {
+    private static final String CLIENT_ID = "client";
+    private static final String SERVER_URI = "tcp://127.0.0.1:1883";
+    private static final long SEGMENT_SIZE = 256;
+
+    private File mRootDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mRootDir = File.createTempFile("MqttLogPersistenceTest", "");
+        mRootDir.delete();
+        mRootDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mRootDir);
+    }
+
+    @Test
+    public void reopen_afterCrash_keepsMessages() throws Exception {
+        MqttLogPersistence persistence = open();
+        put(persistence, "s-1", "header1", "payload1");
+        put(persistence, "s-2", "header2", null);
+        put(persistence, "s-1", "header1b", "payload1b");
+        persistence.remove("s-2");
+        // not closed, as the process is killed
+
+        MqttLogPersistence reopened = open();
+        assertEquals(Collections.singletonList("s-1"), keys(reopened));
+        assertMessage(reopened, "s-1", "header1b", "payload1b");
+        reopened.close();
+    }
+
+    @Test
+    public void reopen_truncatesTornRecord() throws Exception {
+        MqttLogPersistence persistence = open();
+        put(persistence, "s-1", "header1", "payload1");
+        persistence.close();
+        File segment = segments()[0];
+        long validLen = segment.length();
+        // a record whose length is written but the rest isn't
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(validLen);
+        file.writeInt(100);
+        file.write(new byte[]{1, 0, 3});
+        file.close();
+
+        MqttLogPersistence reopened = open();
+        assertEquals(validLen, segment.length());
+        assertMessage(reopened, "s-1", "header1", "payload1");
+        // the records appended after the truncation are read again
+        put(reopened, "s-2", "header2", "payload2");
+        reopened.close();
+        MqttLogPersistence again = open();
+        assertEquals(2, keys(again).size());
+        assertMessage(again, "s-2", "header2", "payload2");
+        again.close();
+    }
+
+    @Test
+    public void reopen_stopsAtCorruptedRecord() throws Exception {
+        MqttLogPersistence persistence = open();
+        put(persistence, "s-1", "header1", "payload1");
+        put(persistence, "s-2", "header2", "payload2");
+        persistence.close();
+        File segment = segments()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(segment.length() - 6);
+        file.write(0x7f);
+        file.close();
+
+        MqttLogPersistence reopened = open();
+        assertEquals(Collections.singletonList("s-1"), keys(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void remove_spanningSegments() throws Exception {
+        MqttLogPersistence persistence = open();
+        put(persistence, "s-0", "header0", "payload0");
+        for (int i = 1; i <= 10; i++) {
+            put(persistence, "s-" + i, "header" + i, "payload of the message " + i);
+        }
+        assertTrue(persistence.getSegmentCount() > 1);
+        // the put is in the first segment and the remove in the last one
+        persistence.remove("s-0");
+        assertEquals(0, persistence.getCompactionCount());
+        persistence.close();
+
+        MqttLogPersistence reopened = open();
+        assertFalse(reopened.containsKey("s-0"));
+        assertEquals(10, keys(reopened).size());
+        for (int i = 1; i <= 10; i++) {
+            assertMessage(reopened, "s-" + i, "header" + i, "payload of the message " + i);
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void compact_keepsLiveMessages() throws Exception {
+        MqttLogPersistence persistence = open();
+        for (int i = 0; i < 20; i++) {
+            put(persistence, "s-" + i, "header" + i, "payload of the message " + i);
+        }
+        int segmentCount = persistence.getSegmentCount();
+        assertTrue(segmentCount > 1);
+        for (int i = 0; i < 18; i++) {
+            persistence.remove("s-" + i);
+        }
+        assertTrue(persistence.getCompactionCount() > 0);
+        assertTrue(persistence.getSegmentCount() < segmentCount);
+        assertEquals(persistence.getSegmentCount(), segments().length);
+        assertMessage(persistence, "s-18", "header18", "payload of the message 18");
+        assertMessage(persistence, "s-19", "header19", "payload of the message 19");
+        persistence.close();
+
+        MqttLogPersistence reopened = open();
+        assertEquals(2, keys(reopened).size());
+        assertMessage(reopened, "s-18", "header18", "payload of the message 18");
+        assertMessage(reopened, "s-19", "header19", "payload of the message 19");
+        reopened.close();
+    }
+
+    @Test
+    public void reset_whenNothingLeft() throws Exception {
+        MqttLogPersistence persistence = open();
+        for (int i = 0; i < 5; i++) {
+            put(persistence, "s-" + i, "header" + i, "payload of the message " + i);
+        }
+        // a large message keeps the live bytes above a quarter, so nothing is compacted before
+        char[] large = new char[300];
+        Arrays.fill(large, 'x');
+        put(persistence, "s-5", "header5", new String(large));
+        assertTrue(persistence.getSegmentCount() > 1);
+        for (int i = 0; i <= 5; i++) {
+            persistence.remove("s-" + i);
+        }
+        assertEquals(0, persistence.getCompactionCount());
+        assertEquals(1, persistence.getSegmentCount());
+        assertEquals(1, segments().length);
+        assertEquals(0, segments()[0].length());
+        persistence.close();
+
+        MqttLogPersistence reopened = open();
+        assertTrue(keys(reopened).isEmpty());
+        put(reopened, "s-1", "header1", "payload1");
+        assertMessage(reopened, "s-1", "header1", "payload1");
+        reopened.close();
+    }
+
+    @Test
+    public void clear_removesAll() throws Exception {
+        MqttLogPersistence persistence = open();
+        put(persistence, "s-1", "header1", "payload1");
+        put(persistence, "s-2", "header2", "payload2");
+        persistence.clear();
+        assertTrue(keys(persistence).isEmpty());
+        assertNull(persistence.get("s-1"));
+        persistence.close();
+
+        MqttLogPersistence reopened = open();
+        assertTrue(keys(reopened).isEmpty());
+        reopened.close();
+    }
+
+    @Test(expected = MqttPersistenceException.class)
+    public void open_twice_fails() throws Exception {
+        MqttLogPersistence persistence = open();
+        persistence.open(CLIENT_ID, SERVER_URI);
+    }
+
+    private MqttLogPersistence open() throws MqttPersistenceException {
+        MqttLogPersistence persistence = new MqttLogPersistence(mRootDir, SEGMENT_SIZE);
+        persistence.open(CLIENT_ID, SERVER_URI);
+        return persistence;
+    }
+
+    private File[] segments() {
+        File[] dirs = mRootDir.listFiles();
+        assertEquals(1, dirs.length);
+        File[] segments = dirs[0].listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static void put(MqttLogPersistence persistence, String key, String header, String payload)
+            throws MqttPersistenceException {
+        byte[] headerBytes = header.getBytes();
+        byte[] payloadBytes = payload == null ? null : payload.getBytes();
+        persistence.put(key, new MqttPersistentData(key, headerBytes, 0, headerBytes.length,
+                payloadBytes, 0, payloadBytes == null ? 0 : payloadBytes.length));
+    }
+
+    private static void assertMessage(MqttLogPersistence persistence, String key, String header, String payload)
+            throws MqttPersistenceException {
+        MqttPersistable persistable = persistence.get(key);
+        assertArrayEquals(header.getBytes(), persistable.getHeaderBytes());
+        assertArrayEquals(payload.getBytes(), persistable.getPayloadBytes());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> keys(MqttLogPersistence persistence) throws MqttPersistenceException {
+        return Collections.list(persistence.keys());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.bing.eqin.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measure the latency of {@link MqttOutbox#enqueue(String, int, byte[], boolean)} on the JVM,
+ * no device or broker is needed.
+ * <p>
+ * The commands of the controller page are enqueued with the syncs batched by the default
+ * interval, and with a sync on every enqueue, the latter is the cost of a durable queue
+ * without batching. The paced run enqueues one command per {@link #PACE_NANOS} as a user
+ * does, so the syncs happen while enqueuing, its tail shows whether the enqueues wait for
+ * the force. The last run enqueues the collapsible commands of a few topics, the outbox keeps
+ * one command per topic however many are enqueued.
+ */
+public class MqttOutboxBenchmark {
+
+    private static final int WARM_UP_COUNT = 20000;
+    private static final int COUNT = 100000;
+    private static final int SYNC_EVERY_COUNT = 2000;
+    private static final int PACED_COUNT = 20000;
+    private static final long PACE_NANOS = 200 * 1000;
+    private static final String[] TOPICS = {"wifi/color/1", "wifi/switch/1", "wifi/slide/1"};
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "MqttOutboxBenchmark");
+        dir.mkdirs();
+        run(new File(dir, "warmup"), WARM_UP_COUNT, 100, false, 0);
+        print("batched sync", run(new File(dir, "batched"), COUNT, 100, false, 0));
+        print("batched sync, paced", run(new File(dir, "paced"), PACED_COUNT, 100, false, PACE_NANOS));
+        print("sync every enqueue", run(new File(dir, "sync"), SYNC_EVERY_COUNT, 0, false, 0));
+        print("batched sync, collapsible", run(new File(dir, "collapsible"), COUNT, 100, true, 0));
+    }
+
+    /**
+     * Enqueue and drain the messages, the outbox is drained at half of its capacity
+     *
+     * @param pace the nanoseconds between the starts of the enqueues, 0 to enqueue back to back
+     * @return the latencies of the enqueues in nanoseconds, sorted
+     */
+    public static long[] run(File file, int count, long syncInterval, boolean collapsible,
+                             long pace) throws IOException {
+        file.delete();
+        MqttOutbox outbox = new MqttOutbox(file);
+        outbox.setSyncInterval(syncInterval);
+        long[] latencies = new long[count];
+        int maxSize = 0;
+        long next = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            next += pace;
+            while (System.nanoTime() < next) {
+                // spin, a sleep is too coarse for the pace
+            }
+            String topic = TOPICS[i % TOPICS.length];
+            byte[] payload = ("{\"r\":" + (i & 0xff) + ",\"g\":" + (i >> 8 & 0xff) + ",\"b\":0}").getBytes();
+            long start = System.nanoTime();
+            if (!outbox.enqueue(topic, 2, payload, collapsible)) {
+                throw new IllegalStateException("outbox is full at " + i);
+            }
+            latencies[i] = System.nanoTime() - start;
+            maxSize = Math.max(maxSize, outbox.size());
+            if (outbox.size() == 4096) {
+                drain(outbox);
+            }
+        }
+        System.out.println("max size " + maxSize + ", syncs " + outbox.getSyncCount()
+                + ", collapsed " + outbox.getCollapsedCount());
+        drain(outbox);
+        outbox.close();
+        file.delete();
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void drain(MqttOutbox outbox) {
+        MqttOutbox.Message message;
+        while ((message = outbox.peek()) != null) {
+            outbox.remove(message);
+        }
+    }
+
+    private static void print(String name, long[] latencies) {
+        // the tail is what the UI thread feels, a force under the lock shows up there only
+        System.out.println(String.format("%-26s p50 %8.2fus  p99 %8.2fus  p99.9 %8.2fus  max %9.2fus",
+                name, percentile(latencies, 0.5) / 1000.0, percentile(latencies, 0.99) / 1000.0,
+                percentile(latencies, 0.999) / 1000.0, latencies[latencies.length - 1] / 1000.0));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+}
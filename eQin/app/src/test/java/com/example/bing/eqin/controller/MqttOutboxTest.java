@@ -0,0 +1,119 @@
+package com.example.bing.eqin.controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MqttOutboxTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("MqttOutboxTest", ".queue");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    // the crc written by enqueue() is checked by the load of the reopened outbox
+    @Test
+    public void reopen_keepsPendingMessages() throws IOException {
+        Random random = new Random(1);
+        String[] topics = new String[50];
+        byte[][] payloads = new byte[50][];
+        MqttOutbox outbox = new MqttOutbox(mFile);
+        for (int i = 0; i < topics.length; i++) {
+            // a topic longer than 255 bytes now and then, so both bytes of its length count
+            char[] topic = new char[1 + random.nextInt(i % 10 == 0 ? 600 : 30)];
+            Arrays.fill(topic, (char) ('a' + i % 26));
+            topics[i] = new String(topic);
+            payloads[i] = new byte[random.nextInt(i % 7 == 0 ? 1 : 300)];
+            random.nextBytes(payloads[i]);
+            assertTrue(outbox.enqueue(topics[i], i % 3, payloads[i], false));
+        }
+        outbox.sync();
+        outbox.close();
+
+        MqttOutbox reopened = new MqttOutbox(mFile);
+        assertEquals(topics.length, reopened.size());
+        for (int i = 0; i < topics.length; i++) {
+            MqttOutbox.Message message = reopened.peek();
+            assertEquals(topics[i], message.getTopic());
+            assertEquals(i % 3, message.getQos());
+            assertArrayEquals(payloads[i], message.getPayload());
+            reopened.remove(message);
+        }
+        assertNull(reopened.peek());
+        reopened.close();
+    }
+
+    @Test
+    public void reopen_keepsTheLastCollapsible() throws IOException {
+        MqttOutbox outbox = new MqttOutbox(mFile);
+        outbox.enqueue("wifi/color/1", 2, "{\"r\":1}".getBytes(), true);
+        outbox.enqueue("wifi/switch/1", 2, "on".getBytes(), false);
+        outbox.enqueue("wifi/color/1", 2, "{\"r\":2}".getBytes(), true);
+        outbox.sync();
+        outbox.close();
+
+        MqttOutbox reopened = new MqttOutbox(mFile);
+        assertEquals(2, reopened.size());
+        MqttOutbox.Message message = reopened.peek();
+        assertEquals("wifi/switch/1", message.getTopic());
+        reopened.remove(message);
+        message = reopened.peek();
+        assertEquals("wifi/color/1", message.getTopic());
+        assertTrue(message.isCollapsible());
+        assertArrayEquals("{\"r\":2}".getBytes(), message.getPayload());
+        reopened.close();
+    }
+
+    @Test
+    public void reopen_dropsCorruptedRecordAndAfter() throws IOException {
+        MqttOutbox outbox = new MqttOutbox(mFile);
+        outbox.enqueue("wifi/switch/1", 2, "first".getBytes(), false);
+        outbox.enqueue("wifi/switch/2", 2, "second".getBytes(), false);
+        outbox.enqueue("wifi/switch/3", 2, "third".getBytes(), false);
+        outbox.sync();
+        outbox.close();
+        corrupt("second".getBytes());
+
+        MqttOutbox reopened = new MqttOutbox(mFile);
+        assertEquals(1, reopened.size());
+        assertEquals("wifi/switch/1", reopened.peek().getTopic());
+        reopened.close();
+    }
+
+    // flip a bit of the first occurrence of the bytes in the file
+    private void corrupt(byte[] bytes) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            for (int i = 0; i + bytes.length <= content.length; i++) {
+                if (Arrays.equals(bytes, Arrays.copyOfRange(content, i, i + bytes.length))) {
+                    file.seek(i);
+                    file.write(content[i] ^ 1);
+                    return;
+                }
+            }
+            throw new AssertionError("not found");
+        } finally {
+            file.close();
+        }
+    }
+}
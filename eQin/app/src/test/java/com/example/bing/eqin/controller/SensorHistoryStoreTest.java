@@ -0,0 +1,214 @@
+package com.example.bing.eqin.controller;
+
+import com.example.bing.eqin.model.SensorBuckets;
+import com.example.bing.eqin.model.SensorSeries;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SensorHistoryStoreTest {
+    private static final String TOPIC = "wifi/temperature/1";
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long INTERVAL = 10 * SECOND;
+    // more than 3 chunks of 256 values
+    private static final int COUNT = 1000;
+
+    private File mDir;
+    private SensorHistoryStore mStore;
+    // the time of the first value, a minute before it is the start of a range with all values
+    private long mBase;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("SensorHistoryStoreTest", "");
+        mDir.delete();
+        mStore = open();
+        mBase = (System.currentTimeMillis() - 4 * HOUR) / MINUTE * MINUTE + MINUTE;
+    }
+
+    @After
+    public void tearDown() {
+        mStore.close();
+        delete(mDir);
+    }
+
+    @Test
+    public void query_acrossChunks() {
+        appendRange(0, COUNT);
+        assertSeries(mStore.query(TOPIC, mBase - MINUTE, time(COUNT)), 0, COUNT);
+        // the values of the second and the third chunks
+        assertSeries(mStore.query(TOPIC, time(250), time(520)), 250, 521);
+        assertEquals(0, mStore.query(TOPIC, time(COUNT), time(COUNT + 10)).size());
+    }
+
+    @Test
+    public void reopen_afterFlush() {
+        appendRange(0, COUNT);
+        mStore.flush();
+        reopen();
+        assertSeries(mStore.query(TOPIC, mBase - MINUTE, time(COUNT)), 0, COUNT);
+        assertRollupCount(COUNT);
+
+        // appended after the values loaded
+        appendRange(COUNT, COUNT + 10);
+        reopen();
+        assertSeries(mStore.query(TOPIC, mBase - MINUTE, time(COUNT + 10)), 0, COUNT + 10);
+        assertRollupCount(COUNT + 10);
+    }
+
+    @Test
+    public void reopen_dropsTornChunk() throws IOException {
+        appendRange(0, COUNT);
+        mStore.close();
+        File file = new File(mDir, "wifi%2Ftemperature%2F1.ts");
+        RandomAccessFile torn = new RandomAccessFile(file, "rw");
+        torn.setLength(torn.length() - 10);
+        torn.close();
+
+        mStore = open();
+        // the last chunk of 1000 - 3 * 256 values is lost
+        assertSeries(mStore.query(TOPIC, mBase - MINUTE, time(COUNT)), 0, 768);
+        // the buckets of the values lost are built again from the values kept
+        assertRollupCount(768);
+        appendRange(768, COUNT);
+        reopen();
+        assertSeries(mStore.query(TOPIC, mBase - MINUTE, time(COUNT)), 0, COUNT);
+        assertRollupCount(COUNT);
+    }
+
+    @Test
+    public void insert_backfillIsSorted() {
+        appendRange(100, 400);
+        appendRange(600, 700);
+        // a gap between the values appended and a range older than them
+        insertRange(400, 600);
+        insertRange(0, 100);
+        assertSeries(mStore.query(TOPIC, mBase - MINUTE, time(700)), 0, 700);
+        assertRollupCount(700);
+
+        reopen();
+        assertSeries(mStore.query(TOPIC, mBase - MINUTE, time(700)), 0, 700);
+        assertRollupCount(700);
+    }
+
+    @Test
+    public void insert_writesEveryBucketOnce() {
+        appendRange(300, 400);
+        reopen();
+        // the load writes the last bucket again
+        assertRollupCount(100);
+        File file = new File(mDir, "wifi%2Ftemperature%2F1.1m");
+        long length = file.length();
+
+        // 300 values of 50 minutes older than the buckets
+        insertRange(0, 300);
+        mStore.close();
+        // the buckets of the values, and the last bucket written by the flush
+        assertEquals(length + (50 + 1) * 28, file.length());
+        mStore = open();
+        assertRollupCount(400);
+    }
+
+    @Test
+    public void findGaps_byCadence() {
+        appendRange(0, 60);
+        // 5 minutes missed
+        appendRange(90, 150);
+        List<long[]> gaps = mStore.findGaps(TOPIC, time(0), time(149) + 10 * MINUTE, MINUTE);
+        assertEquals(2, gaps.size());
+        assertArrayEquals(new long[]{time(59), time(90)}, gaps.get(0));
+        assertArrayEquals(new long[]{time(149), time(149) + 10 * MINUTE}, gaps.get(1));
+
+        // a sensor reporting every 10 minutes has no gap between its values
+        String sparse = "wifi/humidity/1";
+        for (int i = 0; i < 10; i++) {
+            mStore.append(sparse, mBase + i * 10 * MINUTE, i);
+        }
+        assertTrue(mStore.findGaps(sparse, mBase, mBase + 90 * MINUTE, MINUTE).isEmpty());
+        gaps = mStore.findGaps(sparse, mBase, mBase + 3 * HOUR, MINUTE);
+        assertEquals(1, gaps.size());
+        assertArrayEquals(new long[]{mBase + 90 * MINUTE, mBase + 3 * HOUR}, gaps.get(0));
+    }
+
+    @Test
+    public void findGaps_noValues() {
+        List<long[]> gaps = mStore.findGaps(TOPIC, mBase, mBase + HOUR, MINUTE);
+        assertEquals(1, gaps.size());
+        assertArrayEquals(new long[]{mBase, mBase + HOUR}, gaps.get(0));
+    }
+
+    private SensorHistoryStore open() {
+        SensorHistoryStore store = new SensorHistoryStore();
+        store.open(mDir);
+        return store;
+    }
+
+    private void reopen() {
+        mStore.close();
+        mStore = open();
+    }
+
+    private long time(int i) {
+        return mBase + i * INTERVAL;
+    }
+
+    private static float value(int i) {
+        return 20 + (i % 50) * 0.1f;
+    }
+
+    private void appendRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            mStore.append(TOPIC, time(i), value(i));
+        }
+    }
+
+    private void insertRange(int from, int to) {
+        long[] times = new long[to - from];
+        float[] values = new float[to - from];
+        for (int i = from; i < to; i++) {
+            times[i - from] = time(i);
+            values[i - from] = value(i);
+        }
+        mStore.insert(TOPIC, times, values, times.length);
+    }
+
+    private void assertSeries(SensorSeries series, int from, int to) {
+        assertEquals(to - from, series.size());
+        for (int i = from; i < to; i++) {
+            assertEquals(time(i), series.getTime(i - from));
+            assertEquals(value(i), series.getValue(i - from), 0);
+        }
+    }
+
+    // the buckets of 10 minutes are aggregated from the rollup of every minute
+    private void assertRollupCount(int count) {
+        SensorBuckets buckets = mStore.queryBuckets(TOPIC, mBase - MINUTE, mBase + 5 * HOUR - MINUTE - 1, 30);
+        long total = 0;
+        for (int i = 0; i < buckets.size(); i++) {
+            total += buckets.getCount(i);
+        }
+        assertEquals(count, total);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
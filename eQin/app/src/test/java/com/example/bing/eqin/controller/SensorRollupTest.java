@@ -0,0 +1,143 @@
+package com.example.bing.eqin.controller;
+
+import com.example.bing.eqin.model.SensorBuckets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class SensorRollupTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long RETENTION = 24 * 60 * MINUTE;
+    private static final int RECORD_LEN = 28;
+
+    private File mFile;
+    private long mBase;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("SensorRollupTest", ".1m");
+        mFile.delete();
+        mBase = (System.currentTimeMillis() - 60 * MINUTE) / MINUTE * MINUTE;
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void add_returnsBucketToBeWritten() {
+        SensorRollup rollup = new SensorRollup(mFile, MINUTE, RETENTION);
+        assertEquals(-1, rollup.add(mBase, 1));
+        assertEquals(-1, rollup.add(mBase + 30 * 1000, 3));
+        // the first bucket is complete
+        assertEquals(0, rollup.add(mBase + 2 * MINUTE, 5));
+        // a value of a past bucket, the bucket is written again
+        assertEquals(0, rollup.add(mBase + 59 * 1000, 2));
+        // a bucket inserted before the last one
+        assertEquals(1, rollup.add(mBase + MINUTE + 5 * 1000, 4));
+
+        SensorBuckets buckets = rollup.query(mBase, mBase + 3 * MINUTE);
+        assertEquals(3, buckets.size());
+        assertEquals(3, buckets.getCount(0));
+        assertEquals(1, buckets.getMin(0), 0);
+        assertEquals(3, buckets.getMax(0), 0);
+        assertEquals(6, buckets.getSum(0), 0);
+        assertEquals(mBase + MINUTE, buckets.getTime(1));
+        assertEquals(1, buckets.getCount(1));
+        assertEquals(5, buckets.getSum(2), 0);
+    }
+
+    @Test
+    public void records_eachBucketOnce() {
+        SensorRollup rollup = new SensorRollup(mFile, MINUTE, RETENTION);
+        for (int i = 0; i < 5; i++) {
+            rollup.add(mBase + i * MINUTE, i);
+        }
+        ByteBuffer records = rollup.records(new long[]{mBase + 3 * MINUTE, mBase, mBase + 3 * MINUTE,
+                mBase + MINUTE / 2}, 4);
+        assertEquals(2 * RECORD_LEN, records.remaining());
+        assertEquals(mBase, records.getLong(0));
+        assertEquals(mBase + 3 * MINUTE, records.getLong(RECORD_LEN));
+    }
+
+    @Test
+    public void load_lastRecordWins() throws IOException {
+        SensorRollup rollup = new SensorRollup(mFile, MINUTE, RETENTION);
+        for (int i = 0; i < 10; i++) {
+            int closed = rollup.add(mBase + i * MINUTE, i);
+            if (closed >= 0) {
+                rollup.write(rollup.record(closed));
+            }
+        }
+        // a backfill of the first bucket, written again
+        rollup.write(rollup.record(rollup.add(mBase + 1000, 100)));
+        rollup.write(rollup.lastRecord());
+        rollup.close();
+        assertEquals(11 * RECORD_LEN, mFile.length());
+
+        SensorRollup loaded = new SensorRollup(mFile, MINUTE, RETENTION);
+        loaded.load();
+        SensorBuckets buckets = loaded.query(mBase, mBase + 10 * MINUTE);
+        assertEquals(10, buckets.size());
+        assertEquals(2, buckets.getCount(0));
+        assertEquals(100, buckets.getSum(0), 0);
+        assertEquals(1, buckets.getCount(9));
+        // compacted as the first bucket is written twice
+        assertEquals(10 * RECORD_LEN, mFile.length());
+        loaded.close();
+    }
+
+    @Test
+    public void load_dropsTornRecordAndExpired() throws IOException {
+        SensorRollup rollup = new SensorRollup(mFile, MINUTE, RETENTION);
+        // expired
+        rollup.add(mBase - 2 * RETENTION, 1);
+        rollup.add(mBase, 2);
+        rollup.add(mBase + MINUTE, 3);
+        rollup.writeFrom(Long.MIN_VALUE);
+        rollup.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() + 10);
+        file.close();
+
+        SensorRollup loaded = new SensorRollup(mFile, MINUTE, RETENTION);
+        loaded.load();
+        SensorBuckets buckets = loaded.query(Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, buckets.size());
+        assertEquals(mBase, buckets.getTime(0));
+        assertEquals(2 * RECORD_LEN, mFile.length());
+        loaded.close();
+    }
+
+    @Test
+    public void removeFrom_thenWriteFrom() throws IOException {
+        SensorRollup rollup = new SensorRollup(mFile, MINUTE, RETENTION);
+        for (int i = 0; i < 5; i++) {
+            rollup.add(mBase + i * MINUTE, i);
+        }
+        rollup.writeFrom(Long.MIN_VALUE);
+        // the last 2 buckets are built again from the values
+        rollup.removeFrom(mBase + 3 * MINUTE);
+        assertEquals(mBase + 2 * MINUTE, rollup.getLastStart());
+        rollup.add(mBase + 3 * MINUTE, 7);
+        rollup.writeFrom(mBase + 3 * MINUTE);
+        rollup.close();
+
+        SensorRollup loaded = new SensorRollup(mFile, MINUTE, RETENTION);
+        loaded.load();
+        SensorBuckets buckets = loaded.query(Long.MIN_VALUE, Long.MAX_VALUE);
+        // the bucket removed isn't removed from the file
+        assertEquals(5, buckets.size());
+        assertEquals(7, buckets.getSum(3), 0);
+        loaded.close();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.bing.eqin.controller;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriptionRegistryTest {
+
+    @Test
+    public void diff_onlyTheDifference() {
+        SubscriptionRegistry registry = new SubscriptionRegistry();
+        registry.setTopics(Arrays.asList("a", "b"), 2);
+        SubscriptionRegistry.Diff diff = registry.diff();
+        assertArrayEquals(new String[]{"a", "b"}, diff.subscribeTopics);
+        assertArrayEquals(new int[]{2, 2}, diff.subscribeQos);
+        assertEquals(0, diff.unsubscribeTopics.length);
+        assertTrue(registry.diff().isEmpty());
+
+        registry.setTopics(Arrays.asList("b", "c"), 2);
+        diff = registry.diff();
+        assertArrayEquals(new String[]{"c"}, diff.subscribeTopics);
+        assertArrayEquals(new String[]{"a"}, diff.unsubscribeTopics);
+    }
+
+    @Test
+    public void unsubscribeFailed_unsubscribedAgain() {
+        SubscriptionRegistry registry = new SubscriptionRegistry();
+        registry.setTopics(Arrays.asList("a", "b"), 2);
+        registry.diff();
+        registry.setTopics(Collections.singletonList("b"), 2);
+        String[] topics = registry.diff().unsubscribeTopics;
+        assertArrayEquals(new String[]{"a"}, topics);
+        // still subscribed at the broker until it acknowledges
+        assertEquals(new HashSet<>(Arrays.asList("2a", "2b")), registry.save());
+
+        registry.onUnsubscribeFailed(topics);
+        assertArrayEquals(new String[]{"a"}, registry.diff().unsubscribeTopics);
+        registry.onUnsubscribed(topics);
+        assertEquals(Collections.singleton("2b"), registry.save());
+        assertTrue(registry.diff().isEmpty());
+    }
+
+    @Test
+    public void unsubscribeFailed_wantedAgainMeanwhile() {
+        SubscriptionRegistry registry = new SubscriptionRegistry();
+        registry.setTopics(Collections.singletonList("a"), 1);
+        registry.diff();
+        registry.setTopics(Collections.<String>emptyList(), 1);
+        String[] topics = registry.diff().unsubscribeTopics;
+        registry.setTopics(Collections.singletonList("a"), 2);
+        assertArrayEquals(new String[]{"a"}, registry.diff().subscribeTopics);
+
+        registry.onUnsubscribeFailed(topics);
+        assertTrue(registry.diff().isEmpty());
+        assertEquals(Collections.singleton("2a"), registry.save());
+    }
+
+    @Test
+    public void restore_unsubscribesTopicsNotWantedAnyMore() {
+        SubscriptionRegistry registry = new SubscriptionRegistry();
+        registry.setTopics(Arrays.asList("wifi/temperature/1", "wifi/humidity/1"), 2);
+        registry.diff();
+        Set<String> saved = registry.save();
+
+        // the app is restarted with the session kept by the broker
+        SubscriptionRegistry restarted = new SubscriptionRegistry();
+        restarted.restore(saved);
+        restarted.setTopics(Arrays.asList("wifi/temperature/1", "zigbee/temperature/2"), 2);
+        SubscriptionRegistry.Diff diff = restarted.diff();
+        assertArrayEquals(new String[]{"zigbee/temperature/2"}, diff.subscribeTopics);
+        assertArrayEquals(new String[]{"wifi/humidity/1"}, diff.unsubscribeTopics);
+    }
+
+    @Test
+    public void restore_differentQosSubscribedAgain() {
+        SubscriptionRegistry registry = new SubscriptionRegistry();
+        registry.restore(Collections.singleton("1a"));
+        registry.setTopics(Collections.singletonList("a"), 2);
+        SubscriptionRegistry.Diff diff = registry.diff();
+        assertArrayEquals(new String[]{"a"}, diff.subscribeTopics);
+        assertArrayEquals(new int[]{2}, diff.subscribeQos);
+    }
+
+    @Test
+    public void sessionLost_subscribesAllAgain() {
+        SubscriptionRegistry registry = new SubscriptionRegistry();
+        registry.restore(new HashSet<>(Arrays.asList("2a", "2stale")));
+        registry.setTopics(Collections.singletonList("a"), 2);
+        registry.onSessionLost();
+        SubscriptionRegistry.Diff diff = registry.diff();
+        assertArrayEquals(new String[]{"a"}, diff.subscribeTopics);
+        assertEquals(0, diff.unsubscribeTopics.length);
+        assertEquals(Collections.singleton("2a"), registry.save());
+    }
+}
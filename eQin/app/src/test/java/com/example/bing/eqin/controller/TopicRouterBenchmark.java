@@ -0,0 +1,76 @@
+package com.example.bing.eqin.controller;
+
+import com.example.bing.eqin.model.MQTTDataItem;
+import com.example.bing.eqin.model.TopicKey;
+
+/**
+ * Measure {@link TopicRouter#dispatch(MQTTDataItem)} on the JVM with {@link #FILTER_COUNT}
+ * filters registered besides the ones of the app.
+ * <p>
+ * A cached dispatch is a map lookup by the interned {@link TopicKey} and the handler calls.
+ * A missed dispatch walks the trie first, it is measured with a topic never dispatched
+ * before every time.
+ */
+public class TopicRouterBenchmark {
+
+    private static final int FILTER_COUNT = 10000;
+    private static final int WARM_UP_COUNT = 2000000;
+    private static final int COUNT = 20000000;
+    private static final int MISS_COUNT = 200000;
+    private static final byte[] PAYLOAD = "{\"temperature\":23.5}".getBytes();
+
+    private static long sCalls;
+
+    public static void main(String[] args) {
+        TopicRouter router = new TopicRouter();
+        TopicRouter.Handler handler = new TopicRouter.Handler() {
+            @Override
+            public void onMessage(MQTTDataItem message) {
+                sCalls++;
+            }
+        };
+        router.register("+/temperature/+", handler);
+        router.register("+/humidity/+", handler);
+        router.register("push", handler);
+        for (int i = 0; i < FILTER_COUNT; i++) {
+            router.register("dev" + i + "/" + (i % 2 == 0 ? "temperature" : "humidity") + "/+", handler);
+        }
+        String[] topics = {"wifi/temperature/1", "push", "dev5000/temperature/1", "zigbee/unknown/1"};
+        MQTTDataItem[] messages = new MQTTDataItem[topics.length];
+        for (int i = 0; i < topics.length; i++) {
+            messages[i] = MQTTDataItem.obtain(new TopicKey(topics[i], null, null, null, -1), PAYLOAD);
+        }
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up
+            int count = round == 0 ? WARM_UP_COUNT : COUNT;
+            for (MQTTDataItem message : messages) {
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    router.dispatch(message);
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round > 0) {
+                    System.out.println(String.format("cached %-24s %6.1f ns/dispatch",
+                            message.getTopic(), (double) elapsed / count));
+                }
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            MQTTDataItem[] misses = new MQTTDataItem[MISS_COUNT];
+            for (int i = 0; i < MISS_COUNT; i++) {
+                String topic = "dev" + (i % FILTER_COUNT) + "/temperature/" + round + "-" + i;
+                misses[i] = MQTTDataItem.obtain(new TopicKey(topic, null, null, null, -1), PAYLOAD);
+            }
+            long start = System.nanoTime();
+            for (MQTTDataItem message : misses) {
+                router.dispatch(message);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                System.out.println(String.format("missed %-24s %6.1f ns/dispatch",
+                        "dev*/temperature/*", (double) elapsed / MISS_COUNT));
+            }
+        }
+        System.out.println("calls " + sCalls);
+    }
+}
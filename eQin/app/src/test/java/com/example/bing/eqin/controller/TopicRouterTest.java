@@ -0,0 +1,146 @@
+package com.example.bing.eqin.controller;
+
+import com.example.bing.eqin.model.MQTTDataItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TopicRouterTest {
+    private static final byte[] PAYLOAD = "{\"temperature\":23.5}".getBytes();
+
+    @Test
+    public void plus_matchesOneLevel() {
+        TopicRouter router = new TopicRouter();
+        router.register("+/temperature/+", new RecordingHandler());
+        assertEquals(1, dispatch(router, "wifi/temperature/1"));
+        assertEquals(0, dispatch(router, "wifi/temperature"));
+        assertEquals(0, dispatch(router, "wifi/temperature/1/2"));
+        assertEquals(0, dispatch(router, "wifi/humidity/1"));
+    }
+
+    @Test
+    public void hash_matchesParentLevelAndBelow() {
+        TopicRouter router = new TopicRouter();
+        router.register("wifi/#", new RecordingHandler());
+        assertEquals(1, dispatch(router, "wifi"));
+        assertEquals(1, dispatch(router, "wifi/temperature"));
+        assertEquals(1, dispatch(router, "wifi/temperature/1"));
+        assertEquals(0, dispatch(router, "zigbee/temperature/1"));
+
+        TopicRouter all = new TopicRouter();
+        all.register("#", new RecordingHandler());
+        assertEquals(1, dispatch(all, "push"));
+        assertEquals(1, dispatch(all, "wifi/temperature/1"));
+    }
+
+    @Test
+    public void wildcards_skipDollarTopicsAtFirstLevel() {
+        TopicRouter router = new TopicRouter();
+        router.register("#", new RecordingHandler());
+        router.register("+/broker/+", new RecordingHandler());
+        assertEquals(0, dispatch(router, "$SYS/broker/clients"));
+        assertEquals(2, dispatch(router, "sys/broker/clients"));
+
+        router.register("$SYS/#", new RecordingHandler());
+        router.register("$SYS/+/clients", new RecordingHandler());
+        assertEquals(2, dispatch(router, "$SYS/broker/clients"));
+    }
+
+    @Test
+    public void emptyLevels_areLevels() {
+        TopicRouter router = new TopicRouter();
+        router.register("a/+/b", new RecordingHandler());
+        router.register("+/a", new RecordingHandler());
+        router.register("a/+", new RecordingHandler());
+        assertEquals(1, dispatch(router, "a//b"));
+        assertEquals(1, dispatch(router, "/a"));
+        assertEquals(1, dispatch(router, "a/"));
+        assertEquals(0, dispatch(router, "a//c"));
+    }
+
+    @Test
+    public void duplicateHandler_calledOnce() {
+        TopicRouter router = new TopicRouter();
+        RecordingHandler handler = new RecordingHandler();
+        router.register("wifi/temperature/1", handler);
+        router.register("wifi/temperature/1", handler);
+        router.register("+/temperature/+", handler);
+        router.register("#", handler);
+        assertEquals(1, dispatch(router, "wifi/temperature/1"));
+        assertEquals(1, handler.mTopics.size());
+    }
+
+    @Test
+    public void handlers_calledInRegistrationOrderOfTheFilter() {
+        TopicRouter router = new TopicRouter();
+        RecordingHandler first = new RecordingHandler();
+        RecordingHandler second = new RecordingHandler();
+        router.register("push", first);
+        router.register("push", second);
+        assertEquals(2, dispatch(router, "push"));
+        assertEquals(1, first.mTopics.size());
+        assertEquals(1, second.mTopics.size());
+        assertEquals("push", first.mTopics.get(0));
+    }
+
+    @Test
+    public void unregister_clearsCache() {
+        TopicRouter router = new TopicRouter();
+        RecordingHandler handler = new RecordingHandler();
+        router.register("+/temperature/+", handler);
+        assertEquals(1, dispatch(router, "wifi/temperature/1"));
+
+        router.unregister("+/temperature/+", handler);
+        assertEquals(0, dispatch(router, "wifi/temperature/1"));
+
+        // a filter registered later is matched by the topic cached before
+        router.register("wifi/#", handler);
+        assertEquals(1, dispatch(router, "wifi/temperature/1"));
+    }
+
+    @Test
+    public void unregisterHandler_fromAllFilters() {
+        TopicRouter router = new TopicRouter();
+        RecordingHandler handler = new RecordingHandler();
+        RecordingHandler other = new RecordingHandler();
+        router.register("+/temperature/+", handler);
+        router.register("wifi/#", handler);
+        router.register("wifi/#", other);
+        assertEquals(2, dispatch(router, "wifi/temperature/1"));
+
+        router.unregister(handler);
+        assertEquals(1, dispatch(router, "wifi/temperature/1"));
+        assertEquals(1, handler.mTopics.size());
+        assertEquals(2, other.mTopics.size());
+    }
+
+    @Test
+    public void unregister_unknownFilterDoesNothing() {
+        TopicRouter router = new TopicRouter();
+        RecordingHandler handler = new RecordingHandler();
+        router.register("push", handler);
+        router.unregister("wifi/temperature/1", handler);
+        router.unregister("push", new RecordingHandler());
+        assertEquals(1, dispatch(router, "push"));
+    }
+
+    private static int dispatch(TopicRouter router, String topic) {
+        MQTTDataItem message = MQTTDataItem.obtain(TopicKeyCache.getInstance().get(topic), PAYLOAD);
+        int count = router.dispatch(message);
+        message.recycle();
+        return count;
+    }
+
+    private static class RecordingHandler implements TopicRouter.Handler {
+        private final List<String> mTopics = new ArrayList<>();
+
+        @Override
+        public void onMessage(MQTTDataItem message) {
+            mTopics.add(message.getTopic());
+        }
+    }
+}
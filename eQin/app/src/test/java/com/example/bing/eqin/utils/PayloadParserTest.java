@@ -0,0 +1,114 @@
+package com.example.bing.eqin.utils;
+
+import com.example.bing.eqin.model.MQTTDataItem;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadParserTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double DELTA = 0;
+
+    @Test
+    public void parse_number() {
+        MQTTDataItem item = parse("{\"temperature\":23.5,\"humidity\":-40}", 2);
+        assertEquals(23.5, item.getValue(MQTTDataItem.VALUE_TEMPERATURE), DELTA);
+        assertEquals(-40, item.getValue(MQTTDataItem.VALUE_HUMIDITY), DELTA);
+    }
+
+    @Test
+    public void parse_quotedNumber() {
+        MQTTDataItem item = parse("{\"temperature\":\"23.5\",\"humidity\":\" 61 \"}", 2);
+        assertEquals(23.5, item.getValue(MQTTDataItem.VALUE_TEMPERATURE), DELTA);
+        assertEquals(61, item.getValue(MQTTDataItem.VALUE_HUMIDITY), DELTA);
+    }
+
+    @Test
+    public void parse_quotedNotNumber() {
+        MQTTDataItem item = parse("{\"temperature\":\"n/a\",\"humidity\":\"\"}", 0);
+        assertFalse(item.hasValue(MQTTDataItem.VALUE_TEMPERATURE));
+        assertFalse(item.hasValue(MQTTDataItem.VALUE_HUMIDITY));
+    }
+
+    @Test
+    public void parse_exponent() {
+        MQTTDataItem item = parse("{\"temperature\":2.35e1,\"humidity\":6.1E+1,\"br\":\"1e2\",\"m\":5E-1}", 4);
+        assertEquals(23.5, item.getValue(MQTTDataItem.VALUE_TEMPERATURE), DELTA);
+        assertEquals(61, item.getValue(MQTTDataItem.VALUE_HUMIDITY), DELTA);
+        assertEquals(100, item.getValue(MQTTDataItem.VALUE_BR), DELTA);
+        assertEquals(0.5, item.getValue(MQTTDataItem.VALUE_M), DELTA);
+    }
+
+    @Test
+    public void parse_sameAsParseDouble() {
+        String[] numbers = {"0", "-0.0", "0.1", "0.3", "123456789.123456789", "1.7976931348623157",
+                "9007199254740993", "1e-7", "-2.5E10"};
+        for (String number : numbers) {
+            MQTTDataItem item = parse("{\"temperature\":" + number + "}", 1);
+            assertEquals(number, Double.parseDouble(number), item.getValue(MQTTDataItem.VALUE_TEMPERATURE), DELTA);
+        }
+    }
+
+    @Test
+    public void parse_whitespace() {
+        MQTTDataItem item = parse(" {\n\t\"temperature\" :\r\n 23.5 ,\n \"humidity\"\t:\t61\n}\n", 2);
+        assertEquals(23.5, item.getValue(MQTTDataItem.VALUE_TEMPERATURE), DELTA);
+        assertEquals(61, item.getValue(MQTTDataItem.VALUE_HUMIDITY), DELTA);
+    }
+
+    @Test
+    public void parse_nestedObject() {
+        MQTTDataItem item = parse("{\"sensor\":{\"temperature\":23.5,\"meta\":{\"humidity\":61}},"
+                + "\"color\":[{\"r\":255},{\"g\":128}]}", 4);
+        assertEquals(23.5, item.getValue(MQTTDataItem.VALUE_TEMPERATURE), DELTA);
+        assertEquals(61, item.getValue(MQTTDataItem.VALUE_HUMIDITY), DELTA);
+        assertEquals(255, item.getValue(MQTTDataItem.VALUE_R), DELTA);
+        assertEquals(128, item.getValue(MQTTDataItem.VALUE_G), DELTA);
+    }
+
+    @Test
+    public void parse_knownKeyOfObjectIsSkipped() {
+        // the value of a known key is an object, only the known keys inside it are taken
+        MQTTDataItem item = parse("{\"temperature\":{\"value\":23.5},\"b\":[1,2]}", 0);
+        assertFalse(item.hasValue(MQTTDataItem.VALUE_TEMPERATURE));
+        assertFalse(item.hasValue(MQTTDataItem.VALUE_B));
+    }
+
+    @Test
+    public void parse_unknownKeys() {
+        MQTTDataItem item = parse("{\"temp\":1,\"temperatures\":2,\"id\":\"temperature\",\"x\":\"3\","
+                + "\"esc\\\"aped\":4,\"humidity\":5}", 1);
+        assertFalse(item.hasValue(MQTTDataItem.VALUE_TEMPERATURE));
+        assertTrue(item.hasValue(MQTTDataItem.VALUE_HUMIDITY));
+        assertEquals(5, item.getValue(MQTTDataItem.VALUE_HUMIDITY), DELTA);
+    }
+
+    @Test
+    public void parse_otherValuesResetTheKey() {
+        MQTTDataItem item = parse("{\"temperature\":true,\"humidity\":null,\"br\":12}", 1);
+        assertFalse(item.hasValue(MQTTDataItem.VALUE_TEMPERATURE));
+        assertFalse(item.hasValue(MQTTDataItem.VALUE_HUMIDITY));
+        assertEquals(12, item.getValue(MQTTDataItem.VALUE_BR), DELTA);
+    }
+
+    @Test
+    public void parse_offsetAndLength() {
+        byte[] payload = "xx{\"temperature\":23.5}{\"humidity\":61}".getBytes(UTF_8);
+        MQTTDataItem item = new MQTTDataItem("wifi/temperature/1", "{}");
+        assertEquals(1, PayloadParser.parse(payload, 2, 20, item));
+        assertEquals(23.5, item.getValue(MQTTDataItem.VALUE_TEMPERATURE), DELTA);
+        assertFalse(item.hasValue(MQTTDataItem.VALUE_HUMIDITY));
+    }
+
+    private static MQTTDataItem parse(String json, int expectedCount) {
+        MQTTDataItem item = new MQTTDataItem("wifi/temperature/1", "{}");
+        byte[] payload = json.getBytes(UTF_8);
+        assertEquals(json, expectedCount, PayloadParser.parse(payload, 0, payload.length, item));
+        return item;
+    }
+}
@@ -0,0 +1,116 @@
+package com.espressif.iot.esptouch;
+
+import android.content.Context;
+
+import com.espressif.iot.esptouch.platform.AndroidEsptouchPlatform;
+import com.espressif.iot.esptouch.platform.IEsptouchPlatform;
+import com.espressif.iot.esptouch.protocol.TouchData;
+import com.espressif.iot.esptouch.task.EsptouchTaskParameter;
+import com.espressif.iot.esptouch.task.__EsptouchSession;
+import com.espressif.iot.esptouch.util.EspAES;
+import com.espressif.iot.esptouch.util.EspNetUtil;
+
+import java.util.List;
+
+/**
+ * EsptouchSession keeps broadcasting one Ap's ssid and password until it is stopped,
+ * and reports every device connected to the Ap as soon as it is confirmed.
+ */
+public class EsptouchSession implements IEsptouchSession {
+
+    private __EsptouchSession _mEsptouchSession;
+
+    public EsptouchSession(String apSsid, String apBssid, String apPassword, Context context) {
+        this(apSsid, apBssid, apPassword, new AndroidEsptouchPlatform(context));
+    }
+
+    /**
+     * Constructor of EsptouchSession running on the platform other than Android
+     *
+     * @param apSsid     the Ap's ssid
+     * @param apBssid    the Ap's bssid
+     * @param apPassword the Ap's password
+     * @param platform   the platform, e.g. {@link com.espressif.iot.esptouch.platform.JvmEsptouchPlatform}
+     */
+    public EsptouchSession(String apSsid, String apBssid, String apPassword, IEsptouchPlatform platform) {
+        if (apSsid == null || apSsid.isEmpty()) {
+            throw new NullPointerException("SSID can't be empty");
+        }
+        if (apBssid == null || apBssid.isEmpty()) {
+            throw new NullPointerException("BSSID can't be empty");
+        }
+        if (apPassword == null) {
+            apPassword = "";
+        }
+        TouchData ssid = new TouchData(apSsid);
+        TouchData bssid = new TouchData(EspNetUtil.parseBssid2bytes(apBssid));
+        TouchData password = new TouchData(apPassword);
+        init(platform, ssid, bssid, password, null);
+    }
+
+    public EsptouchSession(byte[] apSsid, byte[] apBssid, byte[] apPassword, EspAES espAES, Context context) {
+        this(apSsid, apBssid, apPassword, espAES, new AndroidEsptouchPlatform(context));
+    }
+
+    public EsptouchSession(byte[] apSsid, byte[] apBssid, byte[] apPassword, EspAES espAES,
+                           IEsptouchPlatform platform) {
+        if (apSsid == null || apSsid.length == 0) {
+            throw new NullPointerException("SSID can't be empty");
+        }
+        if (apBssid == null || apBssid.length == 0) {
+            throw new NullPointerException("BSSID can't be empty");
+        }
+        if (apPassword == null) {
+            apPassword = new byte[0];
+        }
+        TouchData ssid = new TouchData(apSsid);
+        TouchData bssid = new TouchData(apBssid);
+        TouchData password = new TouchData(apPassword);
+        init(platform, ssid, bssid, password, espAES);
+    }
+
+    private void init(IEsptouchPlatform platform, TouchData ssid, TouchData bssid, TouchData password, EspAES aes) {
+        EsptouchTaskParameter parameter = new EsptouchTaskParameter();
+        _mEsptouchSession = new __EsptouchSession(platform, ssid, bssid, password, aes, parameter, true);
+    }
+
+    @Override
+    public void setEsptouchListener(IEsptouchListener esptouchListener) {
+        _mEsptouchSession.setEsptouchListener(esptouchListener);
+    }
+
+    @Override
+    public void start() {
+        _mEsptouchSession.start();
+    }
+
+    @Override
+    public void stop() {
+        _mEsptouchSession.stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return _mEsptouchSession.isRunning();
+    }
+
+    @Override
+    public int getExpectResultCount() {
+        return _mEsptouchSession.getExpectResultCount();
+    }
+
+    @Override
+    public void setExpectResultCount(int expectResultCount) {
+        _mEsptouchSession.setExpectResultCount(expectResultCount);
+    }
+
+    @Override
+    public int addExpectResultCount(int delta) {
+        return _mEsptouchSession.addExpectResultCount(delta);
+    }
+
+    @Override
+    public List<IEsptouchResult> getResults() {
+        return _mEsptouchSession.getResults();
+    }
+}
@@ -1,8 +1,9 @@
 package com.espressif.iot.esptouch;
 
 import android.content.Context;
-import android.text.TextUtils;
 
+import com.espressif.iot.esptouch.platform.AndroidEsptouchPlatform;
+import com.espressif.iot.esptouch.platform.IEsptouchPlatform;
 import com.espressif.iot.esptouch.protocol.TouchData;
 import com.espressif.iot.esptouch.task.EsptouchTaskParameter;
 import com.espressif.iot.esptouch.task.__EsptouchTask;
@@ -17,14 +18,27 @@ public class EsptouchTask implements IEsptouchTask {
     private EsptouchTaskParameter _mParameter;
 
     public EsptouchTask(String apSsid, String apBssid, String apPassword, Context context) {
-        this(apSsid, apBssid, apPassword, null, context);
+        this(apSsid, apBssid, apPassword, new AndroidEsptouchPlatform(context));
     }
 
-    private EsptouchTask(String apSsid, String apBssid, String apPassword, EspAES espAES, Context context) {
-        if (TextUtils.isEmpty(apSsid)) {
+    /**
+     * Constructor of EsptouchTask running on the platform other than Android
+     *
+     * @param apSsid     the Ap's ssid
+     * @param apBssid    the Ap's bssid
+     * @param apPassword the Ap's password
+     * @param platform   the platform, e.g. {@link com.espressif.iot.esptouch.platform.JvmEsptouchPlatform}
+     */
+    public EsptouchTask(String apSsid, String apBssid, String apPassword, IEsptouchPlatform platform) {
+        this(apSsid, apBssid, apPassword, null, platform);
+    }
+
+    private EsptouchTask(String apSsid, String apBssid, String apPassword, EspAES espAES,
+                         IEsptouchPlatform platform) {
+        if (apSsid == null || apSsid.isEmpty()) {
             throw new NullPointerException("SSID can't be empty");
         }
-        if (TextUtils.isEmpty(apBssid)) {
+        if (apBssid == null || apBssid.isEmpty()) {
             throw new NullPointerException("BSSID can't be empty");
         }
         if (apPassword == null) {
@@ -33,10 +47,15 @@ public class EsptouchTask implements IEsptouchTask {
         TouchData ssid = new TouchData(apSsid);
         TouchData bssid = new TouchData(EspNetUtil.parseBssid2bytes(apBssid));
         TouchData password = new TouchData(apPassword);
-        init(context, ssid, bssid, password, espAES);
+        init(platform, ssid, bssid, password, espAES);
     }
 
     public EsptouchTask(byte[] apSsid, byte[] apBssid, byte[] apPassword, EspAES espAES, Context context) {
+        this(apSsid, apBssid, apPassword, espAES, new AndroidEsptouchPlatform(context));
+    }
+
+    public EsptouchTask(byte[] apSsid, byte[] apBssid, byte[] apPassword, EspAES espAES,
+                        IEsptouchPlatform platform) {
         if (apSsid == null || apSsid.length == 0) {
             throw new NullPointerException("SSID can't be empty");
         }
@@ -49,12 +68,12 @@ public class EsptouchTask implements IEsptouchTask {
         TouchData ssid = new TouchData(apSsid);
         TouchData bssid = new TouchData(apBssid);
         TouchData password = new TouchData(apPassword);
-        init(context, ssid, bssid, password, espAES);
+        init(platform, ssid, bssid, password, espAES);
     }
 
-    private void init(Context context, TouchData ssid, TouchData bssid, TouchData password, EspAES aes) {
+    private void init(IEsptouchPlatform platform, TouchData ssid, TouchData bssid, TouchData password, EspAES aes) {
         _mParameter = new EsptouchTaskParameter();
-        _mEsptouchTask = new __EsptouchTask(context, ssid, bssid, password, aes, _mParameter, true);
+        _mEsptouchTask = new __EsptouchTask(platform, ssid, bssid, password, aes, _mParameter, true);
     }
 
     @Override
@@ -81,6 +100,16 @@ public class EsptouchTask implements IEsptouchTask {
         return _mEsptouchTask.executeForResults(expectTaskResultCount);
     }
 
+    /**
+     * set whether the sending schedule adapts to the acks and the sending failures,
+     * it should be called before executing
+     *
+     * @param adaptiveSchedule whether the sending schedule is adaptive
+     */
+    public void setAdaptiveSchedule(boolean adaptiveSchedule) {
+        _mParameter.setAdaptiveSchedule(adaptiveSchedule);
+    }
+
     @Override
     public void setEsptouchListener(IEsptouchListener esptouchListener) {
         _mEsptouchTask.setEsptouchListener(esptouchListener);
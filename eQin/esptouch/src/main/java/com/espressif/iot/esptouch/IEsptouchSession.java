@@ -0,0 +1,43 @@
+package com.espressif.iot.esptouch;
+
+import java.util.List;
+
+public interface IEsptouchSession {
+
+    /**
+     * set the esptouch listener, when one device is confirmed, it will be called back
+     * at the thread receiving the acks
+     *
+     * @param esptouchListener when one device is confirmed, it will be called back
+     */
+    void setEsptouchListener(IEsptouchListener esptouchListener);
+
+    /**
+     * start broadcasting and listening at background threads, it could be called only once
+     */
+    void start();
+
+    void stop();
+
+    boolean isRunning();
+
+    int getExpectResultCount();
+
+    /**
+     * set the count of the devices to be confirmed, the broadcasting pauses when it is reached
+     *
+     * @param expectResultCount the expect result count(if expectResultCount <= 0,
+     *                          expectResultCount = Integer.MAX_VALUE)
+     */
+    void setExpectResultCount(int expectResultCount);
+
+    /**
+     * add (or remove by negative delta) devices to be confirmed
+     *
+     * @param delta the count to be added
+     * @return the new expect result count
+     */
+    int addExpectResultCount(int delta);
+
+    List<IEsptouchResult> getResults();
+}
@@ -0,0 +1,62 @@
+package com.espressif.iot.esptouch.platform;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Looper;
+
+import com.espressif.iot.esptouch.util.EspNetUtil;
+
+import java.net.InetAddress;
+
+public class AndroidEsptouchPlatform extends NioEsptouchPlatform {
+
+    private final Context mContext;
+
+    /**
+     * Constructor of AndroidEsptouchPlatform
+     *
+     * @param context the context, the application context is kept
+     */
+    public AndroidEsptouchPlatform(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public InetAddress getLocalInetAddress() {
+        return EspNetUtil.getLocalInetAddress(mContext);
+    }
+
+    @Override
+    public boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    @Override
+    public IMulticastLock createMulticastLock(String tag) {
+        WifiManager manager = (WifiManager) mContext.getSystemService(Context.WIFI_SERVICE);
+        return new AndroidMulticastLock(manager.createMulticastLock(tag));
+    }
+
+    private static class AndroidMulticastLock implements IMulticastLock {
+        private final WifiManager.MulticastLock mLock;
+
+        private AndroidMulticastLock(WifiManager.MulticastLock lock) {
+            mLock = lock;
+        }
+
+        @Override
+        public void acquire() {
+            mLock.acquire();
+        }
+
+        @Override
+        public void release() {
+            mLock.release();
+        }
+
+        @Override
+        public boolean isHeld() {
+            return mLock.isHeld();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.espressif.iot.esptouch.platform;
+
+import com.espressif.iot.esptouch.udp.IUDPReceiver;
+import com.espressif.iot.esptouch.udp.IUDPSender;
+
+import java.net.InetAddress;
+
+/**
+ * What the esptouch task needs from the platform it runs on. Use
+ * {@link AndroidEsptouchPlatform} on Android, and {@link JvmEsptouchPlatform} on the plain
+ * JVM, e.g. the headless gateway and the performance tests.
+ */
+public interface IEsptouchPlatform {
+
+    /**
+     * get the local ip address allocated by the Ap, it is sent to the devices for the acks
+     *
+     * @return the local ip address, or null if it is unknown
+     */
+    InetAddress getLocalInetAddress();
+
+    /**
+     * @return whether the current thread is the main(UI) thread, the esptouch task
+     * mustn't be executed at it
+     */
+    boolean isMainThread();
+
+    /**
+     * Create the lock to keep receiving the multicast datagrams
+     *
+     * @param tag the tag of the lock
+     * @return the lock not acquired yet
+     */
+    IMulticastLock createMulticastLock(String tag);
+
+    /**
+     * @return a new sender of the esptouch packets
+     */
+    IUDPSender createSender();
+
+    /**
+     * Get the receiver listening on the port, it should be released when done
+     *
+     * @param port the port for listening
+     * @return the receiver, or null if the port can't be listened on
+     */
+    IUDPReceiver acquireReceiver(int port);
+}
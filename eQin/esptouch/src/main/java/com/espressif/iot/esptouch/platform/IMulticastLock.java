@@ -0,0 +1,13 @@
+package com.espressif.iot.esptouch.platform;
+
+/**
+ * The lock to keep receiving the multicast and broadcast datagrams, the Wi-Fi driver of
+ * Android filters them out without it
+ */
+public interface IMulticastLock {
+    void acquire();
+
+    void release();
+
+    boolean isHeld();
+}
@@ -0,0 +1,86 @@
+package com.espressif.iot.esptouch.platform;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Enumeration;
+
+/**
+ * The platform of the plain JVM, there is no main thread and no multicast filter
+ */
+public class JvmEsptouchPlatform extends NioEsptouchPlatform {
+
+    private final InetAddress mLocalInetAddress;
+
+    /**
+     * Constructor of JvmEsptouchPlatform, the local ip address is the first ipv4 address
+     * of the network interfaces up, which isn't the loopback one
+     */
+    public JvmEsptouchPlatform() {
+        this(null);
+    }
+
+    /**
+     * Constructor of JvmEsptouchPlatform
+     *
+     * @param localInetAddress the local ip address in the Ap's network, null to find it
+     *                         from the network interfaces
+     */
+    public JvmEsptouchPlatform(InetAddress localInetAddress) {
+        mLocalInetAddress = localInetAddress;
+    }
+
+    @Override
+    public InetAddress getLocalInetAddress() {
+        if (mLocalInetAddress != null) {
+            return mLocalInetAddress;
+        }
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = interfaces.nextElement();
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+                while (addresses.hasMoreElements()) {
+                    InetAddress address = addresses.nextElement();
+                    if (address instanceof Inet4Address) {
+                        return address;
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isMainThread() {
+        return false;
+    }
+
+    @Override
+    public IMulticastLock createMulticastLock(String tag) {
+        return new IMulticastLock() {
+            private boolean mIsHeld;
+
+            @Override
+            public synchronized void acquire() {
+                mIsHeld = true;
+            }
+
+            @Override
+            public synchronized void release() {
+                mIsHeld = false;
+            }
+
+            @Override
+            public synchronized boolean isHeld() {
+                return mIsHeld;
+            }
+        };
+    }
+}
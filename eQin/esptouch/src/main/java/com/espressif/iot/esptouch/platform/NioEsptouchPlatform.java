@@ -0,0 +1,23 @@
+package com.espressif.iot.esptouch.platform;
+
+import com.espressif.iot.esptouch.udp.IUDPReceiver;
+import com.espressif.iot.esptouch.udp.IUDPSender;
+import com.espressif.iot.esptouch.udp.UDPSelectorServer;
+import com.espressif.iot.esptouch.udp.UDPSocketClient;
+
+/**
+ * The platform sending and receiving by java.nio, which is available on both Android and
+ * the plain JVM
+ */
+public abstract class NioEsptouchPlatform implements IEsptouchPlatform {
+
+    @Override
+    public IUDPSender createSender() {
+        return new UDPSocketClient();
+    }
+
+    @Override
+    public IUDPReceiver acquireReceiver(int port) {
+        return UDPSelectorServer.acquire(port, this);
+    }
+}
@@ -0,0 +1,200 @@
+package com.espressif.iot.esptouch.protocol;
+
+import com.espressif.iot.esptouch.util.CRC8;
+
+import java.net.InetAddress;
+
+/**
+ * Table driven encoder of the datum code, it produces the same u8s as
+ * {@link DatumCode#getU8s()} without building the {@link DataCode} list.
+ * <p>
+ * The encoder keeps its output buffer between calls, use {@link #get()} to
+ * obtain the instance bound to the current thread.
+ */
+public class DatumCodeEncoder {
+
+    // define by the Esptouch protocol, all of the datum code should add 1 at last to prevent 0
+    private static final int EXTRA_LEN = 40;
+    private static final int EXTRA_HEAD_LEN = 5;
+    private static final int IP_LEN = 4;
+    // the index of the first bssid data code and the gap between two of them
+    private static final int BSSID_FIRST_INDEX = 4;
+    private static final int BSSID_GAP = 3;
+
+    private static final int INDEX_MAX = 127;
+    private static final int INDEX_BITS = 7;
+    private static final int U8_MAX = 0xff;
+
+    private static final int U8S_PER_DATA_CODE = DataCode.DATA_CODE_LEN / 2;
+
+    // crc of (data, index), looked up by data << INDEX_BITS | index
+    private static final byte[] CRC_TABLE = new byte[(U8_MAX + 1) << INDEX_BITS];
+
+    private static final ThreadLocal<DatumCodeEncoder> sEncoder = new ThreadLocal<DatumCodeEncoder>() {
+        @Override
+        protected DatumCodeEncoder initialValue() {
+            return new DatumCodeEncoder();
+        }
+    };
+
+    static {
+        CRC8 crc8 = new CRC8();
+        for (int data = 0; data <= U8_MAX; data++) {
+            for (int index = 0; index <= INDEX_MAX; index++) {
+                crc8.reset();
+                crc8.update(data);
+                crc8.update(index);
+                CRC_TABLE[data << INDEX_BITS | index] = (byte) crc8.getValue();
+            }
+        }
+    }
+
+    private char[] mU8s = new char[0];
+    private int mU8sLen;
+
+    private byte[] mApBssid;
+    private int mBssidIndex;
+    private int mBssidDone;
+
+    private DatumCodeEncoder() {
+    }
+
+    /**
+     * Get the encoder bound to the current thread
+     *
+     * @return the encoder of the current thread
+     */
+    public static DatumCodeEncoder get() {
+        return sEncoder.get();
+    }
+
+    /**
+     * Get the count of u8s the datum code will be encoded to
+     *
+     * @param apSsid      the Ap's ssid
+     * @param apBssid     the Ap's bssid
+     * @param apPassword  the Ap's password
+     * @param isSsidHiden whether the Ap's ssid is hidden
+     * @return the count of u8s
+     */
+    public static int getU8sLength(byte[] apSsid, byte[] apBssid, byte[] apPassword,
+                                   boolean isSsidHiden) {
+        int dataCodeCount = EXTRA_HEAD_LEN + IP_LEN + apPassword.length
+                + (isSsidHiden ? apSsid.length : 0) + apBssid.length;
+        return dataCodeCount * U8S_PER_DATA_CODE;
+    }
+
+    /**
+     * Encode the datum code into the buffer of the encoder
+     *
+     * @param apSsid      the Ap's ssid
+     * @param apBssid     the Ap's bssid
+     * @param apPassword  the Ap's password
+     * @param ipAddress   the ip address of the phone or pad
+     * @param isSsidHiden whether the Ap's ssid is hidden
+     * @return the count of u8s written into {@link #getU8s()}
+     */
+    public int encode(byte[] apSsid, byte[] apBssid, byte[] apPassword,
+                      InetAddress ipAddress, boolean isSsidHiden) {
+        // only support ipv4 at the moment
+        byte[] ipAddr = ipAddress.getAddress();
+        if (ipAddr.length != IP_LEN) {
+            throw new IllegalArgumentException("only ipv4 address is supported");
+        }
+
+        int u8sLen = getU8sLength(apSsid, apBssid, apPassword, isSsidHiden);
+        if (mU8s.length < u8sLen) {
+            mU8s = new char[u8sLen];
+        }
+        mU8sLen = 0;
+
+        int apPwdLen = apPassword.length;
+        int apSsidLen = apSsid.length;
+        int apSsidCrc = CRC8.crc8(apSsid);
+        int apBssidCrc = CRC8.crc8(apBssid);
+        int _totalLen = (char) (EXTRA_HEAD_LEN + IP_LEN + apPwdLen + apSsidLen);
+        int totalLen = isSsidHiden ? _totalLen : (char) (EXTRA_HEAD_LEN + IP_LEN + apPwdLen);
+
+        // totalXor will xor apSsid no matter whether the ssid is hidden
+        int totalXor = _totalLen ^ apPwdLen ^ apSsidCrc ^ apBssidCrc;
+        for (byte b : ipAddr) {
+            totalXor ^= b & 0xff;
+        }
+        for (byte b : apPassword) {
+            totalXor ^= b & 0xff;
+        }
+        for (byte b : apSsid) {
+            totalXor ^= b & 0xff;
+        }
+
+        // the bssid data codes are put after the total xor, and after every 3 data codes
+        mApBssid = apBssid;
+        mBssidIndex = totalLen;
+        mBssidDone = 0;
+
+        int index = 0;
+        putHead(_totalLen, index++);
+        putHead(apPwdLen, index++);
+        putHead(apSsidCrc, index++);
+        putHead(apBssidCrc, index++);
+        putHead(totalXor, index++);
+        for (byte b : ipAddr) {
+            putHead(b & 0xff, index++);
+        }
+        for (byte b : apPassword) {
+            putHead(b & 0xff, index++);
+        }
+        if (isSsidHiden) {
+            for (byte b : apSsid) {
+                putHead(b & 0xff, index++);
+            }
+        }
+        while (mBssidDone < apBssid.length) {
+            putBssid();
+        }
+        mApBssid = null;
+
+        return mU8sLen;
+    }
+
+    /**
+     * Get the u8s encoded by the last {@link #encode}, the buffer is reused by the next call
+     *
+     * @return the u8s buffer, only the first {@link #encode} returned count are valid
+     */
+    public char[] getU8s() {
+        return mU8s;
+    }
+
+    private void putHead(int data, int index) {
+        put(data, index);
+        if (index >= BSSID_FIRST_INDEX && (index - BSSID_FIRST_INDEX) % BSSID_GAP == 0
+                && mBssidDone < mApBssid.length) {
+            putBssid();
+        }
+    }
+
+    private void putBssid() {
+        put(mApBssid[mBssidDone] & 0xff, mBssidIndex + mBssidDone);
+        mBssidDone++;
+    }
+
+    private void put(int data, int index) {
+        if (index > INDEX_MAX) {
+            throw new RuntimeException("index > INDEX_MAX");
+        }
+        if (data > U8_MAX) {
+            throw new RuntimeException("Out of Boundary");
+        }
+        int crc = CRC_TABLE[data << INDEX_BITS | index] & 0xff;
+        char[] u8s = mU8s;
+        int pos = mU8sLen;
+        // 0x00, crc(high) data(high)
+        u8s[pos] = (char) ((crc & 0xf0 | data >>> 4) + EXTRA_LEN);
+        // 0x01, sequence header
+        u8s[pos + 1] = (char) ((0x100 | index) + EXTRA_LEN);
+        // 0x00, crc(low) data(low)
+        u8s[pos + 2] = (char) (((crc & 0x0f) << 4 | data & 0x0f) + EXTRA_LEN);
+        mU8sLen = pos + U8S_PER_DATA_CODE;
+    }
+}
@@ -4,15 +4,31 @@ import com.espressif.iot.esptouch.task.IEsptouchGenerator;
 import com.espressif.iot.esptouch.util.ByteUtil;
 
 import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class EsptouchGenerator implements IEsptouchGenerator {
 
-    private final byte[][] mGcBytes2;
+    // the longest u8 is the guide code, the datum code is shorter than it
+    private static final int SPEC_BYTES_MAX_LEN = 0x200 + GuideCode.GUIDE_CODE_LEN;
+
+    // the sent content is always '1', so the byte[] of the same length could be shared
+    private static final AtomicReferenceArray<byte[]> sSpecBytes =
+            new AtomicReferenceArray<>(SPEC_BYTES_MAX_LEN);
+
+    private static final byte[][] sGcBytes2;
+
+    static {
+        char[] gcU81 = new GuideCode().getU8s();
+        sGcBytes2 = new byte[gcU81.length][];
+        for (int i = 0; i < sGcBytes2.length; i++) {
+            sGcBytes2[i] = getSpecBytes(gcU81[i]);
+        }
+    }
+
     private final byte[][] mDcBytes2;
 
     /**
-     * Constructor of EsptouchGenerator, it will cost some time(maybe a bit
-     * much)
+     * Constructor of EsptouchGenerator
      *
      * @param apSsid      the Ap's ssid
      * @param apBssid     the Ap's bssid
@@ -22,34 +38,52 @@ public class EsptouchGenerator implements IEsptouchGenerator {
      */
     public EsptouchGenerator(byte[] apSsid, byte[] apBssid, byte[] apPassword,
                              InetAddress inetAddress, boolean isSsidHiden) {
-        // generate guide code
-        GuideCode gc = new GuideCode();
-        char[] gcU81 = gc.getU8s();
-        mGcBytes2 = new byte[gcU81.length][];
-
-        for (int i = 0; i < mGcBytes2.length; i++) {
-            mGcBytes2[i] = ByteUtil.genSpecBytes(gcU81[i]);
-        }
-
         // generate data code
-        DatumCode dc = new DatumCode(apSsid, apBssid, apPassword, inetAddress,
+        DatumCodeEncoder encoder = DatumCodeEncoder.get();
+        int dcLen = encoder.encode(apSsid, apBssid, apPassword, inetAddress,
                 isSsidHiden);
-        char[] dcU81 = dc.getU8s();
-        mDcBytes2 = new byte[dcU81.length][];
+        char[] dcU81 = encoder.getU8s();
+        mDcBytes2 = new byte[dcLen][];
 
         for (int i = 0; i < mDcBytes2.length; i++) {
-            mDcBytes2[i] = ByteUtil.genSpecBytes(dcU81[i]);
+            mDcBytes2[i] = getSpecBytes(dcU81[i]);
+        }
+    }
+
+    /**
+     * Get the byte[] to be sent for the u8, the byte[] is shared and mustn't be modified
+     *
+     * @param u8 the length of the byte[]
+     * @return the byte[] filled by '1'
+     */
+    private static byte[] getSpecBytes(char u8) {
+        if (u8 >= SPEC_BYTES_MAX_LEN) {
+            return ByteUtil.genSpecBytes(u8);
         }
+        byte[] bytes = sSpecBytes.get(u8);
+        if (bytes == null) {
+            bytes = ByteUtil.genSpecBytes(u8);
+            if (!sSpecBytes.compareAndSet(u8, null, bytes)) {
+                bytes = sSpecBytes.get(u8);
+            }
+        }
+        return bytes;
     }
 
+    /**
+     * @return a copy of the guide code, the byte[]s in it are shared and mustn't be modified
+     */
     @Override
     public byte[][] getGCBytes2() {
-        return mGcBytes2;
+        return sGcBytes2.clone();
     }
 
+    /**
+     * @return a copy of the datum code, the byte[]s in it are shared and mustn't be modified
+     */
     @Override
     public byte[][] getDCBytes2() {
-        return mDcBytes2;
+        return mDcBytes2.clone();
     }
 
 }
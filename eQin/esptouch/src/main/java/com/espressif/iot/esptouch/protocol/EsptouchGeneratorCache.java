@@ -0,0 +1,184 @@
+package com.espressif.iot.esptouch.protocol;
+
+import com.espressif.iot.esptouch.task.IEsptouchGenerator;
+import com.espressif.iot.esptouch.util.EspAES;
+
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of {@link EsptouchGenerator}, the same Ap provisioned again from the same local
+ * address gets the codes generated last time.
+ * <p>
+ * The generators are keyed by the SHA-256 of the plain ssid, bssid and password, the local
+ * address and the configuration of the {@link EspAES}, so neither the password nor the AES
+ * key is kept. The ssid and password are encrypted only when the generator is generated, so
+ * with the random iv of CTR and GCM the cipher text of the first task is sent again by the
+ * following ones, the same as a retransmission of it.
+ */
+public class EsptouchGeneratorCache {
+
+    private static final int DEFAULT_MAX_SIZE = 16;
+
+    private static final EsptouchGeneratorCache sInstance = new EsptouchGeneratorCache(DEFAULT_MAX_SIZE);
+
+    private final Map<Key, IEsptouchGenerator> mGenerators;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * Constructor of EsptouchGeneratorCache
+     *
+     * @param maxSize the max count of generators kept, the least recently used one is
+     *                evicted when it is exceeded
+     */
+    public EsptouchGeneratorCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize should be positive");
+        }
+        mGenerators = new LinkedHashMap<Key, IEsptouchGenerator>(maxSize + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, IEsptouchGenerator> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the cache shared by the esptouch tasks and sessions
+     *
+     * @return the shared cache
+     */
+    public static EsptouchGeneratorCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Get the generator of the arguments, it is generated if it isn't cached
+     *
+     * @param apSsid      the Ap's ssid, not encrypted
+     * @param apBssid     the Ap's bssid
+     * @param apPassword  the Ap's password, not encrypted
+     * @param espAES      the AES to encrypt the ssid and the password, null if they are sent
+     *                    as they are
+     * @param inetAddress the phone's or pad's local ip address allocated by Ap
+     * @param isSsidHiden whether the Ap's ssid is hidden
+     * @return the generator
+     */
+    public IEsptouchGenerator get(byte[] apSsid, byte[] apBssid, byte[] apPassword, EspAES espAES,
+                                  InetAddress inetAddress, boolean isSsidHiden) {
+        if (inetAddress == null) {
+            // let the generator report the invalid address
+            return __generate(apSsid, apBssid, apPassword, espAES, inetAddress, isSsidHiden);
+        }
+        Key key = new Key(apSsid, apBssid, apPassword, espAES, inetAddress.getAddress(), isSsidHiden);
+        synchronized (mGenerators) {
+            IEsptouchGenerator generator = mGenerators.get(key);
+            if (generator != null) {
+                mHitCount++;
+                return generator;
+            }
+            mMissCount++;
+        }
+        // generate without the lock, the same generator may be generated twice at worst
+        IEsptouchGenerator generator = __generate(apSsid, apBssid, apPassword, espAES, inetAddress,
+                isSsidHiden);
+        synchronized (mGenerators) {
+            mGenerators.put(key, generator);
+        }
+        return generator;
+    }
+
+    public long getHitCount() {
+        synchronized (mGenerators) {
+            return mHitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (mGenerators) {
+            return mMissCount;
+        }
+    }
+
+    public int size() {
+        synchronized (mGenerators) {
+            return mGenerators.size();
+        }
+    }
+
+    /**
+     * Evict all of the generators, the hit and miss counts are kept
+     */
+    public void clear() {
+        synchronized (mGenerators) {
+            mGenerators.clear();
+        }
+    }
+
+    private static IEsptouchGenerator __generate(byte[] apSsid, byte[] apBssid, byte[] apPassword,
+                                                 EspAES espAES, InetAddress inetAddress,
+                                                 boolean isSsidHiden) {
+        if (espAES != null) {
+            apSsid = espAES.encrypt(apSsid);
+            apPassword = espAES.encrypt(apPassword);
+        }
+        return new EsptouchGenerator(apSsid, apBssid, apPassword, inetAddress, isSsidHiden);
+    }
+
+    private static class Key {
+        private final byte[] mDigest;
+        private final int mHashCode;
+
+        private Key(byte[] apSsid, byte[] apBssid, byte[] apPassword, EspAES espAES,
+                    byte[] inetAddress, boolean isSsidHiden) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            // every field is prefixed by its length, so they can't run into each other
+            __update(digest, apSsid);
+            __update(digest, apBssid);
+            __update(digest, apPassword);
+            __update(digest, inetAddress);
+            digest.update((byte) (isSsidHiden ? 1 : 0));
+            if (espAES == null) {
+                digest.update((byte) 0);
+            } else {
+                digest.update((byte) 1);
+                espAES.digestConfig(digest);
+            }
+            mDigest = digest.digest();
+            mHashCode = Arrays.hashCode(mDigest);
+        }
+
+        private static void __update(MessageDigest digest, byte[] field) {
+            digest.update((byte) (field.length >>> 8));
+            digest.update((byte) field.length);
+            digest.update(field);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mHashCode == key.mHashCode && Arrays.equals(mDigest, key.mDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
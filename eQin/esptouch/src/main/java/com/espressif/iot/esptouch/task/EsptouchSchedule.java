@@ -0,0 +1,154 @@
+package com.espressif.iot.esptouch.task;
+
+import com.espressif.iot.esptouch.util.EspLog;
+
+/**
+ * The sending schedule of the esptouch task. It returns the values of
+ * {@link IEsptouchTaskParameter} as they are, unless the adaptive schedule is enabled by
+ * {@link IEsptouchTaskParameter#isAdaptiveSchedule()}. In adaptive mode:
+ * <ul>
+ * <li>the interval between packets is doubled when the sending fails (the Ap drops the
+ * packets sent too fast), and goes back to the parameter step by step when it succeeds</li>
+ * <li>the guide code is shortened when a device is confirmed, for at least one device has
+ * synchronized: halved if the first ack came within the first round, cut by a quarter if the
+ * devices took longer, and shortened further by the share of the expected devices confirmed.
+ * It is restored when no device is confirmed for two rounds</li>
+ * </ul>
+ * The acks of the devices confirmed already don't change the schedule.
+ */
+public class EsptouchSchedule {
+
+    private static final String TAG = "EsptouchSchedule";
+
+    private static final long MAX_INTERVAL_MILLISECOND = 32;
+    private static final long MIN_TIMEOUT_GUIDE_CODE_MILLISECOND = 500;
+    // the count of packets sent without failure before the interval is decreased
+    private static final long DECREASE_WINDOW = 64;
+
+    private final IEsptouchTaskParameter mParameter;
+    private final boolean mIsAdaptive;
+    private final long mStartTime;
+
+    private long mIntervalGuideCode;
+    private long mIntervalDataCode;
+    private long mTimeoutGuideCode;
+
+    private long mFirstAckTime = -1;
+    private long mLastAckTime = -1;
+    private int mResultCount;
+    private long mLastSentCount;
+    private long mLastFailedCount;
+
+    public EsptouchSchedule(IEsptouchTaskParameter parameter) {
+        mParameter = parameter;
+        mIsAdaptive = parameter.isAdaptiveSchedule();
+        mStartTime = System.currentTimeMillis();
+        mIntervalGuideCode = parameter.getIntervalGuideCodeMillisecond();
+        mIntervalDataCode = parameter.getIntervalDataCodeMillisecond();
+        mTimeoutGuideCode = parameter.getTimeoutGuideCodeMillisecond();
+    }
+
+    public synchronized long getIntervalGuideCodeMillisecond() {
+        return mIntervalGuideCode;
+    }
+
+    public synchronized long getIntervalDataCodeMillisecond() {
+        return mIntervalDataCode;
+    }
+
+    public synchronized long getTimeoutGuideCodeMillisecond() {
+        return mTimeoutGuideCode;
+    }
+
+    public synchronized long getTimeoutTotalCodeMillisecond() {
+        return mTimeoutGuideCode + mParameter.getTimeoutDataCodeMillisecond();
+    }
+
+    /**
+     * get the milliseconds from the start of the schedule to the first ack
+     *
+     * @return the milliseconds to the first ack, or -1 if no ack is received
+     */
+    public synchronized long getTimeToFirstAckMillisecond() {
+        return mFirstAckTime < 0 ? -1 : mFirstAckTime - mStartTime;
+    }
+
+    public synchronized int getResultCount() {
+        return mResultCount;
+    }
+
+    /**
+     * the correct ack is received
+     *
+     * @param resultCount the count of the devices confirmed until now
+     */
+    public synchronized void onAck(int resultCount) {
+        long now = System.currentTimeMillis();
+        if (mFirstAckTime < 0) {
+            mFirstAckTime = now;
+            if (__IEsptouchTask.DEBUG) {
+                EspLog.d(TAG, "first ack after " + (now - mStartTime) + " ms");
+            }
+        }
+        if (resultCount <= mResultCount) {
+            // a device confirmed already
+            return;
+        }
+        mResultCount = resultCount;
+        mLastAckTime = now;
+        if (mIsAdaptive) {
+            mTimeoutGuideCode = __guideTimeoutAfterAck();
+            if (__IEsptouchTask.DEBUG) {
+                EspLog.d(TAG, resultCount + " confirmed, guide timeout: " + mTimeoutGuideCode);
+            }
+        }
+    }
+
+    /**
+     * report the packets sent by the client until now
+     *
+     * @param sentCount   the count of packets sent successfully
+     * @param failedCount the count of packets failed to be sent
+     */
+    public synchronized void onSendReport(long sentCount, long failedCount) {
+        if (!mIsAdaptive) {
+            return;
+        }
+        if (failedCount > mLastFailedCount) {
+            mIntervalGuideCode = __increase(mIntervalGuideCode, mParameter.getIntervalGuideCodeMillisecond());
+            mIntervalDataCode = __increase(mIntervalDataCode, mParameter.getIntervalDataCodeMillisecond());
+            mLastFailedCount = failedCount;
+            mLastSentCount = sentCount;
+            if (__IEsptouchTask.DEBUG) {
+                EspLog.d(TAG, "sending failed, interval: " + mIntervalGuideCode + ", " + mIntervalDataCode);
+            }
+        } else if (sentCount - mLastSentCount >= DECREASE_WINDOW) {
+            mIntervalGuideCode = Math.max(mParameter.getIntervalGuideCodeMillisecond(), mIntervalGuideCode - 1);
+            mIntervalDataCode = Math.max(mParameter.getIntervalDataCodeMillisecond(), mIntervalDataCode - 1);
+            mLastSentCount = sentCount;
+        }
+        // no ack for two rounds, the devices left may have missed the guide code
+        if (mLastAckTime >= 0 && mTimeoutGuideCode < mParameter.getTimeoutGuideCodeMillisecond()
+                && System.currentTimeMillis() - mLastAckTime
+                > 2 * mParameter.getTimeoutTotalCodeMillisecond()) {
+            mTimeoutGuideCode = mParameter.getTimeoutGuideCodeMillisecond();
+        }
+    }
+
+    private long __guideTimeoutAfterAck() {
+        double factor = mFirstAckTime - mStartTime <= mParameter.getTimeoutTotalCodeMillisecond()
+                ? 0.5 : 0.75;
+        // the guide code is for the devices left only
+        int expected = mParameter.getExpectTaskResultCount();
+        if (expected > 1 && expected < Integer.MAX_VALUE) {
+            factor *= (double) (expected - Math.min(mResultCount, expected - 1)) / expected;
+        }
+        return Math.max(MIN_TIMEOUT_GUIDE_CODE_MILLISECOND,
+                (long) (mParameter.getTimeoutGuideCodeMillisecond() * factor));
+    }
+
+    private static long __increase(long interval, long baseInterval) {
+        long increased = Math.min(MAX_INTERVAL_MILLISECOND, Math.max(1, interval * 2));
+        return Math.max(baseInterval, increased);
+    }
+}
@@ -18,6 +18,7 @@ public class EsptouchTaskParameter implements IEsptouchTaskParameter {
     private int mWaitUdpSendingMillisecond;
     private int mThresholdSucBroadcastCount;
     private int mExpectTaskResultCount;
+    private boolean mIsAdaptiveSchedule;
 
     public EsptouchTaskParameter() {
         mIntervalGuideCodeMillisecond = 8;
@@ -35,6 +36,7 @@ public class EsptouchTaskParameter implements IEsptouchTaskParameter {
         mWaitUdpSendingMillisecond = 45000;
         mThresholdSucBroadcastCount = 1;
         mExpectTaskResultCount = 1;
+        mIsAdaptiveSchedule = false;
     }
 
     // the range of the result should be 1-100
@@ -153,4 +155,14 @@ public class EsptouchTaskParameter implements IEsptouchTaskParameter {
         this.mExpectTaskResultCount = expectTaskResultCount;
     }
 
+    @Override
+    public boolean isAdaptiveSchedule() {
+        return mIsAdaptiveSchedule;
+    }
+
+    @Override
+    public void setAdaptiveSchedule(boolean adaptiveSchedule) {
+        this.mIsAdaptiveSchedule = adaptiveSchedule;
+    }
+
 }
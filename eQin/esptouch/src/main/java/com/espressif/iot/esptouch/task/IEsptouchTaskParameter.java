@@ -146,4 +146,18 @@ public interface IEsptouchTaskParameter {
      * @param expectTaskResultCount the count of expect task results
      */
     void setExpectTaskResultCount(int expectTaskResultCount);
+
+    /**
+     * whether the sending schedule adapts to the acks and the sending failures
+     *
+     * @return whether the sending schedule is adaptive
+     */
+    boolean isAdaptiveSchedule();
+
+    /**
+     * set whether the sending schedule adapts to the acks and the sending failures
+     *
+     * @param adaptiveSchedule whether the sending schedule is adaptive
+     */
+    void setAdaptiveSchedule(boolean adaptiveSchedule);
 }
@@ -0,0 +1,305 @@
+package com.espressif.iot.esptouch.task;
+
+import com.espressif.iot.esptouch.EsptouchResult;
+import com.espressif.iot.esptouch.IEsptouchListener;
+import com.espressif.iot.esptouch.IEsptouchResult;
+import com.espressif.iot.esptouch.platform.IEsptouchPlatform;
+import com.espressif.iot.esptouch.protocol.EsptouchGeneratorCache;
+import com.espressif.iot.esptouch.protocol.TouchData;
+import com.espressif.iot.esptouch.udp.IUDPReceiver;
+import com.espressif.iot.esptouch.udp.IUDPSender;
+import com.espressif.iot.esptouch.util.ByteUtil;
+import com.espressif.iot.esptouch.util.EspAES;
+import com.espressif.iot.esptouch.util.EspLog;
+import com.espressif.iot.esptouch.util.EspNetUtil;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The long-lived counterpart of {@link __EsptouchTask}. It keeps broadcasting the guide
+ * code and data code of one Ap while the shared {@link IUDPReceiver} collects the
+ * devices' acks.
+ * The broadcasting pauses when the expect result count is reached and goes on when
+ * the expect result count is raised again.
+ */
+public class __EsptouchSession {
+    private static final int ONE_DATA_LEN = 3;
+
+    private static final String TAG = "__EsptouchSession";
+
+    // not encrypted, the generator cache encrypts them by mEspAES
+    private final byte[] mApSsid;
+    private final byte[] mApPassword;
+    private final byte[] mApBssid;
+    private final EspAES mEspAES;
+    private final boolean mIsSsidHidden;
+    private final IEsptouchPlatform mPlatform;
+    private final IEsptouchTaskParameter mParameter;
+    private final ConcurrentMap<String, AtomicInteger> mBssidTaskSucCountMap;
+    private final List<IEsptouchResult> mEsptouchResultList;
+    private final AtomicInteger mExpectResultCount;
+    private final AtomicBoolean mIsStarted;
+    // the sender waits on it while the expect result count is reached
+    private final Object mExpectLock = new Object();
+    private volatile boolean mIsInterrupt = false;
+    private volatile IEsptouchListener mEsptouchListener;
+    private IUDPSender mSocketClient;
+    private IUDPReceiver mSocketServer;
+    private IUDPReceiver.Registration mRegistration;
+    private EsptouchSchedule mSchedule;
+    private Thread mSendTask;
+
+    public __EsptouchSession(IEsptouchPlatform platform, TouchData apSsid, TouchData apBssid,
+                             TouchData apPassword, EspAES espAES, IEsptouchTaskParameter parameter,
+                             boolean isSsidHidden) {
+        mPlatform = platform;
+        mApSsid = apSsid.getData();
+        mApPassword = apPassword.getData();
+        mEspAES = espAES;
+        mApBssid = apBssid.getData();
+        mParameter = parameter;
+        mIsSsidHidden = isSsidHidden;
+        mBssidTaskSucCountMap = new ConcurrentHashMap<>();
+        mEsptouchResultList = new CopyOnWriteArrayList<>();
+        mExpectResultCount = new AtomicInteger(Integer.MAX_VALUE);
+        mIsStarted = new AtomicBoolean(false);
+    }
+
+    public void setEsptouchListener(IEsptouchListener esptouchListener) {
+        mEsptouchListener = esptouchListener;
+    }
+
+    /**
+     * Start broadcasting and listening, the session could be started only once
+     */
+    public synchronized void start() {
+        if (!mIsStarted.compareAndSet(false, true)) {
+            throw new IllegalStateException(
+                    "the Esptouch session could be started only once");
+        }
+        InetAddress localInetAddress = mPlatform.getLocalInetAddress();
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.i(TAG, "localInetAddress: " + localInetAddress);
+        }
+        final IEsptouchGenerator generator = EsptouchGeneratorCache.getInstance().get(mApSsid, mApBssid,
+                mApPassword, mEspAES, localInetAddress, mIsSsidHidden);
+        mSocketClient = mPlatform.createSender();
+        mSchedule = new EsptouchSchedule(mParameter);
+        mSocketServer = mPlatform.acquireReceiver(mParameter.getPortListening());
+        if (mSocketServer == null) {
+            mSocketClient.close();
+            throw new IllegalStateException("can't listen on port " + mParameter.getPortListening());
+        }
+        __listen(mParameter.getEsptouchResultTotalLen());
+
+        mSendTask = new Thread(TAG + "-send") {
+            @Override
+            public void run() {
+                try {
+                    __send(generator);
+                } finally {
+                    // the sender may return from the pause without sending, close the channel here
+                    mSocketClient.close();
+                }
+            }
+        };
+        mSendTask.start();
+    }
+
+    /**
+     * Stop broadcasting and listening, the results confirmed are kept
+     */
+    public synchronized void stop() {
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.d(TAG, "stop()");
+        }
+        if (mIsInterrupt) {
+            return;
+        }
+        mIsInterrupt = true;
+        synchronized (mExpectLock) {
+            mExpectLock.notifyAll();
+        }
+        if (mSocketClient != null) {
+            mSocketClient.interrupt();
+        }
+        if (mRegistration != null) {
+            mRegistration.cancel();
+            mRegistration = null;
+        }
+        if (mSocketServer != null) {
+            mSocketServer.release();
+            mSocketServer = null;
+        }
+        if (mSendTask != null) {
+            mSendTask.interrupt();
+            mSendTask = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return mIsStarted.get() && !mIsInterrupt;
+    }
+
+    public int getExpectResultCount() {
+        return mExpectResultCount.get();
+    }
+
+    /**
+     * Set the expect result count
+     *
+     * @param expectResultCount the expect result count, Integer.MAX_VALUE if it is <= 0
+     */
+    public void setExpectResultCount(int expectResultCount) {
+        mExpectResultCount.set(expectResultCount <= 0 ? Integer.MAX_VALUE : expectResultCount);
+        __notifyExpectChanged();
+    }
+
+    /**
+     * Raise or lower the expect result count
+     *
+     * @param delta the count to be added, it could be negative
+     * @return the new expect result count
+     */
+    public int addExpectResultCount(int delta) {
+        int current;
+        int next;
+        do {
+            current = mExpectResultCount.get();
+            long sum = (long) current + delta;
+            next = (int) Math.max(0, Math.min(Integer.MAX_VALUE, sum));
+        } while (!mExpectResultCount.compareAndSet(current, next));
+        __notifyExpectChanged();
+        return next;
+    }
+
+    /**
+     * Get the results confirmed so far
+     *
+     * @return the snapshot of the results confirmed
+     */
+    public List<IEsptouchResult> getResults() {
+        return new ArrayList<>(mEsptouchResultList);
+    }
+
+    private boolean __isExpectReached() {
+        return mEsptouchResultList.size() >= mExpectResultCount.get();
+    }
+
+    private void __notifyExpectChanged() {
+        synchronized (mExpectLock) {
+            mExpectLock.notifyAll();
+        }
+    }
+
+    private void __putEsptouchResult(String bssid, InetAddress inetAddress) {
+        AtomicInteger count = mBssidTaskSucCountMap.get(bssid);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = mBssidTaskSucCountMap.putIfAbsent(bssid, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        int current = count.incrementAndGet();
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.d(TAG, "__putEsptouchResult(): bssid = " + bssid + ", count = " + current);
+        }
+        // only the ack reaching the threshold adds the result, so it is added exactly once
+        if (current != mParameter.getThresholdSucBroadcastCount()) {
+            return;
+        }
+        IEsptouchResult esptouchResult = new EsptouchResult(true, bssid, inetAddress);
+        mEsptouchResultList.add(esptouchResult);
+        mSchedule.onAck(mEsptouchResultList.size());
+        IEsptouchListener listener = mEsptouchListener;
+        if (listener != null) {
+            listener.onEsptouchResultAdded(esptouchResult);
+        }
+    }
+
+    private void __listen(int expectDataLen) {
+        byte expectOneByte = (byte) (__getSentLength(mApSsid) + __getSentLength(mApPassword) + 9);
+        // no timeout, the session listens until it is stopped
+        mRegistration = mSocketServer.register(expectDataLen, expectOneByte, 0,
+                new IUDPReceiver.OnReceiveListener() {
+                    @Override
+                    public void onReceive(byte[] receiveBytes) {
+                        String bssid = ByteUtil.parseBssid(receiveBytes,
+                                mParameter.getEsptouchResultOneLen(),
+                                mParameter.getEsptouchResultMacLen());
+                        InetAddress inetAddress = EspNetUtil.parseInetAddr(receiveBytes,
+                                mParameter.getEsptouchResultOneLen() + mParameter.getEsptouchResultMacLen(),
+                                mParameter.getEsptouchResultIpLen());
+                        __putEsptouchResult(bssid, inetAddress);
+                    }
+
+                    @Override
+                    public void onTimeout() {
+                    }
+                });
+    }
+
+    private void __send(IEsptouchGenerator generator) {
+        EsptouchSchedule schedule = mSchedule;
+        byte[][] gcBytes2 = generator.getGCBytes2();
+        byte[][] dcBytes2 = generator.getDCBytes2();
+
+        long currentTime = System.currentTimeMillis();
+        long lastTime = currentTime - schedule.getTimeoutTotalCodeMillisecond();
+        int index = 0;
+        while (!mIsInterrupt) {
+            if (__isExpectReached()) {
+                synchronized (mExpectLock) {
+                    while (!mIsInterrupt && __isExpectReached()) {
+                        try {
+                            mExpectLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                // the devices to come may have missed the guide code, send it again
+                currentTime = System.currentTimeMillis();
+                lastTime = currentTime - schedule.getTimeoutTotalCodeMillisecond();
+                continue;
+            }
+            if (currentTime - lastTime >= schedule.getTimeoutTotalCodeMillisecond()) {
+                // send guide code
+                while (!mIsInterrupt
+                        && System.currentTimeMillis() - currentTime < schedule
+                        .getTimeoutGuideCodeMillisecond()) {
+                    mSocketClient.sendData(gcBytes2,
+                            mParameter.getTargetHostname(),
+                            mParameter.getTargetPort(),
+                            schedule.getIntervalGuideCodeMillisecond());
+                    schedule.onSendReport(mSocketClient.getSentPacketCount(),
+                            mSocketClient.getFailedPacketCount());
+                }
+                lastTime = currentTime;
+            } else {
+                mSocketClient.sendData(dcBytes2, index, ONE_DATA_LEN,
+                        mParameter.getTargetHostname(),
+                        mParameter.getTargetPort(),
+                        schedule.getIntervalDataCodeMillisecond());
+                schedule.onSendReport(mSocketClient.getSentPacketCount(),
+                        mSocketClient.getFailedPacketCount());
+                index = (index + ONE_DATA_LEN) % dcBytes2.length;
+            }
+            currentTime = System.currentTimeMillis();
+        }
+    }
+
+    // the length of the data in the datum code, the cipher text is as long as the output size
+    // of a fresh encryption
+    private int __getSentLength(byte[] data) {
+        return mEspAES == null ? data.length : mEspAES.getEncryptOutputSize(data.length);
+    }
+}
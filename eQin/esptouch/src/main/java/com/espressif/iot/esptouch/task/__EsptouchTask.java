@@ -1,19 +1,17 @@
 package com.espressif.iot.esptouch.task;
 
-import android.content.Context;
-import android.os.Looper;
-import android.util.Log;
-
 import com.espressif.iot.esptouch.EsptouchResult;
 import com.espressif.iot.esptouch.IEsptouchListener;
 import com.espressif.iot.esptouch.IEsptouchResult;
 import com.espressif.iot.esptouch.IEsptouchTask;
-import com.espressif.iot.esptouch.protocol.EsptouchGenerator;
+import com.espressif.iot.esptouch.platform.IEsptouchPlatform;
+import com.espressif.iot.esptouch.protocol.EsptouchGeneratorCache;
 import com.espressif.iot.esptouch.protocol.TouchData;
-import com.espressif.iot.esptouch.udp.UDPSocketClient;
-import com.espressif.iot.esptouch.udp.UDPSocketServer;
+import com.espressif.iot.esptouch.udp.IUDPReceiver;
+import com.espressif.iot.esptouch.udp.IUDPSender;
 import com.espressif.iot.esptouch.util.ByteUtil;
 import com.espressif.iot.esptouch.util.EspAES;
+import com.espressif.iot.esptouch.util.EspLog;
 import com.espressif.iot.esptouch.util.EspNetUtil;
 
 import java.net.InetAddress;
@@ -21,6 +19,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class __EsptouchTask implements __IEsptouchTask {
@@ -28,13 +28,17 @@ public class __EsptouchTask implements __IEsptouchTask {
 
     private static final String TAG = "__EsptouchTask";
 
-    private final UDPSocketClient mSocketClient;
-    private final UDPSocketServer mSocketServer;
+    private final IUDPSender mSocketClient;
+    private IUDPReceiver mSocketServer;
+    private IUDPReceiver.Registration mRegistration;
+    private final CountDownLatch mFinishLatch = new CountDownLatch(1);
+    // not encrypted, the generator cache encrypts them by mEspAES
     private final byte[] mApSsid;
     private final byte[] mApPassword;
     private final byte[] mApBssid;
+    private final EspAES mEspAES;
     private final boolean mIsSsidHidden;
-    private final Context mContext;
+    private final IEsptouchPlatform mPlatform;
     private volatile List<IEsptouchResult> mEsptouchResultList;
     private volatile boolean mIsSuc = false;
     private volatile boolean mIsInterrupt = false;
@@ -43,24 +47,18 @@ public class __EsptouchTask implements __IEsptouchTask {
     private IEsptouchTaskParameter mParameter;
     private volatile Map<String, Integer> mBssidTaskSucCountMap;
     private IEsptouchListener mEsptouchListener;
-    private Thread mTask;
+    private volatile EsptouchSchedule mSchedule;
 
-    public __EsptouchTask(Context context, TouchData apSsid, TouchData apBssid, TouchData apPassword, EspAES espAES,
-                          IEsptouchTaskParameter parameter, boolean isSsidHidden) {
-        mContext = context;
-        if (espAES == null) {
-            mApSsid = apSsid.getData();
-            mApPassword = apPassword.getData();
-        } else {
-            mApSsid = espAES.encrypt(apSsid.getData());
-            mApPassword = espAES.encrypt(apPassword.getData());
-        }
+    public __EsptouchTask(IEsptouchPlatform platform, TouchData apSsid, TouchData apBssid, TouchData apPassword,
+                          EspAES espAES, IEsptouchTaskParameter parameter, boolean isSsidHidden) {
+        mPlatform = platform;
+        mApSsid = apSsid.getData();
+        mApPassword = apPassword.getData();
+        mEspAES = espAES;
         mApBssid = apBssid.getData();
         mIsCancelled = new AtomicBoolean(false);
-        mSocketClient = new UDPSocketClient();
+        mSocketClient = platform.createSender();
         mParameter = parameter;
-        mSocketServer = new UDPSocketServer(mParameter.getPortListening(),
-                mParameter.getWaitUdpTotalMillisecond(), context);
         mIsSsidHidden = isSsidHidden;
         mEsptouchResultList = new ArrayList<>();
         mBssidTaskSucCountMap = new HashMap<>();
@@ -75,14 +73,14 @@ public class __EsptouchTask implements __IEsptouchTask {
             }
             ++count;
             if (__IEsptouchTask.DEBUG) {
-                Log.d(TAG, "__putEsptouchResult(): count = " + count);
+                EspLog.d(TAG, "__putEsptouchResult(): count = " + count);
             }
             mBssidTaskSucCountMap.put(bssid, count);
             isTaskSucCountEnough = count >= mParameter
                     .getThresholdSucBroadcastCount();
             if (!isTaskSucCountEnough) {
                 if (__IEsptouchTask.DEBUG) {
-                    Log.d(TAG, "__putEsptouchResult(): count = " + count
+                    EspLog.d(TAG, "__putEsptouchResult(): count = " + count
                             + ", isn't enough");
                 }
                 return;
@@ -98,7 +96,7 @@ public class __EsptouchTask implements __IEsptouchTask {
             // only add the result who isn't in the mEsptouchResultList
             if (!isExist) {
                 if (__IEsptouchTask.DEBUG) {
-                    Log.d(TAG, "__putEsptouchResult(): put one more result");
+                    EspLog.d(TAG, "__putEsptouchResult(): put one more result");
                 }
                 final IEsptouchResult esptouchResult = new EsptouchResult(isSuc,
                         bssid, inetAddress);
@@ -127,127 +125,113 @@ public class __EsptouchTask implements __IEsptouchTask {
         if (!mIsInterrupt) {
             mIsInterrupt = true;
             mSocketClient.interrupt();
-            mSocketServer.interrupt();
-            if (mTask != null) {
-                mTask.interrupt();
-                mTask = null;
+            if (mRegistration != null) {
+                mRegistration.cancel();
+                mRegistration = null;
             }
+            if (mSocketServer != null) {
+                mSocketServer.release();
+                mSocketServer = null;
+            }
+            mFinishLatch.countDown();
         }
     }
 
     @Override
     public void interrupt() {
         if (__IEsptouchTask.DEBUG) {
-            Log.d(TAG, "interrupt()");
+            EspLog.d(TAG, "interrupt()");
         }
         mIsCancelled.set(true);
         __interrupt();
     }
 
-    private void __listenAsyn(final int expectDataLen) {
-        mTask = new Thread() {
-            public void run() {
-                if (__IEsptouchTask.DEBUG) {
-                    Log.d(TAG, "__listenAsyn() start");
-                }
-                long startTimestamp = System.currentTimeMillis();
-//                byte[] apSsidAndPassword = ByteUtil.getBytesByString(mApSsid
-//                        + mApPassword);
-                byte expectOneByte = (byte) (mApSsid.length + mApPassword.length + 9);
-                if (__IEsptouchTask.DEBUG) {
-                    Log.i(TAG, "expectOneByte: " + (0 + expectOneByte));
-                }
-                byte receiveOneByte = -1;
-                byte[] receiveBytes = null;
-                while (mEsptouchResultList.size() < mParameter
-                        .getExpectTaskResultCount() && !mIsInterrupt) {
-                    receiveBytes = mSocketServer
-                            .receiveSpecLenBytes(expectDataLen);
-                    if (receiveBytes != null) {
-                        receiveOneByte = receiveBytes[0];
-                    } else {
-                        receiveOneByte = -1;
-                    }
-                    if (receiveOneByte == expectOneByte) {
+    private synchronized void __listenAsyn(final int expectDataLen) {
+        if (mIsInterrupt) {
+            return;
+        }
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.d(TAG, "__listenAsyn() start");
+        }
+        byte expectOneByte = (byte) (__getSentLength(mApSsid) + __getSentLength(mApPassword) + 9);
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.i(TAG, "expectOneByte: " + (0 + expectOneByte));
+        }
+        mSocketServer = mPlatform.acquireReceiver(mParameter.getPortListening());
+        if (mSocketServer == null) {
+            // no ack could be received, so don't broadcast for nothing
+            EspLog.e(TAG, "__listenAsyn() can't listen on port " + mParameter.getPortListening());
+            __finishListen();
+            return;
+        }
+        // the acks are received by the thread of the server shared with the other tasks
+        mRegistration = mSocketServer.register(expectDataLen, expectOneByte,
+                mParameter.getWaitUdpTotalMillisecond(), new IUDPReceiver.OnReceiveListener() {
+                    @Override
+                    public void onReceive(byte[] receiveBytes) {
                         if (__IEsptouchTask.DEBUG) {
-                            Log.i(TAG, "receive correct broadcast");
+                            EspLog.i(TAG, "receive correct broadcast");
                         }
-                        // change the socket's timeout
-                        long consume = System.currentTimeMillis()
-                                - startTimestamp;
-                        int timeout = (int) (mParameter
-                                .getWaitUdpTotalMillisecond() - consume);
-                        if (timeout < 0) {
-                            if (__IEsptouchTask.DEBUG) {
-                                Log.i(TAG, "esptouch timeout");
-                            }
-                            break;
-                        } else {
-                            if (__IEsptouchTask.DEBUG) {
-                                Log.i(TAG, "mSocketServer's new timeout is "
-                                        + timeout + " milliseconds");
-                            }
-                            mSocketServer.setSoTimeout(timeout);
-                            if (__IEsptouchTask.DEBUG) {
-                                Log.i(TAG, "receive correct broadcast");
-                            }
-                            if (receiveBytes != null) {
-                                String bssid = ByteUtil.parseBssid(
-                                        receiveBytes,
-                                        mParameter.getEsptouchResultOneLen(),
-                                        mParameter.getEsptouchResultMacLen());
-                                InetAddress inetAddress = EspNetUtil
-                                        .parseInetAddr(
-                                                receiveBytes,
-                                                mParameter
-                                                        .getEsptouchResultOneLen()
-                                                        + mParameter
-                                                        .getEsptouchResultMacLen(),
-                                                mParameter
-                                                        .getEsptouchResultIpLen());
-                                __putEsptouchResult(true, bssid, inetAddress);
-                            }
+                        String bssid = ByteUtil.parseBssid(
+                                receiveBytes,
+                                mParameter.getEsptouchResultOneLen(),
+                                mParameter.getEsptouchResultMacLen());
+                        InetAddress inetAddress = EspNetUtil.parseInetAddr(
+                                receiveBytes,
+                                mParameter.getEsptouchResultOneLen()
+                                        + mParameter.getEsptouchResultMacLen(),
+                                mParameter.getEsptouchResultIpLen());
+                        __putEsptouchResult(true, bssid, inetAddress);
+                        mSchedule.onAck(mEsptouchResultList.size());
+                        if (mEsptouchResultList.size() >= mParameter.getExpectTaskResultCount()) {
+                            __finishListen();
                         }
-                    } else {
+                    }
+
+                    @Override
+                    public void onTimeout() {
                         if (__IEsptouchTask.DEBUG) {
-                            Log.i(TAG, "receive rubbish message, just ignore");
+                            EspLog.i(TAG, "esptouch timeout");
                         }
+                        __finishListen();
                     }
-                }
-                mIsSuc = mEsptouchResultList.size() >= mParameter
-                        .getExpectTaskResultCount();
-                __EsptouchTask.this.__interrupt();
-                if (__IEsptouchTask.DEBUG) {
-                    Log.d(TAG, "__listenAsyn() finish");
-                }
-            }
-        };
-        mTask.start();
+                });
+    }
+
+    private void __finishListen() {
+        mIsSuc = mEsptouchResultList.size() >= mParameter
+                .getExpectTaskResultCount();
+        __interrupt();
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.d(TAG, "__listenAsyn() finish");
+        }
     }
 
-    private boolean __execute(IEsptouchGenerator generator) {
+    private boolean __execute(IEsptouchGenerator generator, EsptouchSchedule schedule) {
 
         long startTime = System.currentTimeMillis();
         long currentTime = startTime;
-        long lastTime = currentTime - mParameter.getTimeoutTotalCodeMillisecond();
+        long lastTime = currentTime - schedule.getTimeoutTotalCodeMillisecond();
 
         byte[][] gcBytes2 = generator.getGCBytes2();
         byte[][] dcBytes2 = generator.getDCBytes2();
 
         int index = 0;
         while (!mIsInterrupt) {
-            if (currentTime - lastTime >= mParameter.getTimeoutTotalCodeMillisecond()) {
+            if (currentTime - lastTime >= schedule.getTimeoutTotalCodeMillisecond()) {
                 if (__IEsptouchTask.DEBUG) {
-                    Log.d(TAG, "send gc code ");
+                    EspLog.d(TAG, "send gc code ");
                 }
                 // send guide code
                 while (!mIsInterrupt
-                        && System.currentTimeMillis() - currentTime < mParameter
+                        && System.currentTimeMillis() - currentTime < schedule
                         .getTimeoutGuideCodeMillisecond()) {
                     mSocketClient.sendData(gcBytes2,
                             mParameter.getTargetHostname(),
                             mParameter.getTargetPort(),
-                            mParameter.getIntervalGuideCodeMillisecond());
+                            schedule.getIntervalGuideCodeMillisecond());
+                    schedule.onSendReport(mSocketClient.getSentPacketCount(),
+                            mSocketClient.getFailedPacketCount());
                     // check whether the udp is send enough time
                     if (System.currentTimeMillis() - startTime > mParameter.getWaitUdpSendingMillisecond()) {
                         break;
@@ -258,7 +242,9 @@ public class __EsptouchTask implements __IEsptouchTask {
                 mSocketClient.sendData(dcBytes2, index, ONE_DATA_LEN,
                         mParameter.getTargetHostname(),
                         mParameter.getTargetPort(),
-                        mParameter.getIntervalDataCodeMillisecond());
+                        schedule.getIntervalDataCodeMillisecond());
+                schedule.onSendReport(mSocketClient.getSentPacketCount(),
+                        mSocketClient.getFailedPacketCount());
                 index = (index + ONE_DATA_LEN) % dcBytes2.length;
             }
             currentTime = System.currentTimeMillis();
@@ -298,42 +284,39 @@ public class __EsptouchTask implements __IEsptouchTask {
         mParameter.setExpectTaskResultCount(expectTaskResultCount);
 
         if (__IEsptouchTask.DEBUG) {
-            Log.d(TAG, "execute()");
+            EspLog.d(TAG, "execute()");
         }
-        if (Looper.myLooper() == Looper.getMainLooper()) {
+        if (mPlatform.isMainThread()) {
             throw new RuntimeException(
                     "Don't call the esptouch Task at Main(UI) thread directly.");
         }
-        InetAddress localInetAddress = EspNetUtil.getLocalInetAddress(mContext);
+        InetAddress localInetAddress = mPlatform.getLocalInetAddress();
         if (__IEsptouchTask.DEBUG) {
-            Log.i(TAG, "localInetAddress: " + localInetAddress);
+            EspLog.i(TAG, "localInetAddress: " + localInetAddress);
         }
         // generator the esptouch byte[][] to be transformed, which will cost
-        // some time(maybe a bit much)
-        IEsptouchGenerator generator = new EsptouchGenerator(mApSsid, mApBssid,
-                mApPassword, localInetAddress, mIsSsidHidden);
+        // some time(maybe a bit much), so it is cached for the same Ap
+        IEsptouchGenerator generator = EsptouchGeneratorCache.getInstance().get(mApSsid, mApBssid,
+                mApPassword, mEspAES, localInetAddress, mIsSsidHidden);
+        EsptouchSchedule schedule = new EsptouchSchedule(mParameter);
+        mSchedule = schedule;
         // listen the esptouch result asyn
         __listenAsyn(mParameter.getEsptouchResultTotalLen());
         boolean isSuc = false;
         for (int i = 0; i < mParameter.getTotalRepeatTime(); i++) {
-            isSuc = __execute(generator);
+            isSuc = __execute(generator, schedule);
             if (isSuc) {
                 return __getEsptouchResultList();
             }
         }
 
         if (!mIsInterrupt) {
-            // wait the udp response without sending udp broadcast
+            // wait the udp response without sending udp broadcast, it is finished
+            // in advance when the udp broadcast is received or the user interrupt the task
             try {
-                Thread.sleep(mParameter.getWaitUdpReceivingMillisecond());
+                mFinishLatch.await(mParameter.getWaitUdpReceivingMillisecond(), TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
-                // receive the udp broadcast or the user interrupt the task
-                if (this.mIsSuc) {
-                    return __getEsptouchResultList();
-                } else {
-                    this.__interrupt();
-                    return __getEsptouchResultList();
-                }
+                e.printStackTrace();
             }
             this.__interrupt();
         }
@@ -346,4 +329,10 @@ public class __EsptouchTask implements __IEsptouchTask {
         mEsptouchListener = esptouchListener;
     }
 
+    // the length of the data in the datum code, the cipher text is as long as the output size
+    // of a fresh encryption
+    private int __getSentLength(byte[] data) {
+        return mEspAES == null ? data.length : mEspAES.getEncryptOutputSize(data.length);
+    }
+
 }
@@ -0,0 +1,49 @@
+package com.espressif.iot.esptouch.udp;
+
+/**
+ * Receive the acks of the devices. The receiver listening on one port is shared, get it by
+ * {@link com.espressif.iot.esptouch.platform.IEsptouchPlatform#acquireReceiver(int)} and
+ * {@link #release()} it when done.
+ */
+public interface IUDPReceiver {
+
+    /**
+     * Register for the datagrams of the specific length and first byte
+     *
+     * @param expectLen     the expected length of the datagram
+     * @param expectOneByte the expected first byte of the datagram
+     * @param timeoutMillis the milliseconds before {@link OnReceiveListener#onTimeout()},
+     *                      or 0 for no timeout
+     * @param listener      the listener called back at the receiving thread
+     * @return the registration could be cancelled
+     */
+    Registration register(int expectLen, byte expectOneByte, long timeoutMillis,
+                          OnReceiveListener listener);
+
+    /**
+     * Release the receiver, it is closed when it isn't acquired by anyone
+     */
+    void release();
+
+    interface OnReceiveListener {
+        /**
+         * the datagram of the expected length and first byte is received
+         *
+         * @param data the datagram received
+         */
+        void onReceive(byte[] data);
+
+        /**
+         * the registration is expired, it won't be called back any more
+         */
+        void onTimeout();
+    }
+
+    interface Registration {
+        /**
+         * Cancel the registration, the listener may still be called back once if the
+         * datagram is being dispatched
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,41 @@
+package com.espressif.iot.esptouch.udp;
+
+/**
+ * Send the esptouch packets, only the length of the packets is meaningful to the devices
+ */
+public interface IUDPSender {
+
+    /**
+     * send the data by UDP
+     *
+     * @param data           the data to be sent
+     * @param targetHostName the hostname of target
+     * @param targetPort     the port of target
+     * @param interval       the milliseconds to between each UDP sent
+     */
+    void sendData(byte[][] data, String targetHostName, int targetPort, long interval);
+
+    /**
+     * send the data by UDP
+     *
+     * @param data           the data to be sent
+     * @param offset         the offset which data to be sent
+     * @param count          the count of the data
+     * @param targetHostName the hostname of target
+     * @param targetPort     the port of target
+     * @param interval       the milliseconds to between each UDP sent
+     */
+    void sendData(byte[][] data, int offset, int count, String targetHostName, int targetPort,
+                  long interval);
+
+    /**
+     * stop sending, the sendData() being called returns as soon as possible
+     */
+    void interrupt();
+
+    void close();
+
+    long getSentPacketCount();
+
+    long getFailedPacketCount();
+}
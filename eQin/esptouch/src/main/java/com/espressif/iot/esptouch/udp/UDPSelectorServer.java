@@ -0,0 +1,315 @@
+package com.espressif.iot.esptouch.udp;
+
+import com.espressif.iot.esptouch.platform.IEsptouchPlatform;
+import com.espressif.iot.esptouch.platform.IMulticastLock;
+import com.espressif.iot.esptouch.task.__IEsptouchTask;
+import com.espressif.iot.esptouch.util.EspLog;
+import com.espressif.iot.esptouch.util.HashedTimingWheel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * UDP server shared by the esptouch tasks listening on the same port. One thread receives
+ * the datagrams by {@link Selector}, dispatches them to the registrations by the expected
+ * length and the expected first byte, and expires the registrations by a
+ * {@link HashedTimingWheel}.
+ * <p>
+ * Get the server by {@link #acquire(int, IEsptouchPlatform)}, and {@link #release()} it when done.
+ */
+public class UDPSelectorServer implements IUDPReceiver {
+    private static final String TAG = "UDPSelectorServer";
+
+    // the same as the buffer of UDPSocketServer, the longer datagram is truncated
+    private static final int BUFFER_LEN = 64;
+    private static final long TICK_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private static final Map<Integer, UDPSelectorServer> sServers = new HashMap<>();
+
+    private final int mPort;
+    private final Selector mSelector;
+    private final DatagramChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final IMulticastLock mLock;
+    private final ConcurrentLinkedQueue<SelectorRegistration> mPendingOps;
+    // the fields below are only accessed by the selector thread
+    private final Map<Integer, List<SelectorRegistration>> mRegistrations;
+    private final HashedTimingWheel<SelectorRegistration> mTimingWheel;
+    private final List<SelectorRegistration> mExpired;
+    private int mRefCount;
+    private volatile boolean mIsClosed;
+
+    private UDPSelectorServer(int port, IEsptouchPlatform platform) throws IOException {
+        mPort = port;
+        mSelector = Selector.open();
+        mChannel = DatagramChannel.open();
+        try {
+            mChannel.socket().setReuseAddress(true);
+            mChannel.socket().bind(new InetSocketAddress(port));
+            mChannel.configureBlocking(false);
+            mChannel.register(mSelector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            mChannel.close();
+            mSelector.close();
+            throw e;
+        }
+        mBuffer = ByteBuffer.allocate(BUFFER_LEN);
+        mPendingOps = new ConcurrentLinkedQueue<>();
+        mRegistrations = new HashMap<>();
+        mTimingWheel = new HashedTimingWheel<>(TICK_MILLIS, TICKS_PER_WHEEL, System.currentTimeMillis());
+        mExpired = new ArrayList<>();
+        mIsClosed = false;
+        mLock = platform.createMulticastLock("esptouch " + port);
+        mLock.acquire();
+        new Thread(TAG + "-" + port) {
+            @Override
+            public void run() {
+                __loop();
+            }
+        }.start();
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.d(TAG, "selector server is created, port: " + port);
+        }
+    }
+
+    /**
+     * Get the server listening on the port, it is created if there isn't one
+     *
+     * @param port     the port for listening
+     * @param platform the platform providing the multicast lock
+     * @return the server, or null if the port can't be bound
+     */
+    public static UDPSelectorServer acquire(int port, IEsptouchPlatform platform) {
+        synchronized (sServers) {
+            UDPSelectorServer server = sServers.get(port);
+            if (server == null) {
+                try {
+                    server = new UDPSelectorServer(port, platform);
+                } catch (IOException e) {
+                    EspLog.e(TAG, "IOException");
+                    e.printStackTrace();
+                    return null;
+                }
+                sServers.put(port, server);
+            }
+            server.mRefCount++;
+            return server;
+        }
+    }
+
+    /**
+     * Release the server acquired by {@link #acquire(int, IEsptouchPlatform)}, the server is
+     * closed when it isn't acquired by anyone
+     */
+    @Override
+    public void release() {
+        synchronized (sServers) {
+            if (--mRefCount > 0) {
+                return;
+            }
+            sServers.remove(mPort);
+        }
+        close();
+    }
+
+    @Override
+    public Registration register(int expectLen, byte expectOneByte, long timeoutMillis,
+                                 OnReceiveListener listener) {
+        long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        SelectorRegistration registration = new SelectorRegistration(this, expectLen, expectOneByte,
+                deadline, listener);
+        __post(registration);
+        return registration;
+    }
+
+    private void __post(SelectorRegistration registration) {
+        mPendingOps.offer(registration);
+        mSelector.wakeup();
+    }
+
+    private static int __key(int len, byte oneByte) {
+        return len << 8 | (oneByte & 0xff);
+    }
+
+    private void __loop() {
+        while (!mIsClosed) {
+            try {
+                long now = System.currentTimeMillis();
+                mSelector.select(mTimingWheel.getMillisToNextTick(now));
+                if (mIsClosed) {
+                    break;
+                }
+                mSelector.selectedKeys().clear();
+                __receive();
+                __expire();
+                __processPendingOps();
+            } catch (IOException e) {
+                if (!mIsClosed) {
+                    EspLog.e(TAG, "IOException in selector loop");
+                    e.printStackTrace();
+                }
+            }
+        }
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.d(TAG, "selector loop is finished, port: " + mPort);
+        }
+    }
+
+    private void __receive() throws IOException {
+        while (true) {
+            mBuffer.clear();
+            if (mChannel.receive(mBuffer) == null) {
+                return;
+            }
+            mBuffer.flip();
+            int len = mBuffer.remaining();
+            if (len == 0) {
+                continue;
+            }
+            List<SelectorRegistration> registrations = mRegistrations.get(__key(len, mBuffer.get(0)));
+            if (registrations == null || registrations.isEmpty()) {
+                if (__IEsptouchTask.DEBUG) {
+                    EspLog.i(TAG, "receive rubbish message, just ignore");
+                }
+                continue;
+            }
+            // iterate over a copy, the listener may cancel its registration
+            for (SelectorRegistration registration : registrations.toArray(new SelectorRegistration[0])) {
+                if (registration.mIsCancelled) {
+                    continue;
+                }
+                byte[] data = new byte[len];
+                mBuffer.get(data);
+                mBuffer.rewind();
+                try {
+                    registration.mListener.onReceive(data);
+                } catch (RuntimeException e) {
+                    // the thread is shared, a listener failing mustn't stop the others
+                    __onListenerFailed(e);
+                }
+            }
+        }
+    }
+
+    private void __expire() {
+        mTimingWheel.advance(System.currentTimeMillis(), mExpired);
+        for (SelectorRegistration registration : mExpired) {
+            registration.mTimeout = null;
+            __remove(registration);
+            try {
+                registration.mListener.onTimeout();
+            } catch (RuntimeException e) {
+                __onListenerFailed(e);
+            }
+        }
+        mExpired.clear();
+    }
+
+    private void __onListenerFailed(RuntimeException e) {
+        EspLog.e(TAG, "RuntimeException in listener, port: " + mPort);
+        e.printStackTrace();
+    }
+
+    private void __processPendingOps() {
+        SelectorRegistration registration;
+        while ((registration = mPendingOps.poll()) != null) {
+            if (registration.mIsCancelled) {
+                if (registration.mTimeout != null) {
+                    mTimingWheel.cancel(registration.mTimeout);
+                    registration.mTimeout = null;
+                }
+                __remove(registration);
+            } else {
+                int key = __key(registration.mExpectLen, registration.mExpectOneByte);
+                List<SelectorRegistration> registrations = mRegistrations.get(key);
+                if (registrations == null) {
+                    registrations = new ArrayList<>(1);
+                    mRegistrations.put(key, registrations);
+                }
+                registrations.add(registration);
+                if (registration.mDeadline > 0) {
+                    registration.mTimeout = mTimingWheel.schedule(registration, registration.mDeadline);
+                }
+            }
+        }
+    }
+
+    private void __remove(SelectorRegistration registration) {
+        int key = __key(registration.mExpectLen, registration.mExpectOneByte);
+        List<SelectorRegistration> registrations = mRegistrations.get(key);
+        if (registrations != null) {
+            registrations.remove(registration);
+            if (registrations.isEmpty()) {
+                mRegistrations.remove(key);
+            }
+        }
+    }
+
+    private void close() {
+        if (mIsClosed) {
+            return;
+        }
+        mIsClosed = true;
+        if (__IEsptouchTask.DEBUG) {
+            EspLog.d(TAG, "selector server is closed, port: " + mPort);
+        }
+        // the selector is closed by the selector thread when the loop is finished
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mSelector.wakeup();
+        if (mLock.isHeld()) {
+            try {
+                mLock.release();
+            } catch (Throwable th) {
+                // ignoring this exception, probably wakeLock was already released
+            }
+        }
+    }
+
+    private static class SelectorRegistration implements Registration {
+        private final UDPSelectorServer mServer;
+        private final int mExpectLen;
+        private final byte mExpectOneByte;
+        private final long mDeadline;
+        private final OnReceiveListener mListener;
+        private volatile boolean mIsCancelled;
+        // only accessed by the selector thread
+        private HashedTimingWheel.Timeout<SelectorRegistration> mTimeout;
+
+        private SelectorRegistration(UDPSelectorServer server, int expectLen, byte expectOneByte,
+                                     long deadline, OnReceiveListener listener) {
+            mServer = server;
+            mExpectLen = expectLen;
+            mExpectOneByte = expectOneByte;
+            mDeadline = deadline;
+            mListener = listener;
+        }
+
+        @Override
+        public void cancel() {
+            if (mIsCancelled) {
+                return;
+            }
+            mIsCancelled = true;
+            mServer.__post(this);
+        }
+    }
+}
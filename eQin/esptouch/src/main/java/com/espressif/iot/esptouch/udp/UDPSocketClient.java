@@ -1,36 +1,61 @@
 package com.espressif.iot.esptouch.udp;
 
-import android.util.Log;
 
 import com.espressif.iot.esptouch.task.__IEsptouchTask;
+import com.espressif.iot.esptouch.util.EspLog;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * this class is used to help send UDP data according to length
  *
  * @author afunx
  */
-public class UDPSocketClient {
+public class UDPSocketClient implements IUDPSender {
 
     private static final String TAG = "UDPSocketClient";
-    private DatagramSocket mSocket;
+
+    // the esptouch packets are at most 0x200 + 4 bytes long
+    private static final int BUFFER_INITIAL_CAPACITY = 1024;
+
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private DatagramChannel mChannel;
     private volatile boolean mIsStop;
     private volatile boolean mIsClosed;
 
+    // the target hostname is rotated between 234.1.1.1 and 234.100.100.100, resolve them once
+    private final Map<String, InetSocketAddress> mTargetCache = new HashMap<>();
+    private ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_INITIAL_CAPACITY);
+
+    // the deadline of the next packet, it is kept between sendData() calls
+    private long mNextSendNanos;
+    // the sends are paced from the first attempt, whether it succeeded or not
+    private boolean mPacing;
+    private volatile long mRequestedIntervalNanos;
+    private volatile long mFirstSendNanos;
+    private volatile long mLastSendNanos;
+    private volatile long mSentCount;
+    private volatile long mFailedCount;
+
     public UDPSocketClient() {
         try {
-            this.mSocket = new DatagramSocket();
+            this.mChannel = DatagramChannel.open();
             this.mIsStop = false;
             this.mIsClosed = false;
-        } catch (SocketException e) {
+        } catch (IOException e) {
             if (__IEsptouchTask.DEBUG) {
-                Log.e(TAG, "SocketException");
+                EspLog.e(TAG, "IOException");
             }
             e.printStackTrace();
         }
@@ -42,9 +67,10 @@ public class UDPSocketClient {
         super.finalize();
     }
 
+    @Override
     public void interrupt() {
         if (__IEsptouchTask.DEBUG) {
-            Log.i(TAG, "USPSocketClient is interrupt");
+            EspLog.i(TAG, "USPSocketClient is interrupt");
         }
         this.mIsStop = true;
     }
@@ -52,13 +78,70 @@ public class UDPSocketClient {
     /**
      * close the UDP socket
      */
+    @Override
     public synchronized void close() {
         if (!this.mIsClosed) {
-            this.mSocket.close();
+            if (__IEsptouchTask.DEBUG) {
+                EspLog.i(TAG, "close(): sent " + mSentCount + " packets, "
+                        + getAchievedPacketsPerSecond() + " pps achieved, "
+                        + getRequestedPacketsPerSecond() + " pps requested");
+            }
+            try {
+                if (this.mChannel != null) {
+                    this.mChannel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
             this.mIsClosed = true;
         }
     }
 
+    /**
+     * get the count of the packets sent successfully
+     *
+     * @return the count of the packets sent successfully
+     */
+    @Override
+    public long getSentPacketCount() {
+        return mSentCount;
+    }
+
+    /**
+     * get the count of the packets failed to be sent
+     *
+     * @return the count of the packets failed to be sent
+     */
+    @Override
+    public long getFailedPacketCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * get the packet rate achieved between the first and the last packet sent
+     *
+     * @return the packets per second achieved, 0 if less than 2 packets are sent
+     */
+    public double getAchievedPacketsPerSecond() {
+        long elapsed = mLastSendNanos - mFirstSendNanos;
+        if (mSentCount < 2 || elapsed <= 0) {
+            return 0;
+        }
+        return (double) (mSentCount - 1) * NANOS_PER_SECOND / elapsed;
+    }
+
+    /**
+     * get the packet rate requested by the interval of the last sendData()
+     *
+     * @return the packets per second requested, {@link Double#POSITIVE_INFINITY} if the interval is 0
+     */
+    public double getRequestedPacketsPerSecond() {
+        if (mRequestedIntervalNanos <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (double) NANOS_PER_SECOND / mRequestedIntervalNanos;
+    }
+
     /**
      * send the data by UDP
      *
@@ -66,6 +149,7 @@ public class UDPSocketClient {
      * @param targetPort the port of target
      * @param interval   the milliseconds to between each UDP sent
      */
+    @Override
     public void sendData(byte[][] data, String targetHostName, int targetPort,
                          long interval) {
         sendData(data, 0, data.length, targetHostName, targetPort, interval);
@@ -73,7 +157,8 @@ public class UDPSocketClient {
 
 
     /**
-     * send the data by UDP
+     * send the data by UDP, the packets are paced by deadline, so the time spent on
+     * sending is not added to the interval
      *
      * @param data       the data to be sent
      * @param offset     the offset which data to be sent
@@ -81,50 +166,115 @@ public class UDPSocketClient {
      * @param targetPort the port of target
      * @param interval   the milliseconds to between each UDP sent
      */
+    @Override
     public void sendData(byte[][] data, int offset, int count,
                          String targetHostName, int targetPort, long interval) {
         if ((data == null) || (data.length <= 0)) {
             if (__IEsptouchTask.DEBUG) {
-                Log.e(TAG, "sendData(): data == null or length <= 0");
+                EspLog.e(TAG, "sendData(): data == null or length <= 0");
+            }
+            return;
+        }
+        if (mChannel == null) {
+            mIsStop = true;
+            return;
+        }
+        InetSocketAddress target;
+        try {
+            target = getTarget(targetHostName, targetPort);
+        } catch (UnknownHostException e) {
+            if (__IEsptouchTask.DEBUG) {
+                EspLog.e(TAG, "sendData(): UnknownHostException");
             }
+            e.printStackTrace();
+            mIsStop = true;
+            close();
             return;
         }
+        long intervalNanos = interval * NANOS_PER_MILLI;
+        mRequestedIntervalNanos = intervalNanos;
         for (int i = offset; !mIsStop && i < offset + count; i++) {
             if (data[i].length == 0) {
                 continue;
             }
             try {
-                InetAddress targetInetAddress = InetAddress.getByName(targetHostName);
-                DatagramPacket localDatagramPacket = new DatagramPacket(
-                        data[i], data[i].length, targetInetAddress, targetPort);
-                this.mSocket.send(localDatagramPacket);
-            } catch (UnknownHostException e) {
+                waitDeadline(intervalNanos);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
                 if (__IEsptouchTask.DEBUG) {
-                    Log.e(TAG, "sendData(): UnknownHostException");
+                    EspLog.e(TAG, "sendData is Interrupted");
                 }
-                e.printStackTrace();
                 mIsStop = true;
                 break;
-            } catch (IOException e) {
-                if (__IEsptouchTask.DEBUG) {
-                    Log.e(TAG, "sendData(): IOException, but just ignore it");
-                }
-                // for the Ap will make some troubles when the phone send too many UDP packets,
-                // but we don't expect the UDP packet received by others, so just ignore it
             }
             try {
-                Thread.sleep(interval);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                ByteBuffer buffer = fillBuffer(data[i]);
+                this.mChannel.send(buffer, target);
+                onSent();
+            } catch (ClosedChannelException e) {
                 if (__IEsptouchTask.DEBUG) {
-                    Log.e(TAG, "sendData is Interrupted");
+                    EspLog.e(TAG, "sendData(): channel is closed");
                 }
                 mIsStop = true;
                 break;
+            } catch (IOException e) {
+                if (__IEsptouchTask.DEBUG) {
+                    EspLog.e(TAG, "sendData(): IOException, but just ignore it");
+                }
+                // for the Ap will make some troubles when the phone send too many UDP packets,
+                // but we don't expect the UDP packet received by others, so just ignore it
+                mFailedCount++;
             }
         }
         if (mIsStop) {
             close();
         }
     }
+
+    private InetSocketAddress getTarget(String targetHostName, int targetPort)
+            throws UnknownHostException {
+        InetSocketAddress target = mTargetCache.get(targetHostName);
+        if (target == null || target.getPort() != targetPort) {
+            InetAddress targetInetAddress = InetAddress.getByName(targetHostName);
+            target = new InetSocketAddress(targetInetAddress, targetPort);
+            mTargetCache.put(targetHostName, target);
+        }
+        return target;
+    }
+
+    private ByteBuffer fillBuffer(byte[] packet) {
+        if (mBuffer.capacity() < packet.length) {
+            mBuffer = ByteBuffer.allocateDirect(packet.length);
+        }
+        mBuffer.clear();
+        mBuffer.put(packet);
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    /**
+     * wait until the deadline of the next packet. If the sender is late more than one
+     * interval, the deadline is reset instead of bursting to catch up.
+     */
+    private void waitDeadline(long intervalNanos) throws InterruptedException {
+        long now = System.nanoTime();
+        if (!mPacing || now - mNextSendNanos > intervalNanos) {
+            mNextSendNanos = now;
+            mPacing = true;
+        }
+        long waitNanos = mNextSendNanos - now;
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        mNextSendNanos += intervalNanos;
+    }
+
+    private void onSent() {
+        long now = System.nanoTime();
+        if (mSentCount == 0) {
+            mFirstSendNanos = now;
+        }
+        mLastSendNanos = now;
+        mSentCount++;
+    }
 }
@@ -1,8 +1,11 @@
 package com.espressif.iot.esptouch.udp;
 
 import android.content.Context;
-import android.net.wifi.WifiManager;
-import android.util.Log;
+
+import com.espressif.iot.esptouch.platform.AndroidEsptouchPlatform;
+import com.espressif.iot.esptouch.platform.IEsptouchPlatform;
+import com.espressif.iot.esptouch.platform.IMulticastLock;
+import com.espressif.iot.esptouch.util.EspLog;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -16,8 +19,7 @@ public class UDPSocketServer {
     private final byte[] buffer;
     private DatagramPacket mReceivePacket;
     private DatagramSocket mServerSocket;
-    private Context mContext;
-    private WifiManager.MulticastLock mLock;
+    private IMulticastLock mLock;
     private volatile boolean mIsClosed;
 
     /**
@@ -28,7 +30,17 @@ public class UDPSocketServer {
      * @param context       the context of the Application
      */
     public UDPSocketServer(int port, int socketTimeout, Context context) {
-        this.mContext = context;
+        this(port, socketTimeout, new AndroidEsptouchPlatform(context));
+    }
+
+    /**
+     * Constructor of UDP Socket Server
+     *
+     * @param port          the Socket Server port
+     * @param socketTimeout the socket read timeout
+     * @param platform      the platform providing the multicast lock
+     */
+    public UDPSocketServer(int port, int socketTimeout, IEsptouchPlatform platform) {
         this.buffer = new byte[64];
         this.mReceivePacket = new DatagramPacket(buffer, 64);
         try {
@@ -37,14 +49,12 @@ public class UDPSocketServer {
             this.mServerSocket.bind(new InetSocketAddress(port));
             this.mServerSocket.setSoTimeout(socketTimeout);
         } catch (IOException e) {
-            Log.e(TAG, "IOException");
+            EspLog.e(TAG, "IOException");
             e.printStackTrace();
         }
         this.mIsClosed = false;
-        WifiManager manager = (WifiManager) mContext.getApplicationContext()
-                .getSystemService(Context.WIFI_SERVICE);
-        mLock = manager.createMulticastLock("test wifi");
-        Log.d(TAG, "mServerSocket is created, socket read timeout: "
+        mLock = platform.createMulticastLock("test wifi");
+        EspLog.d(TAG, "mServerSocket is created, socket read timeout: "
                 + socketTimeout + ", port: " + port);
     }
 
@@ -86,11 +96,11 @@ public class UDPSocketServer {
      * @return
      */
     public byte receiveOneByte() {
-        Log.d(TAG, "receiveOneByte() entrance");
+        EspLog.d(TAG, "receiveOneByte() entrance");
         try {
             acquireLock();
             mServerSocket.receive(mReceivePacket);
-            Log.d(TAG, "receive: " + (mReceivePacket.getData()[0]));
+            EspLog.d(TAG, "receive: " + (mReceivePacket.getData()[0]));
             return mReceivePacket.getData()[0];
         } catch (IOException e) {
             e.printStackTrace();
@@ -106,18 +116,18 @@ public class UDPSocketServer {
      * @return
      */
     public byte[] receiveSpecLenBytes(int len) {
-        Log.d(TAG, "receiveSpecLenBytes() entrance: len = " + len);
+        EspLog.d(TAG, "receiveSpecLenBytes() entrance: len = " + len);
         try {
             acquireLock();
             mServerSocket.receive(mReceivePacket);
             byte[] recDatas = Arrays.copyOf(mReceivePacket.getData(), mReceivePacket.getLength());
-            Log.d(TAG, "received len : " + recDatas.length);
+            EspLog.d(TAG, "received len : " + recDatas.length);
             for (int i = 0; i < recDatas.length; i++) {
-                Log.e(TAG, "recDatas[" + i + "]:" + recDatas[i]);
+                EspLog.e(TAG, "recDatas[" + i + "]:" + recDatas[i]);
             }
-            Log.e(TAG, "receiveSpecLenBytes: " + new String(recDatas));
+            EspLog.e(TAG, "receiveSpecLenBytes: " + new String(recDatas));
             if (recDatas.length != len) {
-                Log.w(TAG,
+                EspLog.w(TAG,
                         "received len is different from specific len, return null");
                 return null;
             }
@@ -129,13 +139,13 @@ public class UDPSocketServer {
     }
 
     public void interrupt() {
-        Log.i(TAG, "USPSocketServer is interrupt");
+        EspLog.i(TAG, "USPSocketServer is interrupt");
         close();
     }
 
     public synchronized void close() {
         if (!this.mIsClosed) {
-            Log.e(TAG, "mServerSocket is closed");
+            EspLog.e(TAG, "mServerSocket is closed");
             mServerSocket.close();
             releaseLock();
             this.mIsClosed = true;
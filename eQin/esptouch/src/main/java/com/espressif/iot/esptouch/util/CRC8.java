@@ -4,10 +4,14 @@ import java.util.zip.Checksum;
 
 public class CRC8 implements Checksum {
 
-    private static final short[] crcTable = new short[256];
     private static final short CRC_POLYNOM = 0x8c;
     private static final short CRC_INITIAL = 0x00;
 
+    // the crc is one byte, so the buffer longer than it could be sliced by 8 bytes:
+    // SLICING_TABLE[k << 8 | x] is the crc of x followed by k zero bytes
+    private static final int SLICING = 8;
+    private static final int[] SLICING_TABLE = new int[SLICING << 8];
+
     static {
         for (int dividend = 0; dividend < 256; dividend++) {
             int remainder = dividend;// << 8;
@@ -16,23 +20,62 @@ public class CRC8 implements Checksum {
                     remainder = (remainder >>> 1) ^ CRC_POLYNOM;
                 else
                     remainder >>>= 1;
-            crcTable[dividend] = (short) remainder;
+            SLICING_TABLE[dividend] = remainder;
+        }
+        for (int k = 1; k < SLICING; k++) {
+            for (int x = 0; x < 256; x++) {
+                SLICING_TABLE[k << 8 | x] = SLICING_TABLE[SLICING_TABLE[(k - 1) << 8 | x]];
+            }
         }
     }
 
-    private final short init;
-    private short value;
+    private final int init;
+    private int value;
 
     public CRC8() {
         this.value = this.init = CRC_INITIAL;
     }
 
+    /**
+     * Calculate the crc of the buffer, it is the same as the value of a new CRC8 updated
+     * by the buffer, but nothing is allocated
+     *
+     * @param buffer the byte array
+     * @param offset the start offset of the data
+     * @param len    the number of bytes
+     * @return the crc of the data
+     */
+    public static int crc8(byte[] buffer, int offset, int len) {
+        return update(CRC_INITIAL, buffer, offset, len);
+    }
+
+    public static int crc8(byte[] buffer) {
+        return update(CRC_INITIAL, buffer, 0, buffer.length);
+    }
+
+    private static int update(int crc, byte[] buffer, int offset, int len) {
+        final int[] table = SLICING_TABLE;
+        int i = offset;
+        int end = offset + len;
+        for (int sliceEnd = end - SLICING; i <= sliceEnd; i += SLICING) {
+            crc = table[7 << 8 | (crc ^ buffer[i]) & 0xff]
+                    ^ table[6 << 8 | buffer[i + 1] & 0xff]
+                    ^ table[5 << 8 | buffer[i + 2] & 0xff]
+                    ^ table[4 << 8 | buffer[i + 3] & 0xff]
+                    ^ table[3 << 8 | buffer[i + 4] & 0xff]
+                    ^ table[2 << 8 | buffer[i + 5] & 0xff]
+                    ^ table[1 << 8 | buffer[i + 6] & 0xff]
+                    ^ table[buffer[i + 7] & 0xff];
+        }
+        for (; i < end; i++) {
+            crc = table[(crc ^ buffer[i]) & 0xff];
+        }
+        return crc;
+    }
+
     @Override
     public void update(byte[] buffer, int offset, int len) {
-        for (int i = 0; i < len; i++) {
-            int data = buffer[offset + i] ^ value;
-            value = (short) (crcTable[data & 0xff] ^ (value << 8));
-        }
+        value = update(value, buffer, offset, len);
     }
 
     /**
@@ -47,7 +90,7 @@ public class CRC8 implements Checksum {
 
     @Override
     public void update(int b) {
-        update(new byte[]{(byte) b}, 0, 1);
+        value = SLICING_TABLE[(value ^ b) & 0xff];
     }
 
     @Override
@@ -1,24 +1,46 @@
 package com.espressif.iot.esptouch.util;
 
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * AES of the esptouch data. It is thread safe, every thread encrypts and decrypts by its
+ * own {@link Cipher}s, so one EspAES could be shared by the concurrent tasks.
+ * <p>
+ * For {@link #TRANSFORMATION_CTR} and {@link #TRANSFORMATION_GCM}, a random iv is generated
+ * for every encryption and put before the cipher text, the decryption reads it from there.
+ * A fixed iv isn't accepted by them, the encryptions would share the key stream.
+ */
 public class EspAES {
     private static final String TRANSFORMATION_DEFAULT = "AES/ECB/PKCS5Padding";
+    public static final String TRANSFORMATION_CTR = "AES/CTR/NoPadding";
+    // GCMParameterSpec is available since Android 4.4
+    public static final String TRANSFORMATION_GCM = "AES/GCM/NoPadding";
 
-    private final byte[] mKey;
+    private static final int CTR_IV_LEN = 16;
+    private static final int GCM_IV_LEN = 12;
+    private static final int GCM_TAG_BITS = 128;
+
+    private final SecretKeySpec mKeySpec;
     private final byte[] mIV;
     private final String mTransformation;
-    private Cipher mEncryptCipher;
-    private Cipher mDecryptCipher;
+    private final boolean mIsGcm;
+    // the length of the iv generated for every encryption, 0 if the iv is fixed or not used
+    private final int mRandomIVLen;
+    private final SecureRandom mRandom;
+    private final ThreadLocal<Cipher> mEncryptCipher;
+    private final ThreadLocal<Cipher> mDecryptCipher;
 
     public EspAES(byte[] key) {
         this(key, null, TRANSFORMATION_DEFAULT);
@@ -32,73 +54,195 @@ public class EspAES {
         this(key, iv, TRANSFORMATION_DEFAULT);
     }
 
+    /**
+     * Constructor of EspAES
+     *
+     * @param key            the key of 16, 24 or 32 bytes
+     * @param iv             the fixed iv, null for the transformation without iv or with
+     *                       the iv generated for every encryption, i.e. CTR and GCM
+     * @param transformation the transformation, e.g. "AES/ECB/PKCS5Padding"
+     * @throws IllegalArgumentException if the key, the iv or the transformation is invalid
+     */
     public EspAES(byte[] key, byte[] iv, String transformation) {
-        mKey = key;
-        mIV = iv;
+        mKeySpec = new SecretKeySpec(key, "AES");
+        mIV = iv == null ? null : iv.clone();
         mTransformation = transformation;
+        mIsGcm = transformation.toUpperCase().startsWith("AES/GCM/");
+        boolean isCtr = transformation.toUpperCase().startsWith("AES/CTR/");
+        if ((mIsGcm || isCtr) && iv != null) {
+            // the same iv mustn't be used twice with the same key
+            throw new IllegalArgumentException("the iv of " + transformation + " is generated for every encryption");
+        }
+        if (mIsGcm) {
+            mRandomIVLen = GCM_IV_LEN;
+        } else if (isCtr) {
+            mRandomIVLen = CTR_IV_LEN;
+        } else {
+            mRandomIVLen = 0;
+        }
+        mRandom = mRandomIVLen > 0 ? new SecureRandom() : null;
 
-        mEncryptCipher = createEncryptCipher();
-        mDecryptCipher = createDecryptCipher();
+        mEncryptCipher = new CipherThreadLocal(Cipher.ENCRYPT_MODE);
+        mDecryptCipher = new CipherThreadLocal(Cipher.DECRYPT_MODE);
+        // create the ciphers of the current thread, so the invalid arguments are found here
+        mEncryptCipher.get();
+        mDecryptCipher.get();
     }
 
-    private Cipher createEncryptCipher() {
-        try {
-            Cipher cipher = Cipher.getInstance(mTransformation);
+    /**
+     * Get the max length of the cipher text
+     *
+     * @param len the length of the plain text
+     * @return the max length of the cipher text, including the iv generated
+     */
+    public int getEncryptOutputSize(int len) {
+        return mRandomIVLen + mEncryptCipher.get().getOutputSize(len);
+    }
 
-            SecretKeySpec secretKeySpec = new SecretKeySpec(mKey, "AES");
-            if (mIV == null) {
-                cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec);
-            } else {
-                IvParameterSpec parameterSpec = new IvParameterSpec(mIV);
-                cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, parameterSpec);
-            }
+    /**
+     * Get the max length of the plain text
+     *
+     * @param len the length of the cipher text, including the iv generated
+     * @return the max length of the plain text
+     */
+    public int getDecryptOutputSize(int len) {
+        return mDecryptCipher.get().getOutputSize(Math.max(0, len - mRandomIVLen));
+    }
 
-            return cipher;
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException
-                e) {
-            e.printStackTrace();
+    /**
+     * Feed the key, the fixed iv and the transformation into the digest, the EspAESs of the
+     * same digest encrypt the same way, and the key isn't kept by the one identifying them
+     *
+     * @param digest the digest to be updated
+     */
+    public void digestConfig(MessageDigest digest) {
+        byte[] key = mKeySpec.getEncoded();
+        digest.update((byte) key.length);
+        digest.update(key);
+        Arrays.fill(key, (byte) 0);
+        if (mIV == null) {
+            digest.update((byte) 0);
+        } else {
+            digest.update((byte) mIV.length);
+            digest.update(mIV);
         }
+        digest.update(ByteUtil.getBytesByString(mTransformation.toUpperCase()));
+    }
 
-        return null;
+    public byte[] encrypt(byte[] content) {
+        byte[] out = new byte[getEncryptOutputSize(content.length)];
+        int len = encrypt(content, 0, content.length, out);
+        return len == out.length ? out : Arrays.copyOf(out, len);
     }
 
-    private Cipher createDecryptCipher() {
-        try {
-            Cipher cipher = Cipher.getInstance(mTransformation);
+    public byte[] decrypt(byte[] content) {
+        byte[] out = new byte[getDecryptOutputSize(content.length)];
+        int len = decrypt(content, 0, content.length, out);
+        return len == out.length ? out : Arrays.copyOf(out, len);
+    }
 
-            SecretKeySpec secretKeySpec = new SecretKeySpec(mKey, "AES");
-            if (mIV == null) {
-                cipher.init(Cipher.DECRYPT_MODE, secretKeySpec);
-            } else {
-                IvParameterSpec parameterSpec = new IvParameterSpec(mIV);
-                cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, parameterSpec);
+    /**
+     * Encrypt into the buffer, the buffer could be the input itself
+     *
+     * @param in  the plain text
+     * @param off the offset of the plain text
+     * @param len the length of the plain text
+     * @param out the buffer of {@link #getEncryptOutputSize(int)} at least
+     * @return the length of the cipher text written from out[0]
+     * @throws IllegalArgumentException if out is too short
+     */
+    public int encrypt(byte[] in, int off, int len, byte[] out) {
+        Cipher cipher = mEncryptCipher.get();
+        try {
+            byte[] iv = null;
+            if (mRandomIVLen > 0) {
+                iv = new byte[mRandomIVLen];
+                mRandom.nextBytes(iv);
+                cipher.init(Cipher.ENCRYPT_MODE, mKeySpec, createParameterSpec(iv));
             }
+            int count = cipher.doFinal(in, off, len, out, mRandomIVLen);
+            // the iv is written after the encryption, the input may be in the same place
+            if (iv != null) {
+                System.arraycopy(iv, 0, out, 0, mRandomIVLen);
+            }
+            return mRandomIVLen + count;
+        } catch (ShortBufferException e) {
+            throw new IllegalArgumentException("out is too short", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("encrypt failed", e);
+        }
+    }
 
-            return cipher;
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException
-                e) {
-            e.printStackTrace();
+    /**
+     * Decrypt into the buffer, the buffer could be the input itself
+     *
+     * @param in  the cipher text
+     * @param off the offset of the cipher text
+     * @param len the length of the cipher text
+     * @param out the buffer of {@link #getDecryptOutputSize(int)} at least
+     * @return the length of the plain text written from out[0]
+     * @throws IllegalArgumentException if out is too short, or the cipher text is invalid
+     */
+    public int decrypt(byte[] in, int off, int len, byte[] out) {
+        if (len < mRandomIVLen) {
+            throw new IllegalArgumentException("the content is shorter than the iv");
         }
+        Cipher cipher = mDecryptCipher.get();
+        try {
+            if (mRandomIVLen > 0) {
+                byte[] iv = Arrays.copyOfRange(in, off, off + mRandomIVLen);
+                cipher.init(Cipher.DECRYPT_MODE, mKeySpec, createParameterSpec(iv));
+            }
+            return cipher.doFinal(in, off + mRandomIVLen, len - mRandomIVLen, out, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalArgumentException("out is too short", e);
+        } catch (AEADBadTagException e) {
+            throw new IllegalArgumentException("the content is tampered", e);
+        } catch (BadPaddingException e) {
+            throw new IllegalArgumentException("the content can't be decrypted", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("decrypt failed", e);
+        }
+    }
 
-        return null;
+    private AlgorithmParameterSpec createParameterSpec(byte[] iv) {
+        if (mIsGcm) {
+            return new GCMParameterSpec(GCM_TAG_BITS, iv);
+        }
+        return new IvParameterSpec(iv);
     }
 
-    public byte[] encrypt(byte[] content) {
+    private Cipher createCipher(int mode) {
         try {
-            return mEncryptCipher.doFinal(content);
-        } catch (BadPaddingException | IllegalBlockSizeException e) {
-            e.printStackTrace();
+            Cipher cipher = Cipher.getInstance(mTransformation);
+            if (mRandomIVLen > 0) {
+                // initialized again by every encryption and decryption with the iv
+                byte[] iv = new byte[mRandomIVLen];
+                if (mode == Cipher.ENCRYPT_MODE) {
+                    mRandom.nextBytes(iv);
+                }
+                cipher.init(mode, mKeySpec, createParameterSpec(iv));
+            } else if (mIV == null) {
+                cipher.init(mode, mKeySpec);
+            } else {
+                cipher.init(mode, mKeySpec, new IvParameterSpec(mIV));
+            }
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("can't create the cipher of " + mTransformation, e);
         }
-        return null;
     }
 
-    public byte[] decrypt(byte[] content) {
-        try {
-            return mDecryptCipher.doFinal(content);
-        } catch (BadPaddingException | IllegalBlockSizeException e) {
-            e.printStackTrace();
+    private class CipherThreadLocal extends ThreadLocal<Cipher> {
+        private final int mMode;
+
+        private CipherThreadLocal(int mode) {
+            mMode = mode;
         }
 
-        return null;
+        @Override
+        protected Cipher initialValue() {
+            return createCipher(mMode);
+        }
     }
 }
@@ -0,0 +1,97 @@
+package com.espressif.iot.esptouch.util;
+
+/**
+ * The log of the esptouch library, it is printed by android.util.Log on Android, and by
+ * System.out on the plain JVM where android.util.Log isn't available.
+ */
+public class EspLog {
+
+    private static volatile ILogger sLogger = __createDefaultLogger();
+
+    /**
+     * Replace the logger, e.g. to print by the logging framework of the gateway
+     *
+     * @param logger the logger, null to restore the default one
+     */
+    public static void setLogger(ILogger logger) {
+        sLogger = logger != null ? logger : __createDefaultLogger();
+    }
+
+    public static void d(String tag, String msg) {
+        sLogger.d(tag, msg);
+    }
+
+    public static void i(String tag, String msg) {
+        sLogger.i(tag, msg);
+    }
+
+    public static void w(String tag, String msg) {
+        sLogger.w(tag, msg);
+    }
+
+    public static void e(String tag, String msg) {
+        sLogger.e(tag, msg);
+    }
+
+    private static ILogger __createDefaultLogger() {
+        // the android.jar of the unit tests has android.util.Log too, check the vm instead
+        if ("Dalvik".equals(System.getProperty("java.vm.name"))) {
+            return new AndroidLogger();
+        }
+        return new SystemOutLogger();
+    }
+
+    public interface ILogger {
+        void d(String tag, String msg);
+
+        void i(String tag, String msg);
+
+        void w(String tag, String msg);
+
+        void e(String tag, String msg);
+    }
+
+    private static class AndroidLogger implements ILogger {
+        @Override
+        public void d(String tag, String msg) {
+            android.util.Log.d(tag, msg);
+        }
+
+        @Override
+        public void i(String tag, String msg) {
+            android.util.Log.i(tag, msg);
+        }
+
+        @Override
+        public void w(String tag, String msg) {
+            android.util.Log.w(tag, msg);
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+            android.util.Log.e(tag, msg);
+        }
+    }
+
+    private static class SystemOutLogger implements ILogger {
+        @Override
+        public void d(String tag, String msg) {
+            System.out.println("D/" + tag + ": " + msg);
+        }
+
+        @Override
+        public void i(String tag, String msg) {
+            System.out.println("I/" + tag + ": " + msg);
+        }
+
+        @Override
+        public void w(String tag, String msg) {
+            System.out.println("W/" + tag + ": " + msg);
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+            System.err.println("E/" + tag + ": " + msg);
+        }
+    }
+}
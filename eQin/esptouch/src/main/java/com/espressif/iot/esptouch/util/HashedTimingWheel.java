@@ -0,0 +1,162 @@
+package com.espressif.iot.esptouch.util;
+
+import java.util.List;
+
+/**
+ * Hashed timing wheel, the timeouts are hashed into the buckets by their deadline tick,
+ * so scheduling and cancelling cost O(1) and advancing costs O(expired + buckets passed).
+ * <p>
+ * It isn't thread safe, all of the methods should be called by the same thread.
+ *
+ * @param <T> the type of the task to be expired
+ */
+public class HashedTimingWheel<T> {
+
+    private final long mTickMillis;
+    private final int mMask;
+    private final Timeout<T>[] mBuckets;
+    private final long mStartMillis;
+    // the next tick to be processed
+    private long mTick;
+    private int mSize;
+
+    /**
+     * Constructor of HashedTimingWheel
+     *
+     * @param tickMillis    the milliseconds of one tick
+     * @param ticksPerWheel the count of buckets, it will be rounded up to the power of 2
+     * @param nowMillis     the current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(long tickMillis, int ticksPerWheel, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis should be positive");
+        }
+        if (ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("ticksPerWheel should be positive");
+        }
+        int buckets = 1;
+        while (buckets < ticksPerWheel) {
+            buckets <<= 1;
+        }
+        mTickMillis = tickMillis;
+        mMask = buckets - 1;
+        mBuckets = (Timeout<T>[]) new Timeout<?>[buckets];
+        mStartMillis = nowMillis;
+        mTick = 0;
+    }
+
+    /**
+     * Schedule the task to be expired at the deadline
+     *
+     * @param task           the task
+     * @param deadlineMillis the deadline in milliseconds
+     * @return the timeout could be cancelled by {@link #cancel(Timeout)}
+     */
+    public Timeout<T> schedule(T task, long deadlineMillis) {
+        // round up, so the task won't be expired before its deadline
+        long deadlineTick = (deadlineMillis - mStartMillis + mTickMillis - 1) / mTickMillis;
+        if (deadlineTick < mTick) {
+            deadlineTick = mTick;
+        }
+        Timeout<T> timeout = new Timeout<>(task, deadlineTick);
+        int bucket = (int) (deadlineTick & mMask);
+        timeout.mBucket = bucket;
+        timeout.mNext = mBuckets[bucket];
+        if (timeout.mNext != null) {
+            timeout.mNext.mPrev = timeout;
+        }
+        mBuckets[bucket] = timeout;
+        mSize++;
+        return timeout;
+    }
+
+    /**
+     * Cancel the timeout, it is ignored if the timeout is expired or cancelled already
+     *
+     * @param timeout the timeout returned by {@link #schedule(Object, long)}
+     */
+    public void cancel(Timeout<T> timeout) {
+        if (timeout.mBucket < 0) {
+            return;
+        }
+        unlink(timeout);
+    }
+
+    /**
+     * Process the ticks up to now, and collect the tasks expired
+     *
+     * @param nowMillis the current time in milliseconds
+     * @param expired   the list to collect the tasks expired
+     */
+    public void advance(long nowMillis, List<T> expired) {
+        long nowTick = (nowMillis - mStartMillis) / mTickMillis;
+        // when the wheel is empty, or all of the buckets are passed, skip the idle ticks
+        while (mTick <= nowTick) {
+            if (mSize == 0) {
+                mTick = nowTick + 1;
+                return;
+            }
+            Timeout<T> timeout = mBuckets[(int) (mTick & mMask)];
+            while (timeout != null) {
+                Timeout<T> next = timeout.mNext;
+                if (timeout.mDeadlineTick <= mTick) {
+                    unlink(timeout);
+                    expired.add(timeout.mTask);
+                }
+                timeout = next;
+            }
+            mTick++;
+        }
+    }
+
+    /**
+     * Get the milliseconds until the next tick should be processed
+     *
+     * @param nowMillis the current time in milliseconds
+     * @return the milliseconds to wait, 0 if the wheel is empty which means no deadline
+     */
+    public long getMillisToNextTick(long nowMillis) {
+        if (mSize == 0) {
+            return 0;
+        }
+        long wait = mStartMillis + mTick * mTickMillis - nowMillis;
+        return Math.max(1, wait);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.mPrev != null) {
+            timeout.mPrev.mNext = timeout.mNext;
+        } else {
+            mBuckets[timeout.mBucket] = timeout.mNext;
+        }
+        if (timeout.mNext != null) {
+            timeout.mNext.mPrev = timeout.mPrev;
+        }
+        timeout.mPrev = null;
+        timeout.mNext = null;
+        timeout.mBucket = -1;
+        mSize--;
+    }
+
+    public static class Timeout<T> {
+        private final T mTask;
+        private final long mDeadlineTick;
+        private int mBucket;
+        private Timeout<T> mPrev;
+        private Timeout<T> mNext;
+
+        private Timeout(T task, long deadlineTick) {
+            mTask = task;
+            mDeadlineTick = deadlineTick;
+        }
+
+        public T getTask() {
+            return mTask;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.espressif.iot.esptouch.protocol;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized check that {@link DatumCodeEncoder} and {@link EsptouchGenerator} produce the
+ * same u8s as {@link DatumCode}, which is kept as the reference implementation.
+ */
+public class DatumCodeEncoderTest {
+    private static final int ROUNDS = 50000;
+
+    @Test
+    public void encode_matchesDatumCode() throws Exception {
+        Random random = new Random(20181018);
+        int exceptions = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] ssid = randomBytes(random, 1 + random.nextInt(32));
+            byte[] password = randomBytes(random, random.nextInt(250));
+            // a bssid of the wrong length now and then
+            byte[] bssid = randomBytes(random, random.nextInt(10) == 0 ? random.nextInt(8) : 6);
+            InetAddress ip = InetAddress.getByAddress(randomBytes(random, 4));
+            boolean hidden = random.nextBoolean();
+
+            char[] expected = null;
+            RuntimeException expectedException = null;
+            try {
+                expected = new DatumCode(ssid, bssid, password, ip, hidden).getU8s();
+            } catch (RuntimeException e) {
+                expectedException = e;
+            }
+            char[] actual = null;
+            RuntimeException actualException = null;
+            try {
+                DatumCodeEncoder encoder = DatumCodeEncoder.get();
+                int len = encoder.encode(ssid, bssid, password, ip, hidden);
+                actual = Arrays.copyOf(encoder.getU8s(), len);
+            } catch (RuntimeException e) {
+                actualException = e;
+            }
+
+            if (expectedException != null) {
+                assertNotNull("round " + round, actualException);
+                assertEquals("round " + round, expectedException.getMessage(), actualException.getMessage());
+                exceptions++;
+                continue;
+            }
+            assertArrayEquals("round " + round, expected, actual);
+
+            byte[][] dcBytes2 = new EsptouchGenerator(ssid, bssid, password, ip, hidden).getDCBytes2();
+            assertEquals("round " + round, expected.length, dcBytes2.length);
+            for (int i = 0; i < dcBytes2.length; i++) {
+                assertEquals("round " + round, expected[i], dcBytes2[i].length);
+            }
+        }
+        // the overflow paths are covered too
+        assertTrue(exceptions > 0);
+    }
+
+    @Test
+    public void getGCBytes2_matchesGuideCode() {
+        char[] expected = new GuideCode().getU8s();
+        byte[][] gcBytes2 = new EsptouchGenerator(new byte[]{'a'}, new byte[6], new byte[0],
+                InetAddress.getLoopbackAddress(), false).getGCBytes2();
+        assertEquals(expected.length, gcBytes2.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], gcBytes2[i].length);
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int len) {
+        byte[] bytes = new byte[len];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,77 @@
+package com.espressif.iot.esptouch.protocol;
+
+import com.espressif.iot.esptouch.util.ByteUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build the datum code packets by {@link EsptouchGenerator#getDCBytes2()} against the list based
+ * {@link DatumCode} path it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EsptouchGeneratorBenchmark {
+
+    @Param({"8", "64"})
+    public int passwordLength;
+
+    private byte[] mSsid;
+    private byte[] mBssid;
+    private byte[] mPassword;
+    private InetAddress mIp;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        mSsid = new byte[16];
+        mBssid = new byte[6];
+        mPassword = new byte[passwordLength];
+        random.nextBytes(mSsid);
+        random.nextBytes(mBssid);
+        random.nextBytes(mPassword);
+        mIp = InetAddress.getByAddress(new byte[]{(byte) 192, (byte) 168, 1, 100});
+    }
+
+    @Benchmark
+    public byte[][] generator() {
+        return new EsptouchGenerator(mSsid, mBssid, mPassword, mIp, true).getDCBytes2();
+    }
+
+    // the code of EsptouchGenerator before the encoder
+    @Benchmark
+    public byte[][] datumCode() {
+        char[] dcU81 = new DatumCode(mSsid, mBssid, mPassword, mIp, true).getU8s();
+        byte[][] dcBytes2 = new byte[dcU81.length][];
+        for (int i = 0; i < dcBytes2.length; i++) {
+            dcBytes2[i] = ByteUtil.genSpecBytes(dcU81[i]);
+        }
+        return dcBytes2;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EsptouchGeneratorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package com.espressif.iot.esptouch.protocol;
+
+import com.espressif.iot.esptouch.task.IEsptouchGenerator;
+import com.espressif.iot.esptouch.util.EspAES;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class EsptouchGeneratorCacheTest {
+    private static final byte[] SSID = {'s', 's', 'i', 'd'};
+    private static final byte[] BSSID = {0x18, (byte) 0xfe, 0x34, 0x12, 0x34, 0x56};
+    private static final byte[] PASSWORD = {'1', '2', '3', '4', '5', '6', '7', '8'};
+    private static final byte[] KEY = "1234567890123456".getBytes();
+
+    @Test
+    public void get_hitsWithRandomIV() {
+        InetAddress ip = InetAddress.getLoopbackAddress();
+        for (String transformation : new String[]{EspAES.TRANSFORMATION_CTR, EspAES.TRANSFORMATION_GCM}) {
+            EsptouchGeneratorCache cache = new EsptouchGeneratorCache(4);
+            IEsptouchGenerator first = cache.get(SSID, BSSID, PASSWORD,
+                    new EspAES(KEY, transformation), ip, true);
+            // a new EspAES of the same configuration, as a new task creates
+            IEsptouchGenerator second = cache.get(SSID, BSSID, PASSWORD,
+                    new EspAES(KEY, transformation), ip, true);
+            assertSame(transformation, first, second);
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+        }
+    }
+
+    @Test
+    public void get_missesOtherConfiguration() {
+        InetAddress ip = InetAddress.getLoopbackAddress();
+        EsptouchGeneratorCache cache = new EsptouchGeneratorCache(4);
+        cache.get(SSID, BSSID, PASSWORD, null, ip, true);
+        cache.get(SSID, BSSID, PASSWORD, new EspAES(KEY), ip, true);
+        cache.get(SSID, BSSID, PASSWORD, new EspAES("6543210987654321".getBytes()), ip, true);
+        cache.get(SSID, BSSID, PASSWORD, new EspAES(KEY, EspAES.TRANSFORMATION_GCM), ip, true);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void get_returnsCopies() {
+        EsptouchGeneratorCache cache = new EsptouchGeneratorCache(4);
+        IEsptouchGenerator generator = cache.get(SSID, BSSID, PASSWORD, null,
+                InetAddress.getLoopbackAddress(), true);
+        byte[][] dcBytes2 = generator.getDCBytes2();
+        byte[][] gcBytes2 = generator.getGCBytes2();
+        dcBytes2[0] = null;
+        gcBytes2[0] = null;
+        assertNotSame(dcBytes2, generator.getDCBytes2());
+        assertEquals(dcBytes2.length, generator.getDCBytes2().length);
+        assertEquals(515, generator.getGCBytes2()[0].length);
+        assertNotNull(generator.getDCBytes2()[0]);
+    }
+}
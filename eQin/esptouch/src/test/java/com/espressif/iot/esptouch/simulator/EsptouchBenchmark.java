@@ -0,0 +1,196 @@
+package com.espressif.iot.esptouch.simulator;
+
+import com.espressif.iot.esptouch.EsptouchTask;
+import com.espressif.iot.esptouch.IEsptouchResult;
+import com.espressif.iot.esptouch.platform.IEsptouchPlatform;
+import com.espressif.iot.esptouch.platform.JvmEsptouchPlatform;
+import com.espressif.iot.esptouch.protocol.EsptouchGenerator;
+import com.espressif.iot.esptouch.task.EsptouchTaskParameter;
+import com.espressif.iot.esptouch.task.IEsptouchGenerator;
+import com.espressif.iot.esptouch.task.IEsptouchTaskParameter;
+import com.espressif.iot.esptouch.udp.IUDPSender;
+import com.espressif.iot.esptouch.udp.UDPSocketClient;
+import com.espressif.iot.esptouch.util.ByteUtil;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measure the time to provision N devices under different loss rates by the
+ * {@link EsptouchDeviceSimulator}, no ESP8266 or phone is needed.
+ * <p>
+ * By default the packets are sent on a virtual clock which follows the intervals and the
+ * timeouts of {@link EsptouchTaskParameter}, so the result is deterministic and the
+ * benchmark finishes in seconds. Run it with the argument "loopback" to execute the real
+ * {@link EsptouchTask} against the {@link EsptouchLoopbackSimulator} on 127.0.0.1 and
+ * measure the wall time instead.
+ */
+public class EsptouchBenchmark {
+
+    private static final int[] DEVICE_COUNTS = {1, 5, 20};
+    private static final float[] LOSS_RATES = {0f, 0.05f, 0.1f, 0.2f, 0.3f};
+    private static final float REORDER_RATE = 0.01f;
+    private static final int TRIAL_COUNT = 5;
+
+    private static final int ONE_DATA_LEN = 3;
+    private static final int LOOPBACK_ACK_REPEAT_TIME = 3;
+
+    private static final byte[] AP_SSID = ByteUtil.getBytesByString("EsptouchBenchmark");
+    private static final byte[] AP_PASSWORD = ByteUtil.getBytesByString("12345678");
+    private static final byte[] AP_BSSID = {0x18, (byte) 0xfe, 0x34, 0x12, 0x34, 0x56};
+
+    /**
+     * Run the benchmark on the virtual clock
+     *
+     * @param deviceCount the count of devices to be provisioned
+     * @param lossRate    the packet loss rate of every device
+     * @param seed        the seed of the first device, the others use the following ones
+     * @return the milliseconds until every device is provisioned, or -1 if any device isn't
+     * provisioned before the sending timeout
+     */
+    public static long runVirtual(int deviceCount, float lossRate, long seed) {
+        IEsptouchTaskParameter parameter = new EsptouchTaskParameter();
+        IEsptouchGenerator generator = new EsptouchGenerator(AP_SSID, AP_BSSID, AP_PASSWORD,
+                InetAddress.getLoopbackAddress(), true);
+        List<EsptouchDeviceSimulator> devices = createDevices(deviceCount, lossRate, seed);
+        byte[][] gcBytes2 = generator.getGCBytes2();
+        byte[][] dcBytes2 = generator.getDCBytes2();
+
+        long now = 0;
+        long lastTime = -parameter.getTimeoutTotalCodeMillisecond();
+        int index = 0;
+        int completedCount = 0;
+        while (now < parameter.getWaitUdpSendingMillisecond()) {
+            if (now - lastTime >= parameter.getTimeoutTotalCodeMillisecond()) {
+                long guideStart = now;
+                while (now - guideStart < parameter.getTimeoutGuideCodeMillisecond()) {
+                    for (byte[] packet : gcBytes2) {
+                        completedCount += deliver(devices, packet.length);
+                        now += parameter.getIntervalGuideCodeMillisecond();
+                    }
+                }
+                lastTime = guideStart;
+            } else {
+                for (int i = index; i < index + ONE_DATA_LEN; i++) {
+                    completedCount += deliver(devices, dcBytes2[i].length);
+                    now += parameter.getIntervalDataCodeMillisecond();
+                }
+                index = (index + ONE_DATA_LEN) % dcBytes2.length;
+            }
+            if (completedCount == deviceCount) {
+                return now;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Run the benchmark over the loopback UDP sockets, the packets are sent by the real
+     * {@link EsptouchTask} on the {@link JvmEsptouchPlatform}, only the target hostname is
+     * changed to 127.0.0.1 since the simulator doesn't join the multicast groups
+     *
+     * @param deviceCount the count of devices to be provisioned
+     * @param lossRate    the packet loss rate of every device
+     * @param seed        the seed of the first device, the others use the following ones
+     * @return the milliseconds until every device's ack is received, or -1 if any device isn't
+     * provisioned before the sending timeout
+     * @throws IOException if the target port can't be bound
+     */
+    public static long runLoopback(int deviceCount, float lossRate, long seed) throws IOException {
+        IEsptouchTaskParameter parameter = new EsptouchTaskParameter();
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        List<EsptouchDeviceSimulator> devices = createDevices(deviceCount, lossRate, seed);
+        EsptouchLoopbackSimulator simulator = new EsptouchLoopbackSimulator(devices,
+                parameter.getTargetPort(), parameter.getPortListening(), LOOPBACK_ACK_REPEAT_TIME);
+        IEsptouchPlatform platform = new JvmEsptouchPlatform(loopback) {
+            @Override
+            public IUDPSender createSender() {
+                return new UDPSocketClient() {
+                    @Override
+                    public void sendData(byte[][] data, int offset, int count,
+                                         String targetHostName, int targetPort, long interval) {
+                        super.sendData(data, offset, count, loopback.getHostAddress(), targetPort,
+                                interval);
+                    }
+                };
+            }
+        };
+        EsptouchTask task = new EsptouchTask(AP_SSID, AP_BSSID, AP_PASSWORD, null, platform);
+
+        long startTime = System.currentTimeMillis();
+        simulator.start();
+        try {
+            List<IEsptouchResult> results = task.executeForResults(deviceCount);
+            Set<String> bssids = new HashSet<>();
+            for (IEsptouchResult result : results) {
+                if (result.isSuc()) {
+                    bssids.add(result.getBssid());
+                }
+            }
+            return bssids.size() == deviceCount ? System.currentTimeMillis() - startTime : -1;
+        } finally {
+            task.interrupt();
+            simulator.stop();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean isLoopback = args.length > 0 && "loopback".equals(args[0]);
+        System.out.println("esptouch provisioning benchmark, "
+                + (isLoopback ? "loopback sockets" : "virtual clock")
+                + ", reorder rate " + REORDER_RATE + ", median of " + TRIAL_COUNT + " trials");
+        System.out.println("devices\tloss\tmillis\tfailed");
+        for (int deviceCount : DEVICE_COUNTS) {
+            for (float lossRate : LOSS_RATES) {
+                long[] millis = new long[TRIAL_COUNT];
+                int failedCount = 0;
+                for (int trial = 0; trial < TRIAL_COUNT; trial++) {
+                    long seed = trial * 1000L;
+                    millis[trial] = isLoopback ? runLoopback(deviceCount, lossRate, seed)
+                            : runVirtual(deviceCount, lossRate, seed);
+                    if (millis[trial] < 0) {
+                        millis[trial] = Long.MAX_VALUE;
+                        failedCount++;
+                    }
+                }
+                Arrays.sort(millis);
+                long median = millis[TRIAL_COUNT / 2];
+                System.out.println(deviceCount + "\t" + lossRate + "\t"
+                        + (median == Long.MAX_VALUE ? "timeout" : Long.toString(median))
+                        + "\t" + failedCount);
+            }
+        }
+    }
+
+    private static List<EsptouchDeviceSimulator> createDevices(int deviceCount, float lossRate,
+                                                               long seed) {
+        List<EsptouchDeviceSimulator> devices = new ArrayList<>(deviceCount);
+        for (int i = 0; i < deviceCount; i++) {
+            byte[] mac = {0x18, (byte) 0xfe, 0x34, 0, (byte) (i >> 8), (byte) i};
+            byte[] ip = {10, 0, (byte) (i >> 8), (byte) (i + 1)};
+            try {
+                devices.add(new EsptouchDeviceSimulator(mac, InetAddress.getByAddress(ip), AP_SSID,
+                        lossRate, REORDER_RATE, seed + i));
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return devices;
+    }
+
+    private static int deliver(List<EsptouchDeviceSimulator> devices, int len) {
+        int completedCount = 0;
+        for (EsptouchDeviceSimulator device : devices) {
+            if (!device.isCompleted() && device.onPacket(len)) {
+                completedCount++;
+            }
+        }
+        return completedCount;
+    }
+}
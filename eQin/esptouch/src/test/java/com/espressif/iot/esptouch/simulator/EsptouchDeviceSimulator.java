@@ -0,0 +1,328 @@
+package com.espressif.iot.esptouch.simulator;
+
+import com.espressif.iot.esptouch.util.CRC8;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The device side of the Esptouch protocol, it only sees the length of the packets sent
+ * by {@link com.espressif.iot.esptouch.udp.UDPSocketClient} just like the ESP8266 sniffing
+ * the air, decodes the guide code and the datum code, and builds the ack expected by the
+ * phone when the datum code is complete.
+ * <p>
+ * The packet loss and the reordering are simulated by the seeded random, so the same seed
+ * always produces the same result. It isn't thread safe.
+ */
+public class EsptouchDeviceSimulator {
+
+    // define by the Esptouch protocol
+    private static final int EXTRA_LEN = 40;
+    private static final int EXTRA_HEAD_LEN = 5;
+    private static final int IP_LEN = 4;
+    private static final int BSSID_LEN = 6;
+    private static final int INDEX_MAX = 127;
+    private static final int SEQUENCE_HEADER = 0x100;
+    private static final int[] GUIDE_CODE = {515, 514, 513, 512};
+
+    // the index of the head data in the datum code
+    private static final int INDEX_TOTAL_LEN = 0;
+    private static final int INDEX_PWD_LEN = 1;
+    private static final int INDEX_SSID_CRC = 2;
+    private static final int INDEX_BSSID_CRC = 3;
+    private static final int INDEX_TOTAL_XOR = 4;
+    private static final int INDEX_IP = 5;
+
+    private final byte[] mMac;
+    private final byte[] mInetAddress;
+    private final byte[] mApSsid;
+    private final float mLossRate;
+    private final float mReorderRate;
+    private final Random mRandom;
+    private final CRC8 mCrc8 = new CRC8();
+
+    private final int[] mWindow = new int[3];
+    private int mWindowLen;
+    private int mGuideIndex;
+    private boolean mIsSynchronized;
+    private final int[] mData = new int[INDEX_MAX + 1];
+    private final boolean[] mIsDataReceived = new boolean[INDEX_MAX + 1];
+    // the packet held back to be delivered after the next one
+    private int mHeldLen = -1;
+
+    private long mPacketCount;
+    private long mDeliveredCount;
+    private long mCompletedPacketCount = -1;
+    private byte[] mApPassword;
+    private byte[] mDecodedApSsid;
+    private byte[] mApBssid;
+    private InetAddress mTargetInetAddress;
+
+    /**
+     * Constructor of EsptouchDeviceSimulator
+     *
+     * @param mac         the mac of the device, it is sent back as the bssid in the ack
+     * @param inetAddress the ip address of the device, it is sent back in the ack
+     * @param apSsid      the ssid the device sees by scanning, it is used when the ssid
+     *                    isn't sent in the datum code, could be null
+     * @param lossRate    the probability of a packet lost, 0 to 1
+     * @param reorderRate the probability of a packet delivered after its next one, 0 to 1
+     * @param seed        the seed of the random
+     */
+    public EsptouchDeviceSimulator(byte[] mac, InetAddress inetAddress, byte[] apSsid,
+                                   float lossRate, float reorderRate, long seed) {
+        if (mac.length != BSSID_LEN) {
+            throw new IllegalArgumentException("mac should be " + BSSID_LEN + " bytes");
+        }
+        byte[] address = inetAddress.getAddress();
+        if (address.length != IP_LEN) {
+            throw new IllegalArgumentException("only ipv4 address is supported");
+        }
+        mMac = mac.clone();
+        mInetAddress = address;
+        mApSsid = apSsid;
+        mLossRate = lossRate;
+        mReorderRate = reorderRate;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Clear the decoded state, the loss and reorder random isn't reset
+     */
+    public void reset() {
+        mWindowLen = 0;
+        mGuideIndex = 0;
+        mIsSynchronized = false;
+        Arrays.fill(mIsDataReceived, false);
+        mHeldLen = -1;
+        mPacketCount = 0;
+        mDeliveredCount = 0;
+        mCompletedPacketCount = -1;
+        mApPassword = null;
+        mDecodedApSsid = null;
+        mApBssid = null;
+        mTargetInetAddress = null;
+    }
+
+    /**
+     * A packet is sent in the air
+     *
+     * @param len the length of the packet
+     * @return whether the datum code is complete
+     */
+    public boolean onPacket(int len) {
+        if (isCompleted()) {
+            return true;
+        }
+        mPacketCount++;
+        if (mLossRate > 0 && mRandom.nextFloat() < mLossRate) {
+            return false;
+        }
+        if (mHeldLen >= 0) {
+            __deliver(len);
+            __deliver(mHeldLen);
+            mHeldLen = -1;
+        } else if (mReorderRate > 0 && mRandom.nextFloat() < mReorderRate) {
+            mHeldLen = len;
+        } else {
+            __deliver(len);
+        }
+        return isCompleted();
+    }
+
+    public boolean isSynchronized() {
+        return mIsSynchronized;
+    }
+
+    public boolean isCompleted() {
+        return mCompletedPacketCount >= 0;
+    }
+
+    /**
+     * get the count of packets sent in the air until the datum code is complete
+     *
+     * @return the count of packets, or -1 if the datum code isn't complete
+     */
+    public long getCompletedPacketCount() {
+        return mCompletedPacketCount;
+    }
+
+    public long getPacketCount() {
+        return mPacketCount;
+    }
+
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    public byte[] getApSsid() {
+        return mDecodedApSsid;
+    }
+
+    public byte[] getApPassword() {
+        return mApPassword;
+    }
+
+    public byte[] getApBssid() {
+        return mApBssid;
+    }
+
+    /**
+     * get the phone's address decoded from the datum code, the ack should be sent to it
+     *
+     * @return the phone's address, or null if the datum code isn't complete
+     */
+    public InetAddress getTargetInetAddress() {
+        return mTargetInetAddress;
+    }
+
+    /**
+     * Build the ack: the length of ssid and password plus 9, the mac and the ip address
+     *
+     * @return the ack, or null if the datum code isn't complete
+     */
+    public byte[] getAck() {
+        if (!isCompleted()) {
+            return null;
+        }
+        byte[] ack = new byte[1 + BSSID_LEN + IP_LEN];
+        ack[0] = (byte) (mDecodedApSsid.length + mApPassword.length + EXTRA_HEAD_LEN + IP_LEN);
+        System.arraycopy(mMac, 0, ack, 1, BSSID_LEN);
+        System.arraycopy(mInetAddress, 0, ack, 1 + BSSID_LEN, IP_LEN);
+        return ack;
+    }
+
+    private void __deliver(int len) {
+        mDeliveredCount++;
+        if (__isGuideCode(len)) {
+            mWindowLen = 0;
+            return;
+        }
+        if (!mIsSynchronized) {
+            return;
+        }
+        int u8 = len - EXTRA_LEN;
+        if (u8 < 0 || u8 > (SEQUENCE_HEADER | INDEX_MAX)) {
+            mWindowLen = 0;
+            return;
+        }
+        if (mWindowLen == mWindow.length) {
+            mWindow[0] = mWindow[1];
+            mWindow[1] = mWindow[2];
+            mWindowLen--;
+        }
+        mWindow[mWindowLen++] = u8;
+        if (mWindowLen == mWindow.length) {
+            __decodeWindow();
+        }
+    }
+
+    private boolean __isGuideCode(int len) {
+        if (len < GUIDE_CODE[GUIDE_CODE.length - 1] || len > GUIDE_CODE[0]) {
+            mGuideIndex = 0;
+            return false;
+        }
+        if (len == GUIDE_CODE[mGuideIndex]) {
+            mGuideIndex++;
+        } else {
+            mGuideIndex = len == GUIDE_CODE[0] ? 1 : 0;
+        }
+        if (mGuideIndex == GUIDE_CODE.length) {
+            mIsSynchronized = true;
+            mGuideIndex = 0;
+        }
+        return true;
+    }
+
+    private void __decodeWindow() {
+        int high = mWindow[0];
+        int header = mWindow[1];
+        int low = mWindow[2];
+        if (high >= SEQUENCE_HEADER || low >= SEQUENCE_HEADER || header < SEQUENCE_HEADER) {
+            return;
+        }
+        int index = header & INDEX_MAX;
+        int data = (high & 0x0f) << 4 | low & 0x0f;
+        int crc = high & 0xf0 | low >>> 4;
+        mCrc8.reset();
+        mCrc8.update(data);
+        mCrc8.update(index);
+        if (crc != mCrc8.getValue()) {
+            return;
+        }
+        mData[index] = data;
+        mIsDataReceived[index] = true;
+        mWindowLen = 0;
+        __checkCompleted();
+    }
+
+    private void __checkCompleted() {
+        if (!mIsDataReceived[INDEX_TOTAL_LEN] || !mIsDataReceived[INDEX_PWD_LEN]) {
+            return;
+        }
+        int totalLen = mData[INDEX_TOTAL_LEN];
+        int pwdLen = mData[INDEX_PWD_LEN];
+        int ssidLen = totalLen - EXTRA_HEAD_LEN - IP_LEN - pwdLen;
+        if (ssidLen < 0) {
+            return;
+        }
+        // the ssid is sent when it is hidden, otherwise the device gets it by scanning
+        if (__tryComplete(totalLen, pwdLen, ssidLen, true)) {
+            return;
+        }
+        if (mApSsid != null && mApSsid.length == ssidLen) {
+            __tryComplete(totalLen, pwdLen, ssidLen, false);
+        }
+    }
+
+    private boolean __tryComplete(int totalLen, int pwdLen, int ssidLen, boolean isSsidHidden) {
+        int headLen = isSsidHidden ? totalLen : EXTRA_HEAD_LEN + IP_LEN + pwdLen;
+        if (headLen + BSSID_LEN > INDEX_MAX + 1) {
+            return false;
+        }
+        for (int i = 0; i < headLen + BSSID_LEN; i++) {
+            if (!mIsDataReceived[i]) {
+                return false;
+            }
+        }
+        byte[] password = __copyData(EXTRA_HEAD_LEN + IP_LEN, pwdLen);
+        byte[] ssid = isSsidHidden ? __copyData(EXTRA_HEAD_LEN + IP_LEN + pwdLen, ssidLen) : mApSsid;
+        byte[] bssid = __copyData(headLen, BSSID_LEN);
+        if (CRC8.crc8(ssid) != mData[INDEX_SSID_CRC] || CRC8.crc8(bssid) != mData[INDEX_BSSID_CRC]) {
+            return false;
+        }
+        int totalXor = totalLen ^ pwdLen ^ mData[INDEX_SSID_CRC] ^ mData[INDEX_BSSID_CRC];
+        for (int i = 0; i < IP_LEN; i++) {
+            totalXor ^= mData[INDEX_IP + i];
+        }
+        for (byte b : password) {
+            totalXor ^= b & 0xff;
+        }
+        for (byte b : ssid) {
+            totalXor ^= b & 0xff;
+        }
+        if (totalXor != mData[INDEX_TOTAL_XOR]) {
+            return false;
+        }
+        try {
+            mTargetInetAddress = InetAddress.getByAddress(__copyData(INDEX_IP, IP_LEN));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+        mApPassword = password;
+        mDecodedApSsid = ssid;
+        mApBssid = bssid;
+        mCompletedPacketCount = mPacketCount;
+        return true;
+    }
+
+    private byte[] __copyData(int offset, int count) {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) mData[offset + i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,115 @@
+package com.espressif.iot.esptouch.simulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run the {@link EsptouchDeviceSimulator}s over the real UDP sockets: it listens on the
+ * target port, feeds the length of each datagram received to every device, and sends
+ * the ack to the phone's address decoded from the datum code when a device is complete.
+ * <p>
+ * The sender should use the loopback address as the target hostname instead of the
+ * multicast addresses.
+ */
+public class EsptouchLoopbackSimulator {
+
+    private static final String TAG = "EsptouchLoopbackSimulator";
+
+    // the longest packet is the guide code
+    private static final int BUFFER_LEN = 1024;
+
+    private final List<EsptouchDeviceSimulator> mDevices;
+    private final int mAckPort;
+    private final int mAckRepeatTime;
+    private final DatagramChannel mChannel;
+    private volatile boolean mIsStop;
+    private volatile int mCompletedCount;
+    private Thread mReceiveTask;
+
+    /**
+     * Constructor of EsptouchLoopbackSimulator
+     *
+     * @param devices       the devices to be provisioned
+     * @param targetPort    the port the phone sends the datagrams to
+     * @param ackPort       the port the phone listens for the ack
+     * @param ackRepeatTime how many times the ack is sent by one device
+     * @throws IOException if the target port can't be bound
+     */
+    public EsptouchLoopbackSimulator(List<EsptouchDeviceSimulator> devices, int targetPort,
+                                     int ackPort, int ackRepeatTime) throws IOException {
+        mDevices = new ArrayList<>(devices);
+        mAckPort = ackPort;
+        mAckRepeatTime = ackRepeatTime;
+        mChannel = DatagramChannel.open();
+        try {
+            mChannel.socket().setReuseAddress(true);
+            mChannel.socket().bind(new InetSocketAddress(targetPort));
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+    public synchronized void start() {
+        if (mReceiveTask != null) {
+            throw new IllegalStateException("the simulator could be started only once");
+        }
+        mReceiveTask = new Thread(TAG) {
+            @Override
+            public void run() {
+                __receive();
+            }
+        };
+        mReceiveTask.start();
+    }
+
+    public synchronized void stop() {
+        mIsStop = true;
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    private void __receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LEN);
+        try {
+            while (!mIsStop) {
+                buffer.clear();
+                if (mChannel.receive(buffer) == null) {
+                    continue;
+                }
+                int len = buffer.position();
+                for (EsptouchDeviceSimulator device : mDevices) {
+                    if (!device.isCompleted() && device.onPacket(len)) {
+                        mCompletedCount++;
+                        __sendAck(device);
+                    }
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // the simulator is stopped
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void __sendAck(EsptouchDeviceSimulator device) throws IOException {
+        ByteBuffer ack = ByteBuffer.wrap(device.getAck());
+        InetSocketAddress target = new InetSocketAddress(device.getTargetInetAddress(), mAckPort);
+        for (int i = 0; i < mAckRepeatTime; i++) {
+            ack.rewind();
+            mChannel.send(ack, target);
+        }
+    }
+}
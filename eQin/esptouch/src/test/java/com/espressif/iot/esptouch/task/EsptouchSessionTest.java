@@ -0,0 +1,170 @@
+package com.espressif.iot.esptouch.task;
+
+import com.espressif.iot.esptouch.platform.IEsptouchPlatform;
+import com.espressif.iot.esptouch.platform.IMulticastLock;
+import com.espressif.iot.esptouch.protocol.TouchData;
+import com.espressif.iot.esptouch.udp.IUDPReceiver;
+import com.espressif.iot.esptouch.udp.IUDPSender;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drive {@link __EsptouchSession} by a fake platform, no socket is opened.
+ */
+public class EsptouchSessionTest {
+    private static final String SSID = "ssid";
+    private static final String PASSWORD = "12345678";
+    private static final byte[] BSSID = {0x18, (byte) 0xfe, 0x34, 0x12, 0x34, 0x56};
+
+    @Test
+    public void stop_whilePaused_closesSender() throws Exception {
+        FakePlatform platform = new FakePlatform();
+        __EsptouchSession session = newSession(platform);
+        session.setExpectResultCount(1);
+        session.start();
+        // the ack of one device, the sender pauses once the expect result count is reached
+        byte[] ack = new byte[11];
+        ack[0] = (byte) (SSID.length() + PASSWORD.length() + 9);
+        System.arraycopy(BSSID, 0, ack, 1, BSSID.length);
+        platform.mReceiver.mListener.onReceive(ack);
+        assertEquals(1, session.getResults().size());
+        assertTrue(awaitPaused(platform.mSender));
+
+        session.stop();
+        assertTrue(platform.mSender.mClosed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, platform.mReceiver.mReleased.get());
+    }
+
+    @Test
+    public void setExpectResultCount_nonPositiveIsUnlimited() {
+        __EsptouchSession session = newSession(new FakePlatform());
+        session.setExpectResultCount(0);
+        assertEquals(Integer.MAX_VALUE, session.getExpectResultCount());
+        session.setExpectResultCount(-1);
+        assertEquals(Integer.MAX_VALUE, session.getExpectResultCount());
+        session.setExpectResultCount(3);
+        assertEquals(3, session.getExpectResultCount());
+    }
+
+    // the sender is paused if nothing is sent for a while
+    private static boolean awaitPaused(FakeSender sender) throws InterruptedException {
+        int last = -1;
+        for (int i = 0; i < 50; i++) {
+            Thread.sleep(100);
+            int sentCount = sender.mSentCount.get();
+            if (sentCount == last) {
+                return true;
+            }
+            last = sentCount;
+        }
+        return false;
+    }
+
+    private static __EsptouchSession newSession(IEsptouchPlatform platform) {
+        return new __EsptouchSession(platform, new TouchData(SSID), new TouchData(BSSID),
+                new TouchData(PASSWORD), null, new EsptouchTaskParameter(), false);
+    }
+
+    private static class FakePlatform implements IEsptouchPlatform {
+        private final FakeSender mSender = new FakeSender();
+        private final FakeReceiver mReceiver = new FakeReceiver();
+
+        @Override
+        public InetAddress getLocalInetAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public boolean isMainThread() {
+            return false;
+        }
+
+        @Override
+        public IMulticastLock createMulticastLock(String tag) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IUDPSender createSender() {
+            return mSender;
+        }
+
+        @Override
+        public IUDPReceiver acquireReceiver(int port) {
+            return mReceiver;
+        }
+    }
+
+    private static class FakeSender implements IUDPSender {
+        private final CountDownLatch mClosed = new CountDownLatch(1);
+        private final AtomicInteger mSentCount = new AtomicInteger();
+
+        @Override
+        public void sendData(byte[][] data, String targetHostName, int targetPort, long interval) {
+            sent(data.length);
+        }
+
+        @Override
+        public void sendData(byte[][] data, int offset, int count, String targetHostName, int targetPort,
+                             long interval) {
+            sent(count);
+        }
+
+        private void sent(int count) {
+            mSentCount.addAndGet(count);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void interrupt() {
+        }
+
+        @Override
+        public void close() {
+            mClosed.countDown();
+        }
+
+        @Override
+        public long getSentPacketCount() {
+            return mSentCount.get();
+        }
+
+        @Override
+        public long getFailedPacketCount() {
+            return 0;
+        }
+    }
+
+    private static class FakeReceiver implements IUDPReceiver {
+        private final AtomicInteger mReleased = new AtomicInteger();
+        private volatile OnReceiveListener mListener;
+
+        @Override
+        public Registration register(int expectLen, byte expectOneByte, long timeoutMillis,
+                                     OnReceiveListener listener) {
+            mListener = listener;
+            return new Registration() {
+                @Override
+                public void cancel() {
+                }
+            };
+        }
+
+        @Override
+        public void release() {
+            mReleased.incrementAndGet();
+        }
+    }
+}
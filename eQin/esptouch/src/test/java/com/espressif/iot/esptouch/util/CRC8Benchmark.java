@@ -0,0 +1,70 @@
+package com.espressif.iot.esptouch.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculate the crc by the allocation-free {@link CRC8#crc8(byte[])} and the instance API
+ * against the byte by byte {@link CRC8Test.ReferenceCRC8} it replaced. The short buffers are
+ * the ssid and the bssid of the datum code, the long one is a full ack.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CRC8Benchmark {
+
+    @Param({"6", "32", "256"})
+    public int length;
+
+    private byte[] mBuffer;
+
+    @Setup
+    public void setUp() {
+        mBuffer = new byte[length];
+        new Random(1).nextBytes(mBuffer);
+    }
+
+    @Benchmark
+    public int crc8() {
+        return CRC8.crc8(mBuffer);
+    }
+
+    @Benchmark
+    public long instance() {
+        CRC8 crc8 = new CRC8();
+        crc8.update(mBuffer);
+        return crc8.getValue();
+    }
+
+    // the code of CRC8 before the slicing
+    @Benchmark
+    public long reference() {
+        CRC8Test.ReferenceCRC8 crc8 = new CRC8Test.ReferenceCRC8();
+        crc8.update(mBuffer, 0, mBuffer.length);
+        return crc8.getValue();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CRC8Benchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
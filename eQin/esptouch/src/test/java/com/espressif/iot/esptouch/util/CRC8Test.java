@@ -0,0 +1,113 @@
+package com.espressif.iot.esptouch.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Randomized check that the sliced {@link CRC8} computes the same crc as the byte by byte
+ * table lookup it replaced, which is kept here as the reference implementation.
+ */
+public class CRC8Test {
+    private static final int ROUNDS = 50000;
+
+    @Test
+    public void crc8_matchesReference() {
+        Random random = new Random(20181018);
+        for (int round = 0; round < ROUNDS; round++) {
+            // around the slicing width as well as the longer buffers
+            byte[] buffer = randomBytes(random, random.nextBoolean() ? random.nextInt(20) : random.nextInt(300));
+            int offset = buffer.length == 0 ? 0 : random.nextInt(buffer.length + 1);
+            int len = random.nextInt(buffer.length - offset + 1);
+
+            ReferenceCRC8 expected = new ReferenceCRC8();
+            expected.update(buffer, offset, len);
+            assertEquals("round " + round, expected.getValue(), CRC8.crc8(buffer, offset, len));
+
+            expected.reset();
+            expected.update(buffer, 0, buffer.length);
+            assertEquals("round " + round, expected.getValue(), CRC8.crc8(buffer));
+        }
+    }
+
+    @Test
+    public void update_matchesReference() {
+        Random random = new Random(20181019);
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] buffer = randomBytes(random, random.nextInt(300));
+            ReferenceCRC8 expected = new ReferenceCRC8();
+            CRC8 actual = new CRC8();
+            // the buffer is fed in random pieces, some of them byte by byte
+            int i = 0;
+            while (i < buffer.length) {
+                if (random.nextInt(4) == 0) {
+                    expected.update(buffer[i]);
+                    actual.update(buffer[i]);
+                    i++;
+                } else {
+                    int len = random.nextInt(buffer.length - i + 1);
+                    expected.update(buffer, i, len);
+                    actual.update(buffer, i, len);
+                    i += len;
+                }
+                assertEquals("round " + round, expected.getValue(), actual.getValue());
+            }
+            actual.reset();
+            actual.update(buffer);
+            expected.reset();
+            expected.update(buffer, 0, buffer.length);
+            assertEquals("round " + round, expected.getValue(), actual.getValue());
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int len) {
+        byte[] bytes = new byte[len];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * The CRC8 before the slicing, byte by byte
+     */
+    static class ReferenceCRC8 {
+
+        private static final short[] crcTable = new short[256];
+        private static final short CRC_POLYNOM = 0x8c;
+        private static final short CRC_INITIAL = 0x00;
+
+        static {
+            for (int dividend = 0; dividend < 256; dividend++) {
+                int remainder = dividend;// << 8;
+                for (int bit = 0; bit < 8; ++bit)
+                    if ((remainder & 0x01) != 0)
+                        remainder = (remainder >>> 1) ^ CRC_POLYNOM;
+                    else
+                        remainder >>>= 1;
+                crcTable[dividend] = (short) remainder;
+            }
+        }
+
+        private short value = CRC_INITIAL;
+
+        void update(byte[] buffer, int offset, int len) {
+            for (int i = 0; i < len; i++) {
+                int data = buffer[offset + i] ^ value;
+                value = (short) (crcTable[data & 0xff] ^ (value << 8));
+            }
+        }
+
+        void update(int b) {
+            update(new byte[]{(byte) b}, 0, 1);
+        }
+
+        long getValue() {
+            return value & 0xff;
+        }
+
+        void reset() {
+            value = CRC_INITIAL;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.espressif.iot.esptouch.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class EspAESTest {
+    private static final byte[] KEY = "1234567890123456".getBytes();
+    private static final byte[] IV = "abcdefghijklmnop".getBytes();
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 2000;
+
+    @Test
+    public void encrypt_roundTrips() {
+        Random random = new Random(1);
+        for (EspAES aes : allTransformations()) {
+            for (int len = 0; len <= 100; len++) {
+                byte[] content = new byte[len];
+                random.nextBytes(content);
+                byte[] encrypted = aes.encrypt(content);
+                assertArrayEquals("len " + len, content, aes.decrypt(encrypted));
+            }
+        }
+    }
+
+    @Test
+    public void encrypt_inPlace() {
+        Random random = new Random(2);
+        for (EspAES aes : allTransformations()) {
+            for (int len = 0; len <= 100; len++) {
+                byte[] content = new byte[len];
+                random.nextBytes(content);
+                // the output is written over the input
+                int encryptSize = aes.getEncryptOutputSize(len);
+                byte[] buffer = Arrays.copyOf(content, Math.max(encryptSize, aes.getDecryptOutputSize(encryptSize)));
+                int encryptedLen = aes.encrypt(buffer, 0, len, buffer);
+                assertEquals(aes.encrypt(content).length, encryptedLen);
+                int decryptedLen = aes.decrypt(buffer, 0, encryptedLen, buffer);
+                assertEquals(len, decryptedLen);
+                assertArrayEquals("len " + len, content, Arrays.copyOf(buffer, decryptedLen));
+            }
+        }
+    }
+
+    @Test
+    public void encrypt_concurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (final EspAES aes : allTransformations()) {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    final long seed = t;
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            Random random = new Random(seed);
+                            for (int i = 0; i < ROUNDS; i++) {
+                                byte[] content = new byte[random.nextInt(64)];
+                                random.nextBytes(content);
+                                assertArrayEquals(content, aes.decrypt(aes.encrypt(content)));
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void encrypt_freshIVEveryTime() {
+        for (String transformation : new String[]{EspAES.TRANSFORMATION_CTR, EspAES.TRANSFORMATION_GCM}) {
+            EspAES aes = new EspAES(KEY, transformation);
+            byte[] content = new byte[32];
+            assertFalse(transformation, Arrays.equals(aes.encrypt(content), aes.encrypt(content)));
+        }
+    }
+
+    @Test
+    public void constructor_rejectsFixedIV() {
+        for (String transformation : new String[]{EspAES.TRANSFORMATION_CTR, EspAES.TRANSFORMATION_GCM}) {
+            try {
+                new EspAES(KEY, IV, transformation);
+                fail(transformation);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decrypt_rejectsTampered() {
+        EspAES aes = new EspAES(KEY, EspAES.TRANSFORMATION_GCM);
+        byte[] encrypted = aes.encrypt(new byte[16]);
+        encrypted[encrypted.length / 2] ^= 1;
+        aes.decrypt(encrypted);
+    }
+
+    private static List<EspAES> allTransformations() {
+        return Arrays.asList(new EspAES(KEY), new EspAES(KEY, IV, "AES/CBC/PKCS5Padding"),
+                new EspAES(KEY, EspAES.TRANSFORMATION_CTR), new EspAES(KEY, EspAES.TRANSFORMATION_GCM));
+    }
+}